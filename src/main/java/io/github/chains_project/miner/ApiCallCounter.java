@@ -0,0 +1,29 @@
+package io.github.chains_project.miner;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * The ApiCallCounter is an OkHttp network interceptor counting the requests sent over the network by each thread.
+ * Since OkHttp runs the interceptors of a synchronous call on the calling thread, the difference between two
+ * readings of {@link #current()} is the number of API calls made by the code in between. Responses served from
+ * the HTTP cache never reach the network and are not counted.
+ */
+public class ApiCallCounter implements Interceptor {
+    private static final ThreadLocal<long[]> calls = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * @return the number of network requests made so far by the current thread.
+     */
+    public static long current() {
+        return calls.get()[0];
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        calls.get()[0]++;
+        return chain.proceed(chain.request());
+    }
+}
@@ -0,0 +1,478 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The BinaryRepositoryListCodec stores a {@link RepositoryList} in a compact binary format of variable-length
+ * records.
+ * <p>
+ * The file starts with a header and a table of the strings that repeat between repositories, i.e. project types,
+ * lockfile paths and URLs, followed by one record per repository. Records refer to strings by their index in the
+ * table. Records have no length of their own, their flags tell which fields follow. The URL of a repository is only
+ * stored when it differs from the API URL derived from its name, and a flag tells when a repository has no URL.
+ * Integers are stored as unsigned variable-length integers (7 bits per byte), strings as their UTF-8 length followed
+ * by their bytes.
+ * <pre>
+ * file   = "RLST" version:u8 stringCount:var string* repoCount:var record*
+ * record = name:string flags:u8 [url:var] [lastCheckedAt:i64] [typeCount:var type:var*] [pathCount:var path:var*]
+ * </pre>
+ */
+class BinaryRepositoryListCodec implements RepositoryListCodec {
+
+    /**
+     * The file ending of repository lists stored in the binary format.
+     */
+    static final String FILE_ENDING = ".bin";
+    private static final int MAGIC = 0x524c5354;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int VERSION = 1;
+    private static final String API_URL_PREFIX = "https://api.github.com/repos/";
+    private static final int HAS_URL = 1;
+    private static final int HAS_LAST_CHECKED_AT = 1 << 1;
+    private static final int HAS_PROJECT_TYPE = 1 << 2;
+    private static final int LOCKFILE_EXISTS = 1 << 3;
+    private static final int HAS_LOCKFILE_PATHS = 1 << 4;
+    private static final int NO_URL = 1 << 5;
+
+    @Override
+    public Entries read(Path file) {
+        try {
+            if (Files.size(file) == 0)
+                return new Reader(null, new String[0], 0);
+            Input in = new Input(JsonUtils.openBuffered(file));
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException(file + " is not a binary repository list");
+                int version = in.readByte();
+                if (version != VERSION)
+                    throw new IOException("Unsupported version " + version + " of " + file);
+                String[] strings = new String[in.readVarInt()];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = in.readString();
+                }
+                return new Reader(in, strings, in.readVarInt());
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Since the string table precedes the records, the records are first encoded in memory while the table is
+     * collected, and then written after it.
+     */
+    @Override
+    public void write(Path file, Map<String, RepositoryData> repos) {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            Output out = new Output(records);
+            for (Map.Entry<String, RepositoryData> entry : repos.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue(), strings);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        JsonUtils.writeAtomically(file, stream -> {
+            Output out = new Output(stream);
+            writeHeader(out, strings, repos.size());
+            out.flush();
+            records.writeTo(stream);
+        });
+    }
+
+    /**
+     * Since the string table precedes the records, the records are first written to a temporary file while the
+     * table is collected, and then copied after it.
+     */
+    @Override
+    public void write(Path file, Iterator<Map.Entry<String, RepositoryData>> entries) {
+        JsonUtils.writeAtomically(file, stream -> {
+            Path records = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(),
+                    ".records");
+            try {
+                StringTable strings = new StringTable();
+                int count = 0;
+                try (OutputStream recordStream = JsonUtils.createBuffered(records)) {
+                    Output out = new Output(recordStream);
+                    while (entries.hasNext()) {
+                        Map.Entry<String, RepositoryData> entry = entries.next();
+                        writeRecord(out, entry.getKey(), entry.getValue(), strings);
+                        count++;
+                    }
+                    out.flush();
+                }
+                Output out = new Output(stream);
+                writeHeader(out, strings, count);
+                out.flush();
+                Files.copy(records, stream);
+            } finally {
+                Files.deleteIfExists(records);
+            }
+        });
+    }
+
+    private static void writeHeader(Output out, StringTable strings, int count) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeVarInt(strings.size());
+        for (byte[] string : strings.encoded) {
+            out.writeBytes(string);
+        }
+        out.writeVarInt(count);
+    }
+
+    /**
+     * Write a record, adding the strings it refers to to the string table if they are not in it yet.
+     */
+    private static void writeRecord(Output out, String name, RepositoryData data, StringTable strings)
+            throws IOException {
+        boolean hasUrl = data.url() != null && !isDerivedUrl(name, data.url());
+        int flags = (hasUrl ? HAS_URL : 0)
+                | (data.url() == null ? NO_URL : 0)
+                | (data.lastCheckedAt() != null ? HAS_LAST_CHECKED_AT : 0)
+                | (data.projectType() != null ? HAS_PROJECT_TYPE : 0)
+                | (data.lockfileExists() ? LOCKFILE_EXISTS : 0)
+                | (data.lockfilePaths() != null ? HAS_LOCKFILE_PATHS : 0);
+        out.writeString(name);
+        out.writeByte(flags);
+        if (hasUrl)
+            out.writeVarInt(strings.index(data.url()));
+        if (data.lastCheckedAt() != null)
+            out.writeLong(data.lastCheckedAt().getTime());
+        if (data.projectType() != null) {
+            out.writeVarInt(data.projectType().size());
+            for (ProjectType type : data.projectType()) {
+                out.writeVarInt(strings.index(type));
+            }
+        }
+        if (data.lockfilePaths() != null) {
+            out.writeVarInt(data.lockfilePaths().size());
+            for (String path : data.lockfilePaths()) {
+                out.writeVarInt(strings.index(path));
+            }
+        }
+    }
+
+    private static boolean isDerivedUrl(String name, String url) {
+        return url.length() == API_URL_PREFIX.length() + name.length()
+                && url.startsWith(API_URL_PREFIX) && url.endsWith(name);
+    }
+
+    /**
+     * The StringTable numbers the strings in the order they are first added, and keeps them encoded as UTF-8 for
+     * the header.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+        private final int[] projectTypes = new int[ProjectType.values().length];
+
+        StringTable() {
+            Arrays.fill(projectTypes, -1);
+        }
+
+        /**
+         * @return the index of the name of the project type, which is looked up only once per type.
+         */
+        int index(ProjectType type) {
+            int index = projectTypes[type.ordinal()];
+            if (index == -1) {
+                index = index(type.name());
+                projectTypes[type.ordinal()] = index;
+            }
+            return index;
+        }
+
+        /**
+         * @return the index of the string, which is added to the table if it is not in it yet.
+         */
+        int index(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = encoded.size();
+                indexes.put(string, index);
+                encoded.add(string.getBytes(StandardCharsets.UTF_8));
+            }
+            return index;
+        }
+
+        int size() {
+            return encoded.size();
+        }
+    }
+
+    /**
+     * The Output encodes the values of the format into a buffer of its own, which is written to the underlying
+     * stream when it is full. Unlike a {@link java.io.DataOutputStream} over a buffered stream, writing a single
+     * byte does not take a lock.
+     */
+    private static class Output {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeByte(int value) throws IOException {
+            require(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeInt(int value) throws IOException {
+            require(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeLong(long value) throws IOException {
+            require(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeVarInt(int value) throws IOException {
+            require(5);
+            while ((value & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        /**
+         * Write a string as UTF-8, prefixed with its length. ASCII strings, such as the names of repositories, are
+         * copied into the buffer without being encoded into an array first.
+         */
+        void writeString(String string) throws IOException {
+            int length = string.length();
+            if (length < 0x80) {
+                require(1 + length);
+                int start = position + 1;
+                int i = 0;
+                while (i < length) {
+                    char c = string.charAt(i);
+                    if (c >= 0x80)
+                        break;
+                    buffer[start + i++] = (byte) c;
+                }
+                if (i == length) {
+                    buffer[position] = (byte) length;
+                    position = start + length;
+                    return;
+                }
+            }
+            writeBytes(string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Write an encoded string, prefixed with its length.
+         */
+        void writeBytes(byte[] bytes) throws IOException {
+            writeVarInt(bytes.length);
+            if (bytes.length > buffer.length) {
+                flush();
+                out.write(bytes);
+                return;
+            }
+            require(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        private void require(int count) throws IOException {
+            if (buffer.length - position < count)
+                flush();
+        }
+    }
+
+    /**
+     * The Input decodes the values of the format from a buffer of its own, which is refilled from the underlying
+     * stream when it runs out, so that reading a single byte does not take a lock.
+     */
+    private static class Input implements Closeable {
+        private final InputStream in;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return buffer[position++] & 0xff;
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = value << 8 | buffer[position++] & 0xff;
+            }
+            return value;
+        }
+
+        long readLong() throws IOException {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = value << 8 | buffer[position++] & 0xff;
+            }
+            return value;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed variable-length integer");
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            require(length);
+            String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+
+        /**
+         * Make sure that the buffer holds at least the given number of bytes, moving the unread bytes to its start
+         * and growing it if needed.
+         */
+        private void require(int count) throws IOException {
+            if (limit - position >= count)
+                return;
+            if (count > buffer.length)
+                buffer = Arrays.copyOf(buffer, count);
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            while (limit < count) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read == -1)
+                    throw new EOFException();
+                limit += read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class Reader implements Entries {
+        private final Input in;
+        private final String[] strings;
+        private final ProjectType[] projectTypes;
+        private int remaining;
+
+        Reader(Input in, String[] strings, int count) {
+            this.in = in;
+            this.strings = strings;
+            this.projectTypes = new ProjectType[strings.length];
+            this.remaining = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<String, RepositoryData> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            try {
+                String name = in.readString();
+                int flags = in.readByte();
+                String url = (flags & HAS_URL) != 0 ? strings[in.readVarInt()]
+                        : (flags & NO_URL) != 0 ? null : API_URL_PREFIX + name;
+                Date lastCheckedAt = (flags & HAS_LAST_CHECKED_AT) != 0 ? new Date(in.readLong()) : null;
+                List<ProjectType> projectType = null;
+                if ((flags & HAS_PROJECT_TYPE) != 0) {
+                    projectType = new ArrayList<>();
+                    for (int i = in.readVarInt(); i > 0; i--) {
+                        projectType.add(projectType(in.readVarInt()));
+                    }
+                }
+                List<String> lockfilePaths = null;
+                if ((flags & HAS_LOCKFILE_PATHS) != 0) {
+                    lockfilePaths = new ArrayList<>();
+                    for (int i = in.readVarInt(); i > 0; i--) {
+                        lockfilePaths.add(strings[in.readVarInt()]);
+                    }
+                }
+                remaining--;
+                return Map.entry(name, new RepositoryData(url, lastCheckedAt, projectType,
+                        (flags & LOCKFILE_EXISTS) != 0, lockfilePaths));
+            } catch (EOFException e) {
+                throw new RuntimeException("Repository list ended after an incomplete record", e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return the project type named by a string in the table, which is looked up only once per string.
+         */
+        private ProjectType projectType(int index) {
+            ProjectType type = projectTypes[index];
+            if (type == null) {
+                type = ProjectType.valueOf(strings[index]);
+                projectTypes[index] = type;
+            }
+            return type;
+        }
+
+        @Override
+        public void close() {
+            if (in == null)
+                return;
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.chains_project.miner;
+
+import okio.BufferedSource;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The DiffScanner finds the files changed by a unified diff, as returned by GitHub for a pull request, by
+ * reading only its file headers. Every other line is skipped without being decoded, and the scan stops at the
+ * first matching file, so the rest of the diff, which for a lockfile update can be megabytes of hunks, does not
+ * need to be read at all.
+ * <p>
+ * Both the "diff --git" header and the "---" and "+++" headers are used, since binary files such as bun.lockb
+ * only have the former, and deleted files only name their path in the "---" header.
+ */
+public class DiffScanner {
+
+    private static final ByteString DIFF_HEADER = ByteString.encodeUtf8("diff --git ");
+    private static final ByteString OLD_FILE_HEADER = ByteString.encodeUtf8("--- ");
+    private static final ByteString NEW_FILE_HEADER = ByteString.encodeUtf8("+++ ");
+    private static final ByteString HUNK_HEADER = ByteString.encodeUtf8("@@");
+    private static final String NO_FILE = "/dev/null";
+
+    private DiffScanner() { /* Nothing to see here... */ }
+
+    /**
+     * Read a diff until a changed file matching the predicate is found.
+     *
+     * @param diff  the diff to read, which is left positioned after the matching header.
+     * @param paths the predicate over the paths of the changed files.
+     * @return whether any changed file matches the predicate.
+     * @throws IOException if the diff could not be read.
+     */
+    public static boolean anyChangedFile(BufferedSource diff, Predicate<String> paths) throws IOException {
+        // A removed line "-- x" reads "--- x" in a hunk, so the "---" and "+++" headers are only looked for
+        // between a "diff --git" header and the first hunk of the file.
+        boolean inFileHeader = false;
+        while (!diff.exhausted()) {
+            boolean isDiffHeader = diff.rangeEquals(0, DIFF_HEADER);
+            if (isDiffHeader || inFileHeader && (diff.rangeEquals(0, OLD_FILE_HEADER)
+                    || diff.rangeEquals(0, NEW_FILE_HEADER))) {
+                inFileHeader = true;
+                String header = diff.readUtf8Line();
+                if (header != null && headerPaths(header).stream().anyMatch(paths))
+                    return true;
+            } else {
+                if (diff.rangeEquals(0, HUNK_HEADER))
+                    inFileHeader = false;
+                long end = diff.indexOf((byte) '\n');
+                if (end == -1)
+                    return false;
+                diff.skip(end + 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the paths named by a file header, without their "a/" or "b/" prefixes.
+     */
+    static List<String> headerPaths(String header) {
+        List<String> paths = new ArrayList<>();
+        if (header.startsWith(DIFF_HEADER.utf8())) {
+            String names = header.substring(DIFF_HEADER.size());
+            int newName = names.lastIndexOf(" b/");
+            if (newName == -1)
+                newName = names.lastIndexOf(" \"b/");
+            if (newName == -1)
+                return paths;
+            paths.add(stripPrefix(names.substring(0, newName)));
+            paths.add(stripPrefix(names.substring(newName + 1)));
+        } else {
+            // Git appends a tab to the path when it contains spaces.
+            String name = header.substring(OLD_FILE_HEADER.size());
+            int tab = name.indexOf('\t');
+            String path = stripPrefix(tab == -1 ? name : name.substring(0, tab));
+            if (!path.equals(NO_FILE))
+                paths.add(path);
+        }
+        return paths;
+    }
+
+    private static String stripPrefix(String name) {
+        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\""))
+            name = name.substring(1, name.length() - 1);
+        return name.startsWith("a/") || name.startsWith("b/") ? name.substring(2) : name;
+    }
+}
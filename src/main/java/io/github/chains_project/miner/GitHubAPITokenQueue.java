@@ -1,82 +1,471 @@
 package io.github.chains_project.miner;
 
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Response;
 import org.kohsuke.github.GitHub;
 import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.RateLimitTarget;
 import org.kohsuke.github.extras.okhttp3.OkHttpGitHubConnector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The GitHubAPITokenQueue provides an interface for creating {@link org.kohsuke.github.GitHub} objects
  * using a pool of API tokens. This makes it possible have several GitHub connections active in parallel,
  * each using a different token. Since tokens are limited to a certain number of requests per hour, this is
  * useful for getting a higher rate of API usage.
+ * <p>
+ * Once {@link #connect(OkHttpClient, Path)} has verified the tokens, the queue holds one long-lived
+ * {@link org.kohsuke.github.GitHub} object per token, all sharing the connection pool of the same
+ * {@link okhttp3.OkHttpClient}.
+ * <p>
+ * The queue keeps track of the remaining requests of every token in each rate limit {@link Bucket}, as reported
+ * by the rate limit headers of the responses seen by {@link #rateLimitInterceptor()}. Tokens are handed out by
+ * remaining budget rather than in turn, and callers only wait for a rate limit to reset once every token has run
+ * out of requests in the bucket they need.
+ * <p>
+ * A token is also set aside while GitHub asks for requests made with it to be retried later, and while its
+ * circuit breaker is open. The breaker opens after {@link #FAILURES_TO_OPEN} requests in a row failed with a
+ * server or network error, and is tried again after a cool-down that doubles every time it opens again.
+ * <p>
+ * Tokens are only ever logged by their {@link TokenVerifier#fingerprint(String)}.
  */
 public class GitHubAPITokenQueue {
 
-    private final Queue<String> tokenQueue;
+    /**
+     * The number of consecutive failed requests after which the circuit breaker of a token opens.
+     */
+    private static final int FAILURES_TO_OPEN = 3;
+    /**
+     * The time a circuit breaker stays open the first time it opens.
+     */
+    private static final long MIN_COOL_DOWN_MILLIS = 30_000;
+    /**
+     * The longest time a circuit breaker stays open.
+     */
+    private static final long MAX_COOL_DOWN_MILLIS = 15 * 60_000;
+    /**
+     * The time waited after a rate limit reset before using the token again, as GitHub's clock may differ.
+     */
+    private static final long RESET_MARGIN_MILLIS = 1000;
+    private final Map<String, TokenState> states = new HashMap<>();
+    private volatile List<String> tokens;
+    private volatile Map<String, GitHub> gitHubs;
+    private volatile Map<GitHub, String> gitHubTokens;
+    private int nextIndex;
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     /**
-     * @param apiTokens a collection of GitHub API tokens.
-     * @throws IOException      if there is an error while communicating with the GitHub servers.
-     * @throws RuntimeException if no valid API tokens were provided.
+     * @param apiTokens a collection of GitHub API tokens, which are verified by
+     *                  {@link #connect(OkHttpClient, Path)}.
+     * @throws RuntimeException if no API tokens were provided.
      */
-    public GitHubAPITokenQueue(Collection<String> apiTokens) throws IOException {
-        verifyTokens(apiTokens);
+    public GitHubAPITokenQueue(Collection<String> apiTokens) {
         if (apiTokens.size() < 1)
             throw new RuntimeException("No valid API tokens provided!");
-        tokenQueue = new ConcurrentLinkedQueue<>(apiTokens);
+        tokens = List.copyOf(apiTokens);
+        for (String apiToken : tokens) {
+            states.put(apiToken, new TokenState());
+        }
     }
 
     /**
-     * Remove all invalid tokens from the given collection. Since tokens are set to expire in a given time
-     * this means that we need to make sure we are not using outdated tokens.
+     * Remove all invalid tokens from this queue, and create the {@link org.kohsuke.github.GitHub} objects of the
+     * remaining ones. Since tokens are set to expire in a given time this means that we need to make sure we are
+     * not using outdated tokens. The tokens are verified concurrently by a {@link TokenVerifier}, and the rate
+     * limits reported for them are used as their initial budgets.
+     * <p>
+     * The {@link org.kohsuke.github.GitHub} objects are set up using the provided {@link okhttp3.OkHttpClient}
+     * and using the {@link GitHubMiner.MinerRateLimitChecker}, {@link GitHubMiner.MinerRateLimitHandler} and
+     * {@link GitHubMiner.MinerGitHubAbuseLimitHandler}, and reused for all requests made with their token.
+     *
+     * @param connector         the {@link okhttp3.OkHttpClient} to use for all connections.
+     * @param verificationCache the file caching the results of recent token verifications.
+     * @throws IOException      if there is an error connecting to the GitHub servers.
+     * @throws RuntimeException if none of the API tokens is valid.
      */
-    private void verifyTokens(Collection<String> apiTokens) throws IOException {
-        Iterator<String> iterator = apiTokens.iterator();
-        while (iterator.hasNext()) {
-            String apiToken = iterator.next();
-            GitHub gitHub = new GitHubBuilder().withOAuthToken(apiToken).build();
-            if (!gitHub.isCredentialValid()) {
-                iterator.remove();
-                log.error("Found invalid token {}, removing it from use.", apiToken);
-            }
+    public void connect(OkHttpClient connector, Path verificationCache) throws IOException {
+        Map<String, Map<Bucket, TokenVerifier.RateLimit>> verified =
+                new TokenVerifier(connector, verificationCache).verify(tokens);
+        if (verified.isEmpty())
+            throw new RuntimeException("No valid API tokens provided!");
+        synchronized (this) {
+            tokens = List.copyOf(verified.keySet());
+            states.keySet().retainAll(verified.keySet());
+            verified.forEach((apiToken, rateLimits) -> rateLimits.forEach((bucket, rateLimit) ->
+                    states.get(apiToken).budgets.get(bucket).update(rateLimit.remaining(), rateLimit.resetAt())));
+            nextIndex = 0;
         }
+        Map<String, GitHub> connected = new HashMap<>();
+        Map<GitHub, String> connectedTokens = new IdentityHashMap<>();
+        for (String apiToken : tokens) {
+            GitHub gitHub = buildGitHub(connector, apiToken);
+            connected.put(apiToken, gitHub);
+            connectedTokens.put(gitHub, apiToken);
+        }
+        gitHubTokens = connectedTokens;
+        gitHubs = connected;
     }
 
     /**
-     * Get a new {@link org.kohsuke.github.GitHub} object. The object will be set up using the
-     * provided {@link okhttp3.OkHttpClient} and using the {@link GitHubMiner.MinerRateLimitChecker}
-     * and {@link GitHubMiner.MinerGitHubAbuseLimitHandler}. The API token used is guaranteed to be
-     * the least recently used token from this token queue.
+     * Get a {@link org.kohsuke.github.GitHub} object for requests in the core rate limit bucket, see
+     * {@link #getGitHub(Bucket)}.
      *
-     * @param connector the {@link okhttp3.OkHttpClient} to use for the connection.
      * @return a {@link org.kohsuke.github.GitHub} using an API token from the queue.
-     * @throws IOException if there is an error connecting to the GitHub servers.
      */
-    public GitHub getGitHub(OkHttpClient connector) throws IOException {
-        String apiToken = tokenQueue.remove();
-        tokenQueue.add(apiToken);
-        return new GitHubBuilder()
+    public GitHub getGitHub() {
+        return getGitHub(Bucket.CORE);
+    }
+
+    /**
+     * Get the {@link org.kohsuke.github.GitHub} object of the API token with the most remaining requests in the
+     * given bucket, see {@link #nextToken(Bucket)}.
+     *
+     * @param bucket the rate limit bucket of the requests that will be made.
+     * @return a {@link org.kohsuke.github.GitHub} using an API token from the queue.
+     * @throws IllegalStateException if the queue is not connected yet.
+     */
+    public GitHub getGitHub(Bucket bucket) {
+        return connected().get(nextToken(bucket));
+    }
+
+    /**
+     * Get the given {@link org.kohsuke.github.GitHub} object if its API token can still be used for requests in
+     * the given bucket, and otherwise the one of the token with the most remaining requests.
+     *
+     * @param bucket    the rate limit bucket of the requests that will be made.
+     * @param preferred a {@link org.kohsuke.github.GitHub} object from this queue.
+     * @return a {@link org.kohsuke.github.GitHub} using an API token from the queue.
+     * @throws IllegalStateException if the queue is not connected yet.
+     */
+    public GitHub getGitHub(Bucket bucket, GitHub preferred) {
+        connected();
+        String apiToken = gitHubTokens.get(preferred);
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            TokenState state = apiToken != null ? states.get(apiToken) : null;
+            if (state != null && state.isAvailable(now) && !state.budgets.get(bucket).isDrained(bucket, now)) {
+                state.budgets.get(bucket).reserve(now);
+                return preferred;
+            }
+        }
+        return getGitHub(bucket);
+    }
+
+    /**
+     * Get an API token for requests in the core rate limit bucket, see {@link #nextToken(Bucket)}.
+     *
+     * @return a valid GitHub API token.
+     */
+    public String nextToken() {
+        return nextToken(Bucket.CORE);
+    }
+
+    /**
+     * Get an API token for use with requests that are not made through a {@link org.kohsuke.github.GitHub}
+     * object, such as GraphQL queries. The API token is the one with the most remaining requests in the given
+     * bucket, where tokens with the same budget, such as tokens not used yet, are handed out in turn. Tokens that
+     * are set aside are skipped. If no token can be used, this waits until the first of them can.
+     *
+     * @param bucket the rate limit bucket of the request that will be made.
+     * @return a valid GitHub API token.
+     */
+    public synchronized String nextToken(Bucket bucket) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            String bestToken = null;
+            Budget bestBudget = null;
+            long earliestAvailable = Long.MAX_VALUE;
+            for (int i = 0; i < tokens.size(); i++) {
+                String apiToken = tokens.get((nextIndex + i) % tokens.size());
+                TokenState state = states.get(apiToken);
+                Budget budget = state.budgets.get(bucket);
+                boolean drained = budget.isDrained(bucket, now);
+                if (state.isAvailable(now) && !drained) {
+                    if (bestBudget == null || budget.remaining(now) > bestBudget.remaining(now)) {
+                        bestToken = apiToken;
+                        bestBudget = budget;
+                    }
+                } else {
+                    long available = Math.max(state.unavailableUntil,
+                            drained ? budget.resetAt + RESET_MARGIN_MILLIS : 0);
+                    earliestAvailable = Math.min(earliestAvailable, available);
+                }
+            }
+            if (bestToken != null) {
+                bestBudget.reserve(now);
+                nextIndex = (nextIndex + 1) % tokens.size();
+                return bestToken;
+            }
+            long timeToWait = Math.max(1, earliestAvailable - now);
+            log.info("No token can make {} requests, waiting {}s until {}", bucket.resource, timeToWait / 1000,
+                    new Date(earliestAvailable));
+            try {
+                wait(timeToWait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Update the budget of a token in a bucket, as reported by GitHub.
+     *
+     * @param apiToken  the token.
+     * @param bucket    the rate limit bucket.
+     * @param remaining the number of remaining requests.
+     * @param resetAt   the time at which the budget is reset, in milliseconds since the epoch.
+     */
+    synchronized void updateBudget(String apiToken, Bucket bucket, int remaining, long resetAt) {
+        TokenState state = states.get(apiToken);
+        if (state != null)
+            state.budgets.get(bucket).update(remaining, resetAt);
+    }
+
+    /**
+     * Set a token aside until the given time, for instance because GitHub asked for requests made with it to be
+     * retried later.
+     *
+     * @param apiToken the token.
+     * @param until    the time at which the token can be used again, in milliseconds since the epoch.
+     */
+    synchronized void park(String apiToken, long until) {
+        TokenState state = states.get(apiToken);
+        if (state == null || until <= state.unavailableUntil)
+            return;
+        if (state.isAvailable(System.currentTimeMillis()))
+            log.info("Setting token {} aside until {}", TokenVerifier.fingerprint(apiToken), new Date(until));
+        state.unavailableUntil = until;
+    }
+
+    /**
+     * @param apiToken the token.
+     * @return the time until which the token is set aside, in milliseconds since the epoch, which is in the past
+     *         if it is not set aside.
+     */
+    synchronized long unavailableUntil(String apiToken) {
+        return states.get(apiToken).unavailableUntil;
+    }
+
+    /**
+     * Get one {@link org.kohsuke.github.GitHub} object for each API token in this queue. This is useful
+     * when work is sharded so that every worker owns a single token and can pace itself against the
+     * rate limits of that token only.
+     *
+     * @return a list of {@link org.kohsuke.github.GitHub} objects, one per API token.
+     * @throws IllegalStateException if the queue is not connected yet.
+     */
+    public List<GitHub> getGitHubPerToken() {
+        Map<String, GitHub> connected = connected();
+        return tokens.stream().map(connected::get).toList();
+    }
+
+    private Map<String, GitHub> connected() {
+        Map<String, GitHub> connected = gitHubs;
+        if (connected == null)
+            throw new IllegalStateException("GitHubAPITokenQueue has not been connected");
+        return connected;
+    }
+
+    private GitHub buildGitHub(OkHttpClient connector, String apiToken) throws IOException {
+        GitHubBuilder builder = new GitHubBuilder()
                 .withConnector(new OkHttpGitHubConnector(connector))
                 .withOAuthToken(apiToken)
-                .withRateLimitChecker(new GitHubMiner.MinerRateLimitChecker(apiToken))
-                .withAbuseLimitHandler(new GitHubMiner.MinerGitHubAbuseLimitHandler(apiToken))
-                .build();
+                .withRateLimitHandler(new GitHubMiner.MinerRateLimitHandler(this, apiToken))
+                .withAbuseLimitHandler(new GitHubMiner.MinerGitHubAbuseLimitHandler(this, apiToken));
+        for (Bucket bucket : Bucket.values()) {
+            builder.withRateLimitChecker(new GitHubMiner.MinerRateLimitChecker(this, apiToken, bucket), bucket.target);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get an OkHttp network interceptor updating the state of the tokens in this queue from every response. It
+     * reads the budgets of the tokens from the rate limit headers, sets tokens aside for as long as a Retry-After
+     * header asks, and feeds the circuit breakers. It must be added to the {@link okhttp3.OkHttpClient} used for
+     * all requests made with the tokens.
+     *
+     * @return an interceptor tracking the state of the tokens in this queue.
+     */
+    public Interceptor rateLimitInterceptor() {
+        return chain -> {
+            String authorization = chain.request().header("Authorization");
+            String apiToken = authorization != null
+                    ? authorization.substring(authorization.lastIndexOf(' ') + 1) : null;
+            Response response;
+            try {
+                response = chain.proceed(chain.request());
+            } catch (IOException e) {
+                if (apiToken != null && !chain.call().isCanceled())
+                    recordOutcome(apiToken, false);
+                throw e;
+            }
+            if (apiToken == null)
+                return response;
+            String remaining = response.header("X-RateLimit-Remaining");
+            String reset = response.header("X-RateLimit-Reset");
+            Bucket bucket = Bucket.forResource(response.header("X-RateLimit-Resource"));
+            if (remaining != null && reset != null && bucket != null) {
+                try {
+                    updateBudget(apiToken, bucket, Integer.parseInt(remaining), Long.parseLong(reset) * 1000);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring malformed rate limit headers {} and {}", remaining, reset);
+                }
+            }
+            String retryAfter = response.header("Retry-After");
+            if (retryAfter != null) {
+                try {
+                    park(apiToken, System.currentTimeMillis() + Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring malformed Retry-After header {}", retryAfter);
+                }
+            }
+            recordOutcome(apiToken, response.code() < 500);
+            return response;
+        };
+    }
+
+    private synchronized void recordOutcome(String apiToken, boolean success) {
+        TokenState state = states.get(apiToken);
+        if (state == null)
+            return;
+        if (success) {
+            state.failures = 0;
+            state.timesOpened = 0;
+            return;
+        }
+        state.failures++;
+        if (state.failures >= FAILURES_TO_OPEN) {
+            long coolDown = Math.min(MAX_COOL_DOWN_MILLIS, MIN_COOL_DOWN_MILLIS << Math.min(state.timesOpened, 10));
+            state.timesOpened++;
+            state.failures = 0;
+            state.unavailableUntil = Math.max(state.unavailableUntil, System.currentTimeMillis() + coolDown);
+            log.warn("{} requests in a row failed with token {}, setting it aside for {}s", FAILURES_TO_OPEN,
+                    TokenVerifier.fingerprint(apiToken), coolDown / 1000);
+        }
     }
 
     /**
      * @return The number of API tokens available from this token queue.
      */
     public int size() {
-        return tokenQueue.size();
+        return tokens.size();
+    }
+
+    /**
+     * The rate limit buckets of the GitHub API, each with its own budget of requests per token.
+     */
+    public enum Bucket {
+        CORE("core", RateLimitTarget.CORE, 5),
+        SEARCH("search", RateLimitTarget.SEARCH, 1),
+        GRAPHQL("graphql", RateLimitTarget.GRAPHQL, 5);
+
+        private final String resource;
+        private final RateLimitTarget target;
+        private final int cutoff;
+
+        /**
+         * @param cutoff the number of remaining requests at which a token is considered out of budget.
+         */
+        Bucket(String resource, RateLimitTarget target, int cutoff) {
+            this.resource = resource;
+            this.target = target;
+            this.cutoff = cutoff;
+        }
+
+        /**
+         * @return the name of the bucket in the responses of the GitHub API.
+         */
+        String resource() {
+            return resource;
+        }
+
+        /**
+         * @return the number of remaining requests at which a token is considered out of budget.
+         */
+        int cutoff() {
+            return cutoff;
+        }
+
+        /**
+         * @return the bucket reported in the X-RateLimit-Resource header, or null for other buckets.
+         */
+        private static Bucket forResource(String resource) {
+            for (Bucket bucket : values()) {
+                if (bucket.resource.equals(resource))
+                    return bucket;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The budgets and circuit breaker of a token.
+     */
+    private static class TokenState {
+        private final Map<Bucket, Budget> budgets = new EnumMap<>(Bucket.class);
+        private long unavailableUntil;
+        private int failures;
+        private int timesOpened;
+
+        TokenState() {
+            for (Bucket bucket : Bucket.values()) {
+                budgets.put(bucket, new Budget());
+            }
+        }
+
+        boolean isAvailable(long now) {
+            return now >= unavailableUntil;
+        }
+    }
+
+    /**
+     * The remaining requests of a token in one bucket until its rate limit is reset. A budget that has not been
+     * reported yet, or whose reset time has passed, is unknown and assumed to be full.
+     */
+    private static class Budget {
+        private int remaining = Integer.MAX_VALUE;
+        private long resetAt;
+
+        int remaining(long now) {
+            return now < resetAt + RESET_MARGIN_MILLIS ? remaining : Integer.MAX_VALUE;
+        }
+
+        boolean isDrained(Bucket bucket, long now) {
+            return remaining(now) <= bucket.cutoff;
+        }
+
+        /**
+         * Count a request that is about to be made, so that concurrent callers spread over the tokens before the
+         * response reports the new budget.
+         */
+        void reserve(long now) {
+            if (remaining(now) != Integer.MAX_VALUE)
+                remaining--;
+        }
+
+        /**
+         * Responses may arrive out of order, so within the same rate limit window the lowest budget is kept.
+         */
+        void update(int remaining, long resetAt) {
+            if (resetAt > this.resetAt) {
+                this.remaining = remaining;
+                this.resetAt = resetAt;
+            } else if (resetAt == this.resetAt) {
+                this.remaining = Math.min(this.remaining, remaining);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package io.github.chains_project.miner;
 
-import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.kohsuke.github.*;
 import org.kohsuke.github.connector.GitHubConnectorResponse;
@@ -11,17 +12,22 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
 
-import static java.lang.Thread.sleep;
-
 /**
  * The GitHubMiner class allows for the mining of GitHub repositories with and without lockfiles.
  */
@@ -33,12 +39,41 @@ public class GitHubMiner {
     static final String FOUND_REPOS_FILE = "jsts_repositories_with_lockfiles.json";
     static final String NOT_FOUND_REPOS_FILE = "repositories_no_lockfiles.json";
     /**
-     * The CACHE_DIR where the HTTP caches will be stored is set to the default system
-     * temporary directory i.e. /tmp/ on most UNIX-like systems.
+     * The CACHE_DIR where short-lived caches will be stored is set to the default system
+     * temporary directory i.e. /tmp/ on most UNIX-like systems. The HTTP cache is kept in the
+     * output directory instead, see {@link ResponseCache}.
      */
     private static final File CACHE_DIR = Paths.get(System.getProperty("java.io.tmpdir")).toFile();
+    /**
+     * The file in the CACHE_DIR caching the results of recent API token verifications.
+     */
+    private static final String TOKEN_CACHE_FILE = "lockfile-miner-tokens.json";
+    /**
+     * The maximum time spent checking a single found repository before its requests are cancelled.
+     */
+    private static final Duration QUALIFICATION_DEADLINE = Duration.ofSeconds(30);
+    /**
+     * The number of found repositories that may wait in the qualification queue per worker.
+     */
+    private static final int QUEUED_CHECKS_PER_WORKER = 4;
+    /**
+     * The number of connections to GitHub kept open and requests run concurrently per API token.
+     */
+    private static final int CONNECTIONS_PER_TOKEN = 4;
+    /**
+     * The number of ranges of creation dates per API token that a parallel search is split into. The number of
+     * repositories created per day grows over the years, so the ranges are small enough for a worker that got
+     * recent ones to be relieved by the others.
+     */
+    private static final int RANGES_PER_TOKEN = 16;
+    /**
+     * The directory in the output directory where patches that do not fit in memory are kept.
+     */
+    private static final String PATCH_SPILL_DIRECTORY = "patches";
     private final OkHttpClient httpConnector;
+    private final ResponseCache responseCache;
     private final GitHubAPITokenQueue tokenQueue;
+    private final RepositoryQualifier repositoryQualifier;
     private final Path outputDirectory;
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -49,16 +84,36 @@ public class GitHubMiner {
      */
     public GitHubMiner(Collection<String> apiTokens, Path outputDirectory) throws IOException {
         this.outputDirectory = outputDirectory;
-        // We use OkHttp with a 10 MB cache for HTTP requests
-        Cache cache = new Cache(CACHE_DIR, 10 * 1024 * 1024);
+        // We use OkHttp with a persistent cache for HTTP requests, revalidated with conditional requests
+        responseCache = new ResponseCache(outputDirectory, ResponseCache.DEFAULT_MAX_SIZE);
+        tokenQueue = new GitHubAPITokenQueue(apiTokens);
+        // All GitHub objects and probes share this client, so its connection pool is sized for the concurrent
+        // requests of all tokens, and idle connections are kept open between repositories. The dispatcher limits
+        // only apply to asynchronous calls, i.e. the token verifications, which are all started at once and would
+        // otherwise be held to OkHttp's default of 5 per host. Synchronous calls are bounded by the worker threads.
+        int maxConnections = tokenQueue.size() * CONNECTIONS_PER_TOKEN;
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConnections);
+        dispatcher.setMaxRequestsPerHost(maxConnections);
         httpConnector = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxConnections, 5, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
                 .connectTimeout(60, TimeUnit.SECONDS)
                 .writeTimeout(120, TimeUnit.SECONDS)
                 .readTimeout(60, TimeUnit.SECONDS)
-                .cache(cache).build();
-        tokenQueue = new GitHubAPITokenQueue(apiTokens);
-        String apiToken = apiTokens.iterator().next();
-        GitPatchCache.initialize(httpConnector, apiToken);
+                .addInterceptor(QualificationPipeline.CALL_TRACKER)
+                .addNetworkInterceptor(new ApiCallCounter())
+                .addNetworkInterceptor(tokenQueue.rateLimitInterceptor())
+                .addNetworkInterceptor(responseCache.networkInterceptor())
+                .cache(responseCache.cache()).build();
+        tokenQueue.connect(httpConnector, CACHE_DIR.toPath().resolve(TOKEN_CACHE_FILE));
+        GraphQLTransport graphQL = GraphQLTransport.overHttp(httpConnector, GraphQLTransport.GITHUB_ENDPOINT,
+                () -> tokenQueue.nextToken(GitHubAPITokenQueue.Bucket.GRAPHQL));
+        repositoryQualifier = new RepositoryQualifier(graphQL);
+        GitPatchCache.initialize(httpConnector, tokenQueue, graphQL, outputDirectory.resolve(PATCH_SPILL_DIRECTORY));
+        PullRequestFilters.initialize(graphQL);
+        RepositoryMetadataProbe.initialize(httpConnector, tokenQueue);
+        RepositoryTreeScanner.initialize(httpConnector, tokenQueue);
     }
 
     /**
@@ -71,71 +126,293 @@ public class GitHubMiner {
      * and searching is restricted to a tighter API rate limit,
      * this method will attempt to perform sequential queries using different
      * API tokens until the full search result has been returned.
+     * <p>
+     * The creation dates are searched in adaptively sized windows, see {@link SearchWindow}.
+     * In parallel mode, the range of creation dates is instead split into one range per API token
+     * and the ranges are searched concurrently. Each range is searched using its own token, and borrows
+     * the token with the most remaining search requests while its own has run out.
      *
      * @param repoList     a {@link RepositoryList} of previously found repositories.
      * @param searchConfig a {@link RepositorySearchConfig} specifying the repositories to look for.
+     * @param lastDate     the most recent creation date to search from, or null to start from today.
+     * @param options      the {@link FindOptions} deciding how the search is performed.
      * @throws IOException if there is an issue when interacting with the file system.
      */
-    public void findRepositories(RepositoryList repoList, RepositorySearchConfig searchConfig, Date lastDate) throws IOException, InterruptedException {
+    public void findRepositories(RepositoryList repoList, RepositorySearchConfig searchConfig, Date lastDate,
+                                 FindOptions options) throws IOException, InterruptedException {
         log.info("Finding valid repositories");
         int previousSize = repoList.size();
         LocalDate creationDate = lastDate != null ? lastDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate() : LocalDate.now(ZoneId.systemDefault());
-        PagedSearchIterable<GHRepository> search = searchForRepos(searchConfig.minNumberOfStars, creationDate);
         LocalDate earliestCreationDate =
                 searchConfig.earliestCreationDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-        while (creationDate.isAfter(earliestCreationDate)) {
-            log.info("Checking repos created on {} ", creationDate);
-            PagedIterator<GHRepository> iterator = search.iterator();
-            while (iterator.hasNext()) {
-                iterator.nextPage().stream()
-                        .filter(repository -> !repoList.contains(repository))
-                        .peek(repository -> log.info("  Checking " + repository.getFullName()))
-                        .forEach(repository -> {
-                            try {
-                                CompletableFuture<ProjectInfo> projectCheck = CompletableFuture.supplyAsync(() -> {
-                                    if (RepositoryFilters.hasSufficientNumberOfCommits(repository, searchConfig.minNumberOfCommits) &&
-                                            RepositoryFilters.hasSufficientNumberOfContributors(repository, searchConfig.minNumberOfContributors) &&
-                                            RepositoryFilters.isLastCommitWithinThreeMonths(repository)) {
-                                        return RepositoryFilters.identifyProjectTypeAndLockfile(repository);
-                                    }
-                                    return null;
-                                });
-                                ProjectInfo projectInfo = projectCheck.get(30, TimeUnit.SECONDS);
-                                if (projectInfo != null) {
-                                    repoList.add(projectInfo);
-                                    log.info("  Found " + projectInfo.repository().getUrl());
-                                }
-                            } catch (TimeoutException e) {
-                                log.warn("  Skipping repository {} due to timeout", repository.getFullName());
-                            } catch (InterruptedException | ExecutionException e) {
-                                log.error("  Error while checking repository " + repository.getFullName(), e);
-                            }
-                        });
+        RepositoryFilterPipeline filters = RepositoryFilterPipeline.forSearch(searchConfig, options.recursive());
+        int workerCount = tokenQueue.size() * options.concurrencyPerToken();
+        try (QualificationPipeline qualification = new QualificationPipeline(workerCount,
+                workerCount * QUEUED_CHECKS_PER_WORKER, QUALIFICATION_DEADLINE, filters::qualify, projectInfo -> {
+            repoList.add(projectInfo);
+            log.info("  Found " + projectInfo.repository().getUrl());
+        }, this::fetchWithAnotherToken)) {
+            Search search = new Search(repoList, searchConfig, options, filters, qualification);
+            if (options.parallel()) {
+                findRepositoriesInParallel(search, creationDate, earliestCreationDate);
+            } else {
+                searchCreationDates(() -> tokenQueue.getGitHub(GitHubAPITokenQueue.Bucket.SEARCH),
+                        search, creationDate, earliestCreationDate);
             }
-            creationDate = creationDate.minusDays(1);
-            search = searchForRepos(searchConfig.minNumberOfStars, creationDate);
-            repoList.writeToFile();
-            sleep(60000);
         }
         log.info("Found {} valid repositories", repoList.size() - previousSize);
+        responseCache.logStatistics();
     }
 
+    /**
+     * Split the creation dates in (earliestCreationDate, newestCreationDate] into {@link #RANGES_PER_TOKEN} ranges
+     * per API token and search all ranges concurrently, one worker per token.
+     */
+    private void findRepositoriesInParallel(Search search, LocalDate newestCreationDate,
+                                            LocalDate earliestCreationDate) {
+        List<GitHub> gitHubs = tokenQueue.getGitHubPerToken();
+        List<DateRange> ranges = splitCreationDates(newestCreationDate, earliestCreationDate,
+                gitHubs.size() * RANGES_PER_TOKEN);
+        searchRangesInParallel(gitHubs, ranges, (gitHub, range) -> {
+            log.info("Searching repos created in ({}, {}] using token {}", range.end(), range.start(),
+                    gitHubs.indexOf(gitHub));
+            searchCreationDates(() -> tokenQueue.getGitHub(GitHubAPITokenQueue.Bucket.SEARCH, gitHub), search,
+                    range.start(), range.end());
+        });
+    }
 
     /**
-     * Search for GitHub repos that have the required minimum number
-     * of stars and having been created at the given date. Forks will be ignored and the result will
-     * be sorted based on the number of stars, descending.
+     * Search the given ranges with one thread per worker. The ranges are taken from a shared queue in order, so
+     * a worker that is done with a range takes the next one, and the workers stay busy until the last ranges no
+     * matter how the repositories are spread over the creation dates.
+     *
+     * @param workers the workers, such as the {@link org.kohsuke.github.GitHub} object of each token.
+     * @param ranges  the ranges to search.
+     * @param search  searches a range with a worker.
      */
-    private PagedSearchIterable<GHRepository> searchForRepos(int minNumberOfStars, LocalDate creationDate)
-            throws IOException {
-        return tokenQueue.getGitHub(httpConnector).searchRepositories()
+    static <T> void searchRangesInParallel(List<T> workers, List<DateRange> ranges, RangeSearch<T> search) {
+        if (ranges.isEmpty())
+            return;
+        Queue<DateRange> queue = new ConcurrentLinkedQueue<>(ranges);
+        ExecutorService threadPool = Executors.newFixedThreadPool(workers.size());
+        try {
+            List<Future<?>> searches = new ArrayList<>();
+            for (T worker : workers) {
+                searches.add(threadPool.submit(() -> {
+                    DateRange range;
+                    while ((range = queue.poll()) != null) {
+                        search.search(worker, range);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : searches) {
+                worker.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Split the creation dates in (earliestCreationDate, newestCreationDate] into at most the given number of
+     * contiguous ranges of whole days, newest first. Together the ranges cover exactly the dates a single
+     * sequential search of the whole range covers, without gaps or overlaps.
+     *
+     * @param newestCreationDate   the newest creation date, included in the first range.
+     * @param earliestCreationDate the earliest creation date, excluded from the last range.
+     * @param parts                the maximum number of ranges.
+     * @return the ranges, or an empty list if there are no dates to search.
+     */
+    static List<DateRange> splitCreationDates(LocalDate newestCreationDate, LocalDate earliestCreationDate,
+                                              int parts) {
+        long days = ChronoUnit.DAYS.between(earliestCreationDate, newestCreationDate);
+        List<DateRange> ranges = new ArrayList<>();
+        if (days <= 0)
+            return ranges;
+        long rangeSize = (days + parts - 1) / parts;
+        for (int i = 0; i < parts; i++) {
+            LocalDate rangeStart = newestCreationDate.minusDays(i * rangeSize);
+            if (!rangeStart.isAfter(earliestCreationDate))
+                break;
+            LocalDate rangeEnd = rangeStart.minusDays(rangeSize);
+            if (rangeEnd.isBefore(earliestCreationDate))
+                rangeEnd = earliestCreationDate;
+            ranges.add(new DateRange(rangeStart, rangeEnd));
+        }
+        return ranges;
+    }
+
+    /**
+     * Fetch a repository again with the API token with the most remaining requests, so that a check whose token
+     * ran out of requests can go on without waiting for it.
+     */
+    private GHRepository fetchWithAnotherToken(GHRepository repository) {
+        try {
+            return tokenQueue.getGitHub().getRepository(repository.getFullName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Search the creation dates in (rangeEnd, rangeStart], newest first, using adaptively sized
+     * {@link SearchWindow}s. Windows with more results than GitHub will return are split before
+     * being searched, down to {@link SearchWindow#MIN_SIZE} and then into {@link SearchSlice}s, so that every
+     * result is checked. When the token in use runs out of search requests, the window is searched again with
+     * the next token from the supplier. The repositories whose checks were started before are not checked again,
+     * and the window is only done once all of its checks are.
+     */
+    private void searchCreationDates(GitHubSupplier gitHubSupplier, Search search, LocalDate rangeStart,
+                                     LocalDate rangeEnd) throws IOException {
+        Instant lower = rangeEnd.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        Instant upper = rangeStart.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        if (!upper.isAfter(lower))
+            return;
+        SearchWindow window = SearchWindow.endingAt(upper, lower);
+        // The checks of the current window by repository name, kept when the window is searched again.
+        Map<String, CompletableFuture<Void>> checks = new HashMap<>();
+        while (true) {
+            GitHub gitHub = gitHubSupplier.get();
+            int totalCount;
+            try {
+                SearchSlice all = SearchSlice.withStarsAtLeast(search.searchConfig().minNumberOfStars);
+                PagedSearchIterable<GHRepository> results = searchForRepos(gitHub, all, window);
+                PagedIterator<GHRepository> iterator = results.iterator();
+                // The first page is needed to know the total count, and the iterator keeps it for later use.
+                boolean hasResults = iterator.hasNext();
+                totalCount = results.getTotalCount();
+                if (totalCount > SearchWindow.MAX_SEARCH_RESULTS && window.isSplittable()) {
+                    log.info("{} repos created in {}, splitting the window", totalCount, window);
+                    window = window.newerHalf();
+                    // The newer half of a window is searched first, so the checks already started are in it.
+                    continue;
+                }
+                if (totalCount > SearchWindow.MAX_SEARCH_RESULTS) {
+                    searchSlices(gitHub, search, window, all, totalCount, iterator, checks);
+                } else {
+                    log.info("Checking {} repos created in {}", totalCount, window);
+                    while (hasResults) {
+                        checkRepositories(iterator.nextPage(), search, checks);
+                        hasResults = iterator.hasNext();
+                    }
+                }
+            } catch (RuntimeException e) {
+                TokenUnavailableException unavailable = TokenUnavailableException.causeOf(e);
+                if (unavailable == null)
+                    throw e;
+                // Repositories that were added to the list or are being checked are skipped when searching again.
+                log.info("Searching {} again with another token: {}", window, unavailable.getMessage());
+                continue;
+            }
+            CompletableFuture.allOf(checks.values().toArray(CompletableFuture[]::new)).join();
+            checks.clear();
+            search.repoList().writeToFile();
+            if (search.options().graphQL())
+                repositoryQualifier.logStatistics();
+            else
+                search.filters().logStatistics();
+            if (!window.start().isAfter(lower))
+                return;
+            window = window.next(totalCount, lower);
+        }
+    }
+
+    /**
+     * Search a window that can not be split any further in slices, splitting each slice that has more results than
+     * GitHub will return in two until every result is checked.
+     *
+     * @param totalCount the number of results of the slice.
+     * @param iterator   the results of the slice, positioned before the first page.
+     * @throws IllegalStateException if a slice can not be split any further but still has too many results.
+     */
+    private void searchSlices(GitHub gitHub, Search search, SearchWindow window, SearchSlice slice, int totalCount,
+                              PagedIterator<GHRepository> iterator, Map<String, CompletableFuture<Void>> checks) {
+        if (totalCount <= SearchWindow.MAX_SEARCH_RESULTS) {
+            log.info("Checking {} repos created in {} with {}", totalCount, window, slice);
+            while (iterator.hasNext()) {
+                checkRepositories(iterator.nextPage(), search, checks);
+            }
+            return;
+        }
+        // The results are sorted by stars, so the first one has the most.
+        int mostStars = iterator.hasNext() ? iterator.nextPage().get(0).getStargazersCount() : slice.maxStars();
+        List<SearchSlice> halves = slice.split(mostStars);
+        if (halves.isEmpty())
+            throw new IllegalStateException(totalCount + " repos created in " + window + " with " + slice +
+                    ", which is more than GitHub returns and can not be split any further");
+        log.info("{} repos created in {} with {}, splitting into {}", totalCount, window, slice, halves);
+        for (SearchSlice half : halves) {
+            PagedSearchIterable<GHRepository> results = searchForRepos(gitHub, half, window);
+            PagedIterator<GHRepository> halfIterator = results.iterator();
+            // Fetch the first page for the total count, the iterator keeps it for later use.
+            halfIterator.hasNext();
+            searchSlices(gitHub, search, window, half, results.getTotalCount(), halfIterator, checks);
+        }
+    }
+
+    /**
+     * Check a page of search results and add the repositories that fulfill the search criteria to the list.
+     * Unless GraphQL is used, the repositories are only queued for checking, which waits while the
+     * qualification queue is full.
+     *
+     * @param checks the checks started so far by repository name, which the checks of the page are added to.
+     *               Repositories that already have a check are skipped.
+     */
+    private void checkRepositories(List<GHRepository> repositories, Search search,
+                                   Map<String, CompletableFuture<Void>> checks) {
+        RepositoryList repoList = search.repoList();
+        List<GHRepository> unchecked = repositories.stream()
+                .filter(repository -> !checks.containsKey(repository.getFullName()) && isNew(repository, search))
+                .peek(repository -> log.info("  Checking " + repository.getFullName()))
+                .toList();
+        if (search.options().graphQL()) {
+            List<GHRepository> candidates = unchecked.stream()
+                    .filter(RepositoryFilters.isPushedWithinThreeMonths)
+                    .toList();
+            repositoryQualifier.qualify(candidates, search.searchConfig(), search.options().recursive()).forEach(projectInfo -> {
+                repoList.add(projectInfo);
+                log.info("  Found " + projectInfo.repository().getUrl());
+            });
+            candidates.forEach(RepositoryMetadataProbe::forget);
+            unchecked.forEach(repository -> checks.put(repository.getFullName(),
+                    CompletableFuture.completedFuture(null)));
+            return;
+        }
+        for (GHRepository repository : unchecked) {
+            checks.put(repository.getFullName(), search.qualification().submit(repository));
+        }
+    }
+
+    /**
+     * @return true if the repository is in the shard being searched, if any, and not yet in the list.
+     */
+    private static boolean isNew(GHRepository repository, Search search) {
+        Shard shard = search.options().shard();
+        return (shard == null || shard.contains(repository.getFullName())) && !search.repoList().contains(repository);
+    }
+
+
+    /**
+     * Search for GitHub repos in the given slice, i.e. with the required number
+     * of stars and size, and having been created within the given window. Forks will be ignored and the result
+     * will be sorted based on the number of stars, descending.
+     */
+    private PagedSearchIterable<GHRepository> searchForRepos(GitHub gitHub, SearchSlice slice, SearchWindow window) {
+        GHRepositorySearchBuilder query = gitHub.searchRepositories()
                 .fork(GHFork.PARENT_ONLY)
-                .stars(">=" + minNumberOfStars)
-                .created(creationDate.toString())
+                .stars(slice.starsQuery());
+        if (slice.sizeQuery() != null)
+            query.size(slice.sizeQuery());
+        return query
+                .created(window.toQuery())
                 .sort(GHRepositorySearchBuilder.Sort.STARS)
                 .order(GHDirection.DESC)
                 .language("JavaScript")
-                .list();
+                .list()
+                .withPageSize(100);
     }
 
     /**
@@ -151,38 +428,59 @@ public class GitHubMiner {
         // https://docs.github.com/en/rest/overview/resources-in-the-rest-api#secondary-rate-limits
         // In order to do this, we create our own ForkJoinPool instead of relying on the default one.
 
-        List<String> unprocessedRepos = new ArrayList<>();
+        // Repositories that were never checked are mined as soon as they are loaded from file, while the others
+        // are collected and mined once all unchecked ones are done.
         List<String> processedRepos = new ArrayList<>();
+        ForkJoinPool threadPool = new ForkJoinPool(tokenQueue.size());
+        try {
+            List<ForkJoinTask<?>> unprocessed = new ArrayList<>();
+            Iterator<String> repos = repoList.iterateRepositoryNames();
+            while (repos.hasNext()) {
+                String repo = repos.next();
+                if (repoList.getRepoLastCheckedDate(repo) == null) {
+                    unprocessed.add(threadPool.submit(() -> mine(repoList, repo)));
+                } else {
+                    processedRepos.add(repo);
+                }
+            }
+            for (ForkJoinTask<?> task : unprocessed) {
+                task.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            threadPool.shutdown();
+        }
+        mine(repoList, processedRepos);
+        responseCache.logStatistics();
+    }
 
-        repoList.getRepositoryNames().forEach(repo -> {
-            if (repoList.getCheckedTime(repo) == null) {
+    /**
+     * Query the repositories matching a query for pull requests, mining the ones that were never checked first.
+     *
+     * @param repoList a {@link RepositoryList} containing the repositories to mine.
+     * @param query    selects the repositories to mine.
+     */
+    public void mineRepositories(RepositoryList repoList, RepositoryList.Query query) {
+        List<String> unprocessedRepos = new ArrayList<>();
+        List<String> processedRepos = new ArrayList<>();
+        for (String repo : repoList.query(query)) {
+            if (repoList.getRepoLastCheckedDate(repo) == null) {
                 unprocessedRepos.add(repo);
             } else {
                 processedRepos.add(repo);
             }
-        });
+        }
+        log.info("Mining {} repositories matching the query", unprocessedRepos.size() + processedRepos.size());
         mine(repoList, unprocessedRepos);
         mine(repoList, processedRepos);
+        responseCache.logStatistics();
     }
 
     private void mine(RepositoryList repoList, List<String> repos) {
         ForkJoinPool threadPool = new ForkJoinPool(tokenQueue.size());
         try {
-            threadPool.submit(() -> repos.parallelStream().forEach(repo -> {
-                try {
-                    mineRepo(repo, repoList.getCheckedTime(repo));
-                } catch (IOException e) {
-                    log.error("Got IOException: ", e);
-                    log.info("Sleeping for 60 seconds");
-                    try {
-                        TimeUnit.SECONDS.sleep(60);
-                    } catch (InterruptedException ex) {
-                        log.info("Failed to mine from " + repo);
-                    }
-                }
-                repoList.setCheckedTime(repo, Date.from(Instant.now()));
-                repoList.writeToFile();
-            })).get();
+            threadPool.submit(() -> repos.parallelStream().forEach(repo -> mine(repoList, repo))).get();
         } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
         } finally {
@@ -190,12 +488,36 @@ public class GitHubMiner {
         }
     }
 
+    /**
+     * Mine a repository, starting over with another token whenever the token in use runs out of requests or is
+     * set aside. Waiting only happens in the token queue, once no token can be used.
+     */
+    private void mine(RepositoryList repoList, String repo) {
+        while (true) {
+            try {
+                mineRepo(repo, repoList.getCheckedTime(repo));
+                break;
+            } catch (IOException | RuntimeException e) {
+                TokenUnavailableException unavailable = TokenUnavailableException.causeOf(e);
+                if (unavailable != null) {
+                    log.info("Mining {} again with another token: {}", repo, unavailable.getMessage());
+                    continue;
+                }
+                if (e instanceof RuntimeException runtimeException)
+                    throw runtimeException;
+                log.error("Failed to mine from " + repo, e);
+                break;
+            }
+        }
+        repoList.setCheckedTime(repo, Date.from(Instant.now()));
+    }
+
     /**
      * Iterate over all pull requests of a repo added after a given date and save ones that contain breaking updates
      */
     private void mineRepo(String repo, Date cutoffDate) throws IOException {
         log.info("Checking " + repo);
-        GHRepository repository = tokenQueue.getGitHub(httpConnector).getRepository(repo);
+        GHRepository repository = tokenQueue.getGitHub().getRepository(repo);
         PagedIterator<GHPullRequest> pullRequests = repository.queryPullRequests()
                 .state(GHIssueState.ALL)
                 .sort(GHPullRequestQueryBuilder.Sort.CREATED)
@@ -208,9 +530,9 @@ public class GitHubMiner {
                 log.info("Checked all PRs for " + repo + " created after " + cutoffDate);
                 break;
             }
-//            nextPage.stream()
+//            PullRequestFilters.changingLockfile(nextPage.stream()
 //                    .takeWhile(PullRequestFilters.createdBefore(cutoffDate).negate())
-//                    .filter(PullRequestFilters.changesOnlyLockfile)
+//                    .toList()).stream()
 //                    .map(BreakingUpdate::new)
 //                    .forEach(breakingUpdate -> {
 //                        writeBreakingUpdate(breakingUpdate);
@@ -219,6 +541,54 @@ public class GitHubMiner {
         }
     }
 
+    /**
+     * The creation dates in (end, start].
+     *
+     * @param start the newest creation date in the range.
+     * @param end   the creation date before the oldest one in the range.
+     */
+    record DateRange(LocalDate start, LocalDate end) {
+    }
+
+    /**
+     * The FindOptions decide how the search for repositories is performed.
+     *
+     * @param parallel            whether the creation date range should be searched in parallel, one range per
+     *                            API token.
+     * @param graphQL             whether search results should be checked in batches using the GraphQL API,
+     *                            see {@link RepositoryQualifier}.
+     * @param concurrencyPerToken the number of found repositories checked concurrently per API token.
+     * @param recursive           whether lockfiles are looked for in all directories of a repository, see
+     *                            {@link RepositoryTreeScanner}, instead of only in its root.
+     * @param shard               the shard of the found repositories to check, or null to check all of them.
+     */
+    public record FindOptions(boolean parallel, boolean graphQL, int concurrencyPerToken, boolean recursive,
+                              Shard shard) {
+    }
+
+    /**
+     * The state shared by everything taking part in a single search for repositories.
+     */
+    private record Search(RepositoryList repoList, RepositorySearchConfig searchConfig, FindOptions options,
+                          RepositoryFilterPipeline filters, QualificationPipeline qualification) {
+    }
+
+    /**
+     * Supplies the GitHub connection to use for the next search request.
+     */
+    @FunctionalInterface
+    private interface GitHubSupplier {
+        GitHub get() throws IOException;
+    }
+
+    /**
+     * Searches a range of creation dates with a worker.
+     */
+    @FunctionalInterface
+    interface RangeSearch<T> {
+        void search(T worker, DateRange range) throws IOException;
+    }
+
     /**
      * The RepositorySearchConfig contains information used when finding suitable repositories.
      *
@@ -226,9 +596,17 @@ public class GitHubMiner {
      * @param earliestCreationDate    the earliest allowed creation date for the repository.
      * @param minNumberOfCommits      the minimum numbers of commits the repository should have.
      * @param minNumberOfContributors the minimum numbers of contributors the repository should have.
+     * @param ecosystems              the ecosystems whose project files are looked for in the repository root by
+     *                                the {@link RepositoryQualifier}, only npm if not given.
      */
     public record RepositorySearchConfig(int minNumberOfStars, Date earliestCreationDate, int minNumberOfCommits,
-                                         int minNumberOfContributors) {
+                                         int minNumberOfContributors,
+                                         List<RepositoryFilters.ProjectType> ecosystems) {
+        public RepositorySearchConfig {
+            ecosystems = ecosystems == null || ecosystems.isEmpty()
+                    ? List.of(RepositoryFilters.ProjectType.npm) : List.copyOf(ecosystems);
+        }
+
         public static RepositorySearchConfig fromJson(Path jsonFile) {
             return JsonUtils.readFromFile(jsonFile, RepositorySearchConfig.class);
         }
@@ -240,51 +618,80 @@ public class GitHubMiner {
      * <a href="https://docs.github.com/en/rest/guides/best-practices-for-integrators#dealing-with-rate-limits">
      * the GitHub API documentation.
      * </a>
+     * <p>
+     * Instead of waiting for the rate limit of its token to reset, a request about to use up the budget of the
+     * token fails with a {@link TokenUnavailableException}, so that the work can be retried with another token.
      */
     static class MinerRateLimitChecker extends RateLimitChecker {
-        private static final int REMAINING_CALLS_CUTOFF = 5;
+        private final GitHubAPITokenQueue tokenQueue;
         private final String apiToken;
+        private final GitHubAPITokenQueue.Bucket bucket;
 
-        public MinerRateLimitChecker(String apiToken) {
+        public MinerRateLimitChecker(GitHubAPITokenQueue tokenQueue, String apiToken,
+                                     GitHubAPITokenQueue.Bucket bucket) {
+            this.tokenQueue = tokenQueue;
             this.apiToken = apiToken;
+            this.bucket = bucket;
         }
 
         @Override
-        protected boolean checkRateLimit(GHRateLimit.Record rateLimitRecord, long count) throws InterruptedException {
-            if (rateLimitRecord.getRemaining() < REMAINING_CALLS_CUTOFF) {
-                long timeToSleep = rateLimitRecord.getResetDate().getTime() - System.currentTimeMillis();
-                System.out.printf("Rate limit exceeded for token %s, sleeping %ds until %s\n",
-                        apiToken, timeToSleep / 1000, rateLimitRecord.getResetDate());
-                System.exit(1);
-                sleep(timeToSleep);
-                return true;
-            }
-            return false;
+        protected boolean checkRateLimit(GHRateLimit.Record rateLimitRecord, long count) {
+            long resetAt = rateLimitRecord.getResetDate().getTime();
+            if (rateLimitRecord.getRemaining() > bucket.cutoff() || resetAt <= System.currentTimeMillis())
+                return false;
+            tokenQueue.updateBudget(apiToken, bucket, rateLimitRecord.getRemaining(), resetAt);
+            throw new TokenUnavailableException("Rate limit exceeded for " + bucket.resource() + " requests with " +
+                    "token " + TokenVerifier.fingerprint(apiToken), rateLimitRecord.getResetDate());
+        }
+    }
+
+    /**
+     * The MinerRateLimitHandler determines what to do in case a request exceeded the GitHub API rate limit anyway,
+     * for instance because the token is also used elsewhere. The token is set aside until its rate limit resets
+     * and the request fails with a {@link TokenUnavailableException}.
+     */
+    static class MinerRateLimitHandler extends GitHubRateLimitHandler {
+        private static final Logger log = LoggerFactory.getLogger(MinerRateLimitHandler.class);
+        private final GitHubAPITokenQueue tokenQueue;
+        private final String apiToken;
+
+        public MinerRateLimitHandler(GitHubAPITokenQueue tokenQueue, String apiToken) {
+            this.tokenQueue = tokenQueue;
+            this.apiToken = apiToken;
+        }
+
+        @Override
+        public void onError(GitHubConnectorResponse connectorResponse) throws IOException {
+            Date availableAt = TokenUnavailableException.retryAt(connectorResponse::header);
+            String fingerprint = TokenVerifier.fingerprint(apiToken);
+            log.info("Rate limit exceeded for token {}, retrying with another token", fingerprint);
+            tokenQueue.park(apiToken, availableAt.getTime());
+            throw new TokenUnavailableException("Rate limit exceeded for token " + fingerprint, availableAt);
         }
     }
 
     /**
      * The MinerGitHubAbuseLimitHandler determines what to do in case we exceed the
-     * GitHub API abuse limit
+     * GitHub API abuse limit. The token is set aside for as long as GitHub asks and the request fails with a
+     * {@link TokenUnavailableException}, so that the worker can continue with another token instead of sleeping.
      */
     static class MinerGitHubAbuseLimitHandler extends GitHubAbuseLimitHandler {
-        private static final int timeToSleepMillis = 60_000;
+        private static final Logger log = LoggerFactory.getLogger(MinerGitHubAbuseLimitHandler.class);
+        private final GitHubAPITokenQueue tokenQueue;
         private final String apiToken;
 
-        public MinerGitHubAbuseLimitHandler(String apiToken) {
+        public MinerGitHubAbuseLimitHandler(GitHubAPITokenQueue tokenQueue, String apiToken) {
+            this.tokenQueue = tokenQueue;
             this.apiToken = apiToken;
         }
 
         @Override
         public void onError(GitHubConnectorResponse connectorResponse) throws IOException {
-            System.out.println(new String(connectorResponse.bodyStream().readAllBytes()));
-            System.out.printf("Abuse limit reached for token %s, sleeping %d seconds\n",
-                    apiToken, timeToSleepMillis / 1000);
-            try {
-                sleep(timeToSleepMillis);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            Date availableAt = TokenUnavailableException.retryAt(connectorResponse::header);
+            String fingerprint = TokenVerifier.fingerprint(apiToken);
+            log.info("Abuse limit reached for token {}, setting it aside until {}", fingerprint, availableAt);
+            tokenQueue.park(apiToken, availableAt.getTime());
+            throw new TokenUnavailableException("Abuse limit reached for token " + fingerprint, availableAt);
         }
     }
 }
@@ -1,51 +1,136 @@
 package io.github.chains_project.miner;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.ResponseBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 import org.kohsuke.github.GHPullRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * The GitPatchCache provides a way to store the result of queries for the patch content of a pull request,
- * in order to reduce the number of API calls.
+ * The GitPatchCache provides a way to check the patch content of a pull request and to store the contents of
+ * files, in order to reduce the number of API calls.
  * <br>
  * NOTE: This class may not be strictly needed since we use OkHTTP with a cache,
  * and the design is quite inelegant, but it is convenient for the {@link PullRequestFilters}.
+ * <p>
+ * Patches are keyed by the repository, number and head commit of their pull request, so a pull request that was
+ * pushed to since is fetched again. A diff is streamed through the {@link DiffScanner}, which usually stops
+ * reading it at the first matching file, and the part that was read is kept, marked as partial unless the diff was
+ * read to the end. A partial patch answers a check only if it already contains a matching file. Lockfile diffs can
+ * be several megabytes each, so at most {@link #MAX_PATCH_BYTES} of patches are kept in memory. When more are
+ * added, the least recently used patches are spilled to gzip compressed files in the spill directory, from which
+ * they are loaded again when needed. Since a patch never changes for the same head commit, spilled patches are
+ * reused by later runs as well.
+ * <p>
+ * File contents are keyed by their git blob SHA, which is looked up with a small GraphQL query that does not
+ * return the content itself. The same lockfile at different commits or in different forks is therefore only
+ * downloaded once, using the raw media type rather than Base64 encoded JSON.
  */
 public class GitPatchCache {
-    private static final Map<GHPullRequest, String> cache = new ConcurrentHashMap<>();
-    private static final Map<String, String> pomCache = new ConcurrentHashMap<>();
+    /**
+     * The maximum number of bytes of file contents kept in memory.
+     */
+    static final long MAX_CONTENT_BYTES = 32L * 1024 * 1024;
+    /**
+     * The maximum number of bytes of patches kept in memory, which is also the largest patch that is kept at all.
+     */
+    static final long MAX_PATCH_BYTES = 64L * 1024 * 1024;
+    /**
+     * The maximum number of blob SHAs of files kept in memory.
+     */
+    static final int MAX_BLOB_SHAS = 10_000;
+    private static final String RAW_MEDIA_TYPE = "application/vnd.github.raw";
+    private static final String SPILL_FILE_ENDING = ".diff.gz";
+    private static final String PARTIAL_SPILL_FILE_ENDING = ".partial.diff.gz";
+    private static final WeightedLru<String, byte[]> contentCache =
+            new WeightedLru<>(MAX_CONTENT_BYTES, content -> content.length);
+    private static final WeightedLru<PatchKey, Patch> patchCache =
+            new WeightedLru<>(MAX_PATCH_BYTES, patch -> patch.content().length);
+    private static final WeightedLru<String, String> blobShas = new WeightedLru<>(MAX_BLOB_SHAS, sha -> 1);
     private static final Logger log = LoggerFactory.getLogger(GitPatchCache.class);
     private static OkHttpClient httpClient;
-    private static String accessToken;
+    private static GitHubAPITokenQueue tokenQueue;
+    private static GraphQLTransport graphQL;
+    private static Path spillDirectory;
     private GitPatchCache() { /* Nothing to see here... */ }
 
     /**
-     * Get the patch contents of a pull request.
+     * Get the complete patch of a pull request, from the cache if it holds the whole diff, and otherwise from GitHub.
      *
      * @param pullRequest the pull request to get the patch of.
-     * @return the contents of the patch applied by this pull request.
+     * @return the contents of the patch applied by this pull request, or empty if it could not be fetched.
      */
     public static Optional<String> get(GHPullRequest pullRequest) {
-        if (cache.containsKey(pullRequest))
-            return Optional.of(cache.get(pullRequest));
+        PatchKey key = PatchKey.of(pullRequest);
+        Patch patch = getCachedPatch(key);
+        if (patch == null || !patch.complete()) {
+            try (var response = executeDiffRequest(newDiffRequest(pullRequest), pullRequest)) {
+                patch = new Patch(Objects.requireNonNull(response.body()).bytes(), true);
+            } catch (IOException e) {
+                log.error(e.getMessage());
+                return Optional.empty();
+            }
+            putPatch(key, patch);
+        }
+        return Optional.of(new String(patch.content(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Check whether a pull request changes any file matching a predicate. A cached patch is scanned if it decides
+     * the check. Otherwise the diff is streamed from GitHub through the {@link DiffScanner}, the request is
+     * cancelled as soon as a matching file is found, and the part of the diff that was read is cached.
+     *
+     * @param pullRequest the pull request to check.
+     * @param paths       the predicate over the paths of the changed files.
+     * @return whether any changed file matches the predicate, or empty if the diff could not be fetched.
+     */
+    public static Optional<Boolean> changesAnyFile(GHPullRequest pullRequest, Predicate<String> paths) {
         try {
-            cache.put(pullRequest, getPullRequestDiffContents(pullRequest));
-            return Optional.of(cache.get(pullRequest));
+            PatchKey key = PatchKey.of(pullRequest);
+            Patch cached = getCachedPatch(key);
+            if (cached != null) {
+                boolean found = DiffScanner.anyChangedFile(new Buffer().write(cached.content()), paths);
+                if (found || cached.complete())
+                    return Optional.of(found);
+            }
+            Call request = newDiffRequest(pullRequest);
+            try (var response = executeDiffRequest(request, pullRequest)) {
+                Buffer read = new Buffer();
+                BufferedSource diff = recording(Objects.requireNonNull(response.body()).source(), read);
+                boolean found = DiffScanner.anyChangedFile(diff, paths);
+                if (found)
+                    request.cancel();
+                // Without a matching file, the scan read the whole diff.
+                if (read.size() <= MAX_PATCH_BYTES)
+                    putPatch(key, found ? Patch.partial(read.readByteArray()) : new Patch(read.readByteArray(), true));
+                return Optional.of(found);
+            }
         } catch (IOException e) {
             log.error(e.getMessage());
             return Optional.empty();
@@ -53,86 +138,270 @@ public class GitPatchCache {
     }
 
     /**
-     * Get the pom file contents of a pull request.
+     * Get the contents of a file at a commit, such as a pom file or a lockfile.
      *
      * @param projectOrg GitHub org of the project.
      * @param project    GitHub project name.
-     * @param buCommit   the breaking commit SHA.
-     * @param filePath   the path of the POM file.
-     * @return the contents of the patch applied by this pull request.
+     * @param commit     the commit SHA.
+     * @param filePath   the path of the file.
+     * @return the contents of the file at the given commit, or empty if it could not be fetched or does not exist.
      */
-    public static Optional<String> get(String projectOrg, String project, String buCommit, String filePath) {
-        if (pomCache.containsKey(buCommit))
-            return Optional.of(pomCache.get(buCommit));
+    public static Optional<String> get(String projectOrg, String project, String commit, String filePath) {
         try {
-            pomCache.put(buCommit, getPOMContent(buCommit, projectOrg, project, filePath));
-            return Optional.of(pomCache.get(buCommit));
+            String blobSha = getBlobSha(projectOrg, project, commit, filePath);
+            if (blobSha == null) {
+                log.error("No file {} at commit {} of {}/{}", filePath, commit, projectOrg, project);
+                return Optional.empty();
+            }
+            byte[] content = contentCache.get(blobSha);
+            if (content == null) {
+                content = getBlobContent(projectOrg, project, blobSha);
+                contentCache.put(blobSha, content);
+            }
+            return Optional.of(new String(content, StandardCharsets.UTF_8));
         } catch (IOException e) {
             log.error(e.getMessage());
             return Optional.empty();
         }
     }
 
-    /**
-     * Remove a pull request from the cache.
-     *
-     * @param pullRequest the pull request to remove.
-     */
-    public static void remove(GHPullRequest pullRequest) {
-        cache.remove(pullRequest);
-    }
-
     /**
      * Initialize the patch cache.
      *
-     * @param httpClient  the {@link okhttp3.OkHttpClient} to use for the connection to GitHub.
-     * @param accessToken the GitHub API token to use for the connection.
+     * @param httpClient the {@link okhttp3.OkHttpClient} to use for the connection to GitHub.
+     * @param tokenQueue the {@link GitHubAPITokenQueue} providing the API tokens to use for the connection.
+     * @param graphQL        the {@link GraphQLTransport} used to look up the blob SHAs of files.
+     * @param spillDirectory the directory to spill patches to when they do not fit in memory, or null to drop them.
      */
-    public static void initialize(OkHttpClient httpClient, String accessToken) {
-        GitPatchCache.accessToken = accessToken;
+    public static void initialize(OkHttpClient httpClient, GitHubAPITokenQueue tokenQueue, GraphQLTransport graphQL,
+                                  Path spillDirectory) {
         GitPatchCache.httpClient = httpClient;
+        GitPatchCache.tokenQueue = tokenQueue;
+        GitPatchCache.graphQL = graphQL;
+        GitPatchCache.spillDirectory = spillDirectory;
     }
 
-    private static String getPullRequestDiffContents(GHPullRequest pr) throws IOException {
-        if (httpClient == null || accessToken == null)
+    private static Call newDiffRequest(GHPullRequest pr) {
+        if (httpClient == null || tokenQueue == null)
             throw new IllegalStateException("GitPatchCache has not been initialized");
-
-        Call request = httpClient.newCall(new Request.Builder()
+        return httpClient.newCall(new Request.Builder()
                 .get()
                 .url(pr.getDiffUrl())
-                .header("Authorization", "bearer " + accessToken)
+                .header("Authorization", "bearer " + tokenQueue.nextToken())
                 .build());
+    }
 
-        try (var response = request.execute()) {
+    private static Response executeDiffRequest(Call request, GHPullRequest pr) throws IOException {
+        Response response = request.execute();
+        try {
+            TokenUnavailableException.throwIfRateLimited(response.code(), response::header,
+                    "Getting the diff of PR " + pr.getHtmlUrl());
             if (response.code() != HttpURLConnection.HTTP_OK)
                 throw new IOException("Failed to get diff for PR " + pr.getHtmlUrl());
-            return Objects.requireNonNull(response.body()).string();
+            return response;
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copy the bytes read from a source to a buffer as they arrive, which may be ahead of the position of the reader.
+     * Once the buffer holds more than {@link #MAX_PATCH_BYTES}, nothing more is copied.
+     */
+    private static BufferedSource recording(Source source, Buffer read) {
+        return Okio.buffer(new ForwardingSource(source) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long count = super.read(sink, byteCount);
+                if (count > 0 && read.size() <= MAX_PATCH_BYTES)
+                    sink.copyTo(read, sink.size() - count, count);
+                return count;
+            }
+        });
+    }
+
+    /**
+     * @return the patch from memory or from its spill file, or null if it is in neither.
+     */
+    private static Patch getCachedPatch(PatchKey key) {
+        Patch patch = patchCache.get(key);
+        if (patch != null)
+            return patch;
+        for (boolean complete : new boolean[]{true, false}) {
+            Path spillFile = spillFile(key, complete);
+            if (spillFile == null || !Files.exists(spillFile))
+                continue;
+            try (InputStream in = new GZIPInputStream(JsonUtils.openBuffered(spillFile))) {
+                patch = new Patch(in.readAllBytes(), complete);
+                putPatch(key, patch);
+                return patch;
+            } catch (IOException e) {
+                log.warn("Could not read spilled patch {}", spillFile);
+            }
         }
+        return null;
     }
 
-    private static String getPOMContent(String buCommit, String projectOrg, String project, String filePath) throws IOException {
-        if (httpClient == null || accessToken == null)
+    /**
+     * Add a patch to the memory, spilling the least recently used patches to disk while more than
+     * {@link #MAX_PATCH_BYTES} are kept.
+     */
+    private static void putPatch(PatchKey key, Patch patch) {
+        patchCache.put(key, patch).forEach(GitPatchCache::spill);
+    }
+
+    private static void spill(PatchKey key, Patch patch) {
+        Path spillFile = spillFile(key, patch.complete());
+        if (spillFile == null || Files.exists(spillFile))
+            return;
+        try {
+            Files.createDirectories(spillFile.getParent());
+            JsonUtils.writeAtomically(spillFile, out -> {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(patch.content());
+                gzip.finish();
+            });
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not spill patch to {}", spillFile);
+        }
+    }
+
+    private static Path spillFile(PatchKey key, boolean complete) {
+        if (spillDirectory == null)
+            return null;
+        return spillDirectory.resolve(key.repository()).resolve(key.number() + "-" + key.headSha() +
+                (complete ? SPILL_FILE_ENDING : PARTIAL_SPILL_FILE_ENDING));
+    }
+
+    /**
+     * Look up the git blob SHA of a file at a commit, without fetching its content. Since the blob of a path at a
+     * commit never changes, the {@link #MAX_BLOB_SHAS} most recently used SHAs are kept.
+     *
+     * @return the blob SHA, or null if there is no file at the given path.
+     */
+    private static String getBlobSha(String projectOrg, String project, String commit, String filePath)
+            throws IOException {
+        if (graphQL == null)
+            throw new IllegalStateException("GitPatchCache has not been initialized");
+        String key = projectOrg + "/" + project + "@" + commit + ":" + filePath;
+        String cached = blobShas.get(key);
+        if (cached != null)
+            return cached;
+        String query = "query {\n  repository(owner: " + GraphQLTransport.quote(projectOrg) + ", name: " +
+                GraphQLTransport.quote(project) + ") {\n    object(expression: " +
+                GraphQLTransport.quote(commit + ":" + filePath) + ") { ... on Blob { oid } }\n  }\n}";
+        JsonObject response = graphQL.execute(query);
+        JsonElement data = response.get("data");
+        if (data == null || data.isJsonNull())
+            throw new IOException("Failed to look up " + key + ": " + response.get("errors"));
+        JsonElement repository = data.getAsJsonObject().get("repository");
+        if (repository == null || repository.isJsonNull())
+            return null;
+        JsonElement object = repository.getAsJsonObject().get("object");
+        if (object == null || object.isJsonNull() || !object.getAsJsonObject().has("oid"))
+            return null;
+        String blobSha = object.getAsJsonObject().get("oid").getAsString();
+        blobShas.put(key, blobSha);
+        return blobSha;
+    }
+
+    /**
+     * Download the raw content of a git blob. The response body is read directly into the cached bytes, without
+     * the JSON and Base64 encoding of the contents endpoint.
+     */
+    private static byte[] getBlobContent(String projectOrg, String project, String blobSha) throws IOException {
+        if (httpClient == null || tokenQueue == null)
             throw new IllegalStateException("GitPatchCache has not been initialized");
-        String apiUrl = "https://api.github.com/repos/" + projectOrg + "/" + project + "/contents/" + filePath + "?ref="
-                + buCommit;
         Call request = httpClient.newCall(new Request.Builder()
-                .url(apiUrl)
-                .header("Accept", "application/vnd.github.v3+json")
+                .get()
+                .url("https://api.github.com/repos/" + projectOrg + "/" + project + "/git/blobs/" + blobSha)
+                .header("Accept", RAW_MEDIA_TYPE)
+                .header("Authorization", "bearer " + tokenQueue.nextToken())
                 .build());
         try (var response = request.execute()) {
-            if (response.isSuccessful()) {
-                ResponseBody responseBody = response.body();
-                if (responseBody != null) {
-                    JsonObject json = JsonParser.parseString(responseBody.string()).getAsJsonObject();
-                    String base64Content = json.get("content").getAsString();
-                    String sanitizedBase64Content = base64Content.replaceAll("\\n", "");
-                    return new String(Base64.getDecoder().decode(sanitizedBase64Content), StandardCharsets.UTF_8);
-                } else {
-                    throw new IOException("Failed to retrieve file content from GitHub API. Response body is empty.");
-                }
-            } else {
-                throw new IOException("Failed to retrieve file content from GitHub API. Status code: " + response.code());
+            TokenUnavailableException.throwIfRateLimited(response.code(), response::header,
+                    "Retrieving blob " + blobSha + " of " + projectOrg + "/" + project);
+            if (response.code() != HttpURLConnection.HTTP_OK)
+                throw new IOException("Failed to retrieve blob " + blobSha + " of " + projectOrg + "/" + project +
+                        " from GitHub API. Status code: " + response.code());
+            return Objects.requireNonNull(response.body()).bytes();
+        }
+    }
+
+    /**
+     * Identifies the patch of a pull request.
+     *
+     * @param repository the full name of the repository of the pull request.
+     * @param number     the number of the pull request.
+     * @param headSha    the SHA of the head commit of the pull request.
+     */
+    private record PatchKey(String repository, int number, String headSha) {
+        static PatchKey of(GHPullRequest pullRequest) {
+            return new PatchKey(pullRequest.getRepository().getFullName(), pullRequest.getNumber(),
+                    pullRequest.getHead().getSha());
+        }
+    }
+
+    /**
+     * The part of the diff of a pull request that was read.
+     *
+     * @param content  the bytes of the diff.
+     * @param complete whether the diff was read to the end.
+     */
+    private record Patch(byte[] content, boolean complete) {
+        /**
+         * Keep the whole lines of a diff that was not read to the end, so that a header cut off by the end of the
+         * bytes read is not matched later.
+         */
+        static Patch partial(byte[] content) {
+            int end = content.length;
+            while (end > 0 && content[end - 1] != '\n')
+                end--;
+            return new Patch(Arrays.copyOf(content, end), false);
+        }
+    }
+
+    /**
+     * The WeightedLru keeps values up to a total weight, such as their size in bytes, evicting the least recently
+     * used ones first.
+     *
+     * @param <K> the type of the keys.
+     * @param <V> the type of the values.
+     */
+    private static class WeightedLru<K, V> {
+        private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxBytes;
+        private final ToIntFunction<V> weigher;
+        private long bytes;
+
+        WeightedLru(long maxBytes, ToIntFunction<V> weigher) {
+            this.maxBytes = maxBytes;
+            this.weigher = weigher;
+        }
+
+        synchronized V get(K key) {
+            return entries.get(key);
+        }
+
+        /**
+         * Add an entry, evicting the least recently used entries while more than the maximum size is kept, which
+         * may include the new entry itself.
+         *
+         * @return the evicted entries.
+         */
+        synchronized Map<K, V> put(K key, V value) {
+            V previous = entries.put(key, value);
+            bytes += weigher.applyAsInt(value) - (previous != null ? weigher.applyAsInt(previous) : 0);
+            Map<K, V> evicted = new LinkedHashMap<>();
+            Iterator<Map.Entry<K, V>> leastRecentlyUsed = entries.entrySet().iterator();
+            while (bytes > maxBytes && leastRecentlyUsed.hasNext()) {
+                Map.Entry<K, V> entry = leastRecentlyUsed.next();
+                bytes -= weigher.applyAsInt(entry.getValue());
+                evicted.put(entry.getKey(), entry.getValue());
+                leastRecentlyUsed.remove();
             }
+            return evicted;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package io.github.chains_project.miner;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The GraphQLTransport sends GraphQL queries to a server and returns the decoded responses.
+ * Keeping the transport separate from the code that builds the queries makes it possible to run the
+ * GraphQL based parts of the miner against a local stub server instead of the GitHub API.
+ */
+@FunctionalInterface
+public interface GraphQLTransport {
+
+    /**
+     * The GitHub GraphQL API endpoint.
+     */
+    String GITHUB_ENDPOINT = "https://api.github.com/graphql";
+
+    /**
+     * The status code of responses to requests rejected by a rate limit, which has no constant in
+     * {@link java.net.HttpURLConnection}.
+     */
+    int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Execute a GraphQL query.
+     *
+     * @param query the GraphQL query document.
+     * @return the full JSON response, including both the "data" and any "errors".
+     * @throws IOException               if the query could not be sent or the server did not answer with a JSON
+     *                                   response.
+     * @throws TokenUnavailableException if the API token used was rejected by a rate limit.
+     */
+    JsonObject execute(String query) throws IOException;
+
+    /**
+     * Quote a value as a GraphQL string literal.
+     *
+     * @param value the value to quote.
+     * @return the quoted and escaped value.
+     */
+    static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Check whether a query was rejected by a rate limit. GitHub answers a GraphQL query made after the rate limit
+     * of its token was used up with an error of type RATE_LIMITED instead of a failed response.
+     *
+     * @param errors the "errors" of the response to the query, if any.
+     * @return whether any of the errors is of type RATE_LIMITED.
+     */
+    static boolean isRateLimited(JsonElement errors) {
+        if (errors == null || !errors.isJsonArray())
+            return false;
+        for (JsonElement error : errors.getAsJsonArray()) {
+            JsonElement type = error.isJsonObject() ? error.getAsJsonObject().get("type") : null;
+            if (type != null && type.isJsonPrimitive() && "RATE_LIMITED".equals(type.getAsString()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create a transport that posts queries over HTTP.
+     *
+     * @param httpClient  the {@link okhttp3.OkHttpClient} to use for the connection.
+     * @param endpoint    the URL of the GraphQL endpoint, usually {@link #GITHUB_ENDPOINT}.
+     * @param accessToken supplies the API token to use for each query.
+     * @return a transport sending queries to the given endpoint.
+     */
+    static GraphQLTransport overHttp(OkHttpClient httpClient, String endpoint, Supplier<String> accessToken) {
+        MediaType json = MediaType.get("application/json; charset=utf-8");
+        return query -> {
+            JsonObject payload = new JsonObject();
+            payload.addProperty("query", query);
+            Call request = httpClient.newCall(new Request.Builder()
+                    .url(endpoint)
+                    .header("Authorization", "bearer " + accessToken.get())
+                    .post(RequestBody.create(payload.toString(), json))
+                    .build());
+            try (var response = request.execute()) {
+                if (response.code() == HttpURLConnection.HTTP_FORBIDDEN || response.code() == HTTP_TOO_MANY_REQUESTS)
+                    throw new TokenUnavailableException("GraphQL query was rate limited with status code " +
+                            response.code(), TokenUnavailableException.retryAt(response::header));
+                if (!response.isSuccessful())
+                    throw new IOException("GraphQL query failed with status code " + response.code());
+                JsonObject result = JsonParser.parseReader(Objects.requireNonNull(response.body()).charStream())
+                        .getAsJsonObject();
+                // GitHub answers a query over the rate limit with status code 200, and says when it resets in
+                // the headers.
+                JsonElement data = result.get("data");
+                if ((data == null || data.isJsonNull()) && isRateLimited(result.get("errors")))
+                    throw new TokenUnavailableException("GraphQL query was rate limited",
+                            TokenUnavailableException.retryAt(response::header));
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The JsonRepositoryListCodec stores a {@link RepositoryList} as a pretty-printed JSON object, keyed by the full
+ * names of the repositories.
+ */
+class JsonRepositoryListCodec implements RepositoryListCodec {
+
+    @Override
+    public Entries read(Path file) {
+        JsonUtils.ObjectEntryReader<RepositoryData> reader = JsonUtils.readObjectEntries(file, RepositoryData.class);
+        return new Entries() {
+            @Override
+            public boolean hasNext() {
+                return reader.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, RepositoryData> next() {
+                return reader.next();
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    @Override
+    public void write(Path file, Map<String, RepositoryData> repos) {
+        JsonUtils.writeToFile(file, repos);
+    }
+
+    @Override
+    public void write(Path file, Iterator<Map.Entry<String, RepositoryData>> entries) {
+        JsonUtils.writeObjectEntries(file, entries);
+    }
+}
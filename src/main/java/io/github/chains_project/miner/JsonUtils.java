@@ -1,14 +1,38 @@
 package io.github.chains_project.miner;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * The JsonUtils class provides a simple interface for writing and reading JSON files
@@ -26,7 +50,11 @@ public class JsonUtils {
     public static final String EMPTY_JSON_OBJECT = "{}";
 
     private static final ObjectMapper mapper =
-            new ObjectMapper().setDateFormat(new StdDateFormat());
+            new ObjectMapper().setDateFormat(new StdDateFormat())
+                    // Older repository lists store a single project type as a string instead of a list.
+                    .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+    private static final Logger log = LoggerFactory.getLogger(JsonUtils.class);
+    private static final int BUFFER_SIZE = 1 << 16;
 
     private JsonUtils() { /* Nothing to see here... */ }
 
@@ -38,8 +66,8 @@ public class JsonUtils {
      * @return an object of the specified type as read from the given file.
      */
     public static <T> T readFromFile(Path file, Class<T> jsonType) {
-        try {
-            return mapper.readValue(Files.readString(file), jsonType);
+        try (InputStream in = openBuffered(file)) {
+            return mapper.readValue(in, jsonType);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -53,8 +81,8 @@ public class JsonUtils {
      * @return an object of the specified type as read from the given file.
      */
     public static <T> T readFromFile(Path file, JavaType jsonType) {
-        try {
-            return mapper.readValue(Files.readString(file), jsonType);
+        try (InputStream in = openBuffered(file)) {
+            return mapper.readValue(in, jsonType);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -69,37 +97,338 @@ public class JsonUtils {
      */
     public static <T> T readFromNullableFile(Path file, JavaType jsonType) {
         try {
-            if (Files.readString(file).isEmpty()) {
+            if (Files.size(file) == 0) {
                 // Handle empty JSON file.
                 return null;
-            } else {
-                return mapper.readValue(Files.readString(file), jsonType);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return readFromFile(file, jsonType);
+    }
+
+    /**
+     * Read the entries of a JSON object from file one at a time, without loading the whole file. An empty file
+     * is read as an empty object.
+     *
+     * @param file      the path to the JSON file containing a single object.
+     * @param valueType the type that the values of the object should be considered as.
+     * @return a reader returning the entries of the object in file order, which must be closed after use.
+     */
+    public static <V> ObjectEntryReader<V> readObjectEntries(Path file, Class<V> valueType) {
+        try {
+            return new ObjectEntryReader<>(mapper.getFactory().createParser(openBuffered(file)), valueType);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
      * Write an object to a JSON file.
+     * <p>
+     * The file is written atomically, see {@link #writeAtomically(Path, OutputWriter)}.
      *
      * @param outputFilePath the file path where the data should be written.
      * @param data           the object to be stored as JSON.
      */
     public static void writeToFile(Path outputFilePath, Object data) {
+        // The stream must stay open after serializing, so that it can be synced.
+        writeAtomically(outputFilePath, out -> mapper.writerWithDefaultPrettyPrinter()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(out, data));
+    }
+
+    /**
+     * Write a JSON object to file one entry at a time, without holding the whole object in memory. The file is
+     * written atomically and formatted like {@link #writeToFile(Path, Object)}.
+     *
+     * @param outputFilePath the file path where the data should be written.
+     * @param entries        the entries of the object, each name only once.
+     */
+    public static void writeObjectEntries(Path outputFilePath, Iterator<? extends Map.Entry<String, ?>> entries) {
+        writeAtomically(outputFilePath, out -> {
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.useDefaultPrettyPrinter();
+                generator.writeStartObject();
+                while (entries.hasNext()) {
+                    Map.Entry<String, ?> entry = entries.next();
+                    generator.writeFieldName(entry.getKey());
+                    mapper.writeValue(generator, entry.getValue());
+                }
+                generator.writeEndObject();
+            }
+        });
+    }
+
+    /**
+     * Write a file atomically. The content is written to a temporary file in the same directory, which is synced
+     * to disk and then atomically moved over the output file. The directory is synced as well, so that the move
+     * itself survives a crash. If the process is killed while writing, the output file is left as it was before.
+     *
+     * @param outputFilePath the file path where the data should be written.
+     * @param writer         writes the content of the file to a buffered stream, without closing it.
+     */
+    public static void writeAtomically(Path outputFilePath, OutputWriter writer) {
+        Path directory = outputFilePath.toAbsolutePath().getParent();
+        Path tempFile = null;
         try {
-            String json = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(data);
-            Files.writeString(outputFilePath, json, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            // Files.createTempFile would restrict the permissions of the output file to its owner.
+            tempFile = directory.resolve(outputFilePath.getFileName() + "." + System.nanoTime() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+                 OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+                writer.write(out);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tempFile, outputFilePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(directory);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    log.warn("Could not remove temporary file {}", tempFile);
+                }
+            }
         }
     }
 
+    /**
+     * Sync a directory to disk, so that the files moved into it are found after a crash. Not all platforms can
+     * open a directory, e.g. Windows, in which case the rename is left to the file system to persist.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Could not sync directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Create or truncate a file for writing through a buffered channel.
+     *
+     * @param file the path to the file to write.
+     * @return a buffered stream to the file, which must be closed after use.
+     * @throws IOException if the file could not be opened.
+     */
+    public static OutputStream createBuffered(Path file) throws IOException {
+        return new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)), BUFFER_SIZE);
+    }
+
+    /**
+     * Open a file for reading through a buffered channel.
+     *
+     * @param file the path to the file to read.
+     * @return a buffered stream over the file, which must be closed after use.
+     * @throws IOException if the file could not be opened.
+     */
+    public static InputStream openBuffered(Path file) throws IOException {
+        return new BufferedInputStream(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)),
+                BUFFER_SIZE);
+    }
+
+    /**
+     * Serialize an object to compact JSON on a single line.
+     *
+     * @param data the object to serialize.
+     * @return the JSON representation of the object.
+     */
+    public static String toJson(Object data) {
+        try {
+            return mapper.writeValueAsString(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read a JSON object from a string.
+     *
+     * @param json     the JSON representation of the object.
+     * @param jsonType the type that the data should be considered as.
+     * @return an object of the specified type.
+     * @throws IOException if the string is not valid JSON of the given type.
+     */
+    public static <T> T fromJson(String json, Class<T> jsonType) throws IOException {
+        return mapper.readValue(json, jsonType);
+    }
+
     /**
      * @return a {@link TypeFactory} from the underlying {@link ObjectMapper}.
      */
     public static TypeFactory getTypeFactory() {
         return mapper.getTypeFactory();
     }
+
+    /**
+     * Writes content to a stream.
+     */
+    @FunctionalInterface
+    public interface OutputWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * The SnapshotWriter writes snapshots of an object to a file in the background, by default as JSON using
+     * {@link #writeToFile(Path, Object)}. Requests made while a write is already pending are coalesced, so that
+     * a burst of requests results in at most one write per interval, always of the most recently requested data.
+     *
+     * @param <T> the type of the snapshots.
+     */
+    public static class SnapshotWriter<T> implements AutoCloseable {
+        private final Path outputFilePath;
+        private final long intervalNanos;
+        private final BiConsumer<Path, ? super T> write;
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private Supplier<? extends T> pendingData;
+        private Runnable pendingCallback;
+        private boolean scheduled;
+        private long lastWrite;
+
+        /**
+         * @param outputFilePath the file path where the snapshots should be written.
+         * @param interval       the minimum time between two snapshots.
+         */
+        public SnapshotWriter(Path outputFilePath, Duration interval) {
+            this(outputFilePath, interval, JsonUtils::writeToFile);
+        }
+
+        /**
+         * @param outputFilePath the file path where the snapshots should be written.
+         * @param interval       the minimum time between two snapshots.
+         * @param write          writes a snapshot to the given file.
+         */
+        public SnapshotWriter(Path outputFilePath, Duration interval, BiConsumer<Path, ? super T> write) {
+            this.outputFilePath = outputFilePath;
+            this.intervalNanos = interval.toNanos();
+            this.write = write;
+            this.lastWrite = System.nanoTime() - intervalNanos;
+        }
+
+        /**
+         * Request a snapshot to be written, without waiting for it.
+         *
+         * @param data      supplies the object to write, called when the snapshot is written.
+         * @param afterWrite run once the snapshot is safely on disk, or null. If the request is superseded by a
+         *                  later one before it is written, only the callback of the later request is run.
+         */
+        public synchronized void request(Supplier<? extends T> data, Runnable afterWrite) {
+            pendingData = data;
+            pendingCallback = afterWrite;
+            if (!scheduled) {
+                scheduled = true;
+                long delay = Math.max(0, lastWrite + intervalNanos - System.nanoTime());
+                executor.schedule(this::writePending, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Write the pending snapshot, if any, right away and wait until it is on disk.
+         */
+        public void flush() {
+            try {
+                executor.submit(this::writePending).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        /**
+         * Write the pending snapshot, if any, and stop the background thread.
+         */
+        @Override
+        public void close() {
+            flush();
+            executor.shutdown();
+        }
+
+        private void writePending() {
+            Supplier<? extends T> data;
+            Runnable afterWrite;
+            synchronized (this) {
+                data = pendingData;
+                afterWrite = pendingCallback;
+                pendingData = null;
+                pendingCallback = null;
+                scheduled = false;
+                if (data == null)
+                    return;
+                lastWrite = System.nanoTime();
+            }
+            try {
+                write.accept(outputFilePath, data.get());
+                if (afterWrite != null)
+                    afterWrite.run();
+            } catch (RuntimeException e) {
+                log.error("Failed to write snapshot to " + outputFilePath, e);
+            }
+        }
+    }
+
+    /**
+     * The ObjectEntryReader reads the entries of a JSON object one at a time using a streaming
+     * {@link JsonParser}, so that only the entry being read is held in memory.
+     *
+     * @param <V> the type of the values of the object.
+     */
+    public static class ObjectEntryReader<V> implements Iterator<Map.Entry<String, V>>, AutoCloseable {
+        private final JsonParser parser;
+        private final Class<V> valueType;
+        private JsonToken next;
+
+        private ObjectEntryReader(JsonParser parser, Class<V> valueType) throws IOException {
+            this.parser = parser;
+            this.valueType = valueType;
+            JsonToken start = parser.nextToken();
+            if (start == null) {
+                next = JsonToken.END_OBJECT;
+            } else if (start != JsonToken.START_OBJECT) {
+                parser.close();
+                throw new IOException("Expected a JSON object but found " + start);
+            } else {
+                next = parser.nextToken();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next == JsonToken.FIELD_NAME;
+        }
+
+        @Override
+        public Map.Entry<String, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            try {
+                String name = parser.currentName();
+                parser.nextToken();
+                V value = mapper.readValue(parser, valueType);
+                next = parser.nextToken();
+                return Map.entry(name, value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import org.kohsuke.github.GHRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The LockfileSignatures map file names to the role the file plays in a project: either the manifest of an
+ * ecosystem, or one of its lockfiles. Files are matched on their exact base name with a single hash lookup, so
+ * a tree can be classified in one pass however many ecosystems are supported, and names that merely contain
+ * a known name (e.g. package.json5) are not matched. Supporting another ecosystem or lockfile format only
+ * requires another entry in the table.
+ */
+public class LockfileSignatures {
+
+    /**
+     * The ecosystems in the order they are reported in, when a repository contains the manifests of several.
+     */
+    private static final List<ProjectType> ECOSYSTEMS = List.of(ProjectType.npm, ProjectType.GRADLE,
+            ProjectType.PIP, ProjectType.RUBYGEMS, ProjectType.HELM, ProjectType.COMPOSER, ProjectType.NUGET,
+            ProjectType.BOWER, ProjectType.CARGO);
+    private static final Map<String, Signature> SIGNATURES = new LinkedHashMap<>();
+
+    static {
+        manifest("package.json", ProjectType.npm);
+        lockfile("npm-shrinkwrap.json", ProjectType.npm, ProjectType.NPMSHRINK);
+        lockfile("yarn.lock", ProjectType.npm, ProjectType.YARN);
+        lockfile("pnpm-lock.yaml", ProjectType.npm, ProjectType.PNPM);
+        lockfile("package-lock.json", ProjectType.npm, ProjectType.NPM);
+        lockfile("bun.lockb", ProjectType.npm, ProjectType.BUN);
+        lockfile("bun.lock", ProjectType.npm, ProjectType.BUN);
+        manifest("build.gradle", ProjectType.GRADLE);
+        manifest("build.gradle.kts", ProjectType.GRADLE);
+        lockfile("gradle.lockfile", ProjectType.GRADLE, ProjectType.GRADLE);
+        manifest("Pipfile", ProjectType.PIP);
+        lockfile("Pipfile.lock", ProjectType.PIP, ProjectType.PIP);
+        manifest("Gemfile", ProjectType.RUBYGEMS);
+        lockfile("Gemfile.lock", ProjectType.RUBYGEMS, ProjectType.RUBYGEMS);
+        manifest("Chart.yaml", ProjectType.HELM);
+        lockfile("Chart.lock", ProjectType.HELM, ProjectType.HELM);
+        manifest("composer.json", ProjectType.COMPOSER);
+        lockfile("composer.lock", ProjectType.COMPOSER, ProjectType.COMPOSER);
+        manifest("packages.config", ProjectType.NUGET);
+        lockfile("packages.lock.json", ProjectType.NUGET, ProjectType.NUGET);
+        manifest("bower.json", ProjectType.BOWER);
+        lockfile("bower.lock", ProjectType.BOWER, ProjectType.BOWER);
+        manifest("Cargo.toml", ProjectType.CARGO);
+        lockfile("Cargo.lock", ProjectType.CARGO, ProjectType.CARGO);
+    }
+
+    private LockfileSignatures() { /* Nothing to see here... */ }
+
+    /**
+     * @param ecosystems the ecosystems to include.
+     * @return the names of the manifests and lockfiles of the given ecosystems, in table order.
+     */
+    public static List<String> fileNames(Collection<ProjectType> ecosystems) {
+        return SIGNATURES.entrySet().stream()
+                .filter(signature -> ecosystems.contains(signature.getValue().ecosystem()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * @param ecosystems the ecosystems to include.
+     * @return the names of the lockfiles of the given ecosystems, in table order.
+     */
+    public static Set<String> lockfileNames(Collection<ProjectType> ecosystems) {
+        Set<String> names = new LinkedHashSet<>();
+        SIGNATURES.forEach((name, signature) -> {
+            if (signature.role() == Role.LOCKFILE && ecosystems.contains(signature.ecosystem()))
+                names.add(name);
+        });
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Find the role of a file.
+     *
+     * @param path the path of the file, only the base name is used.
+     * @return the signature of the file, or null if the file has no known role.
+     */
+    public static Signature match(String path) {
+        return SIGNATURES.get(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    private static void manifest(String fileName, ProjectType ecosystem) {
+        SIGNATURES.put(fileName, new Signature(ecosystem, Role.MANIFEST, null));
+    }
+
+    private static void lockfile(String fileName, ProjectType ecosystem, ProjectType lockfileType) {
+        SIGNATURES.put(fileName, new Signature(ecosystem, Role.LOCKFILE, lockfileType));
+    }
+
+    /**
+     * The role a file plays in a project.
+     */
+    public enum Role {
+        MANIFEST, LOCKFILE
+    }
+
+    /**
+     * @param ecosystem    the ecosystem the file belongs to, identified by the project type used when none of
+     *                     its lockfiles are present.
+     * @param role         whether the file is the manifest or a lockfile of the ecosystem.
+     * @param lockfileType the project type identified by the lockfile, or null for manifests.
+     */
+    public record Signature(ProjectType ecosystem, Role role, ProjectType lockfileType) {
+    }
+
+    /**
+     * A Scan collects the manifests and lockfiles of the ecosystems searched for among the files of a repository.
+     */
+    public static class Scan {
+        private final Set<ProjectType> ecosystems;
+        private final Set<ProjectType> manifests = EnumSet.noneOf(ProjectType.class);
+        private final Map<ProjectType, List<ProjectType>> lockfiles = new LinkedHashMap<>();
+        private final Map<ProjectType, Set<String>> lockfilePaths = new LinkedHashMap<>();
+
+        /**
+         * @param ecosystems the ecosystems to look for, the files of other ecosystems are ignored.
+         */
+        public Scan(Collection<ProjectType> ecosystems) {
+            this.ecosystems = ecosystems.isEmpty() ? EnumSet.noneOf(ProjectType.class) : EnumSet.copyOf(ecosystems);
+        }
+
+        /**
+         * Record the role of a file, if it has one in an ecosystem looked for.
+         *
+         * @param path the path of the file.
+         * @return the signature of the file, or null if the file has no known role in the ecosystems looked for.
+         */
+        public Signature accept(String path) {
+            Signature signature = match(path);
+            if (signature == null || !ecosystems.contains(signature.ecosystem()))
+                return null;
+            if (signature.role() == Role.MANIFEST) {
+                manifests.add(signature.ecosystem());
+            } else {
+                List<ProjectType> found = lockfiles.computeIfAbsent(signature.ecosystem(), e -> new ArrayList<>());
+                if (!found.contains(signature.lockfileType()))
+                    found.add(signature.lockfileType());
+                lockfilePaths.computeIfAbsent(signature.ecosystem(), e -> new TreeSet<>()).add(path);
+            }
+            return signature;
+        }
+
+        /**
+         * Identify the project type from the collected files. The first ecosystem with a manifest decides the
+         * project type: the types of its lockfiles if any are present, otherwise the ecosystem itself. The paths
+         * of the lockfiles of that ecosystem are included in sorted order.
+         *
+         * @param repository the repository the files belong to.
+         * @return the identified project info, or null if no manifest was found.
+         */
+        public ProjectInfo toProjectInfo(GHRepository repository) {
+            for (ProjectType ecosystem : ECOSYSTEMS) {
+                if (!manifests.contains(ecosystem))
+                    continue;
+                List<ProjectType> found = lockfiles.getOrDefault(ecosystem, List.of());
+                if (found.isEmpty())
+                    return new ProjectInfo(repository, List.of(ecosystem), false, List.of());
+                // Report the lockfile types in table order, independent of the order of the files.
+                List<ProjectType> ordered = SIGNATURES.values().stream()
+                        .map(Signature::lockfileType)
+                        .filter(found::contains)
+                        .distinct()
+                        .toList();
+                return new ProjectInfo(repository, ordered, true, List.copyOf(lockfilePaths.get(ecosystem)));
+            }
+            return null;
+        }
+    }
+}
@@ -7,8 +7,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This class represents the main entry point to the GitHub breaking updates miner.
@@ -22,7 +25,7 @@ public class Main {
         System.exit(exitCode);
     }
 
-    @CommandLine.Command(subcommands = {Mine.class, Find.class}, mixinStandardHelpOptions = true, version = "0.1")
+    @CommandLine.Command(subcommands = {Mine.class, Find.class, Query.class, Convert.class, Merge.class}, mixinStandardHelpOptions = true, version = "0.1")
     public static class CLIEntryPoint implements Runnable {
         @Override
         public void run() {
@@ -56,12 +59,30 @@ public class Main {
         )
         Path repoFile;
 
+        @CommandLine.Mixin
+        QueryOptions queryOptions;
+
+        @CommandLine.Option(
+                names = {"--shard"},
+                paramLabel = "i/N",
+                converter = ShardConverter.class,
+                description = "Only mine the repositories in shard i of N, with i between 1 and N. The shard has its own repository list next to REPO-FILE, created from it on the first run."
+        )
+        Shard shard;
+
         @Override
         public void run() {
             try {
                 List<String> apiTokens = Files.readAllLines(apiTokenFile);
-                RepositoryList repoList = new RepositoryList(repoFile);
-                new GitHubMiner(apiTokens, outputDirectory).mineRepositories(repoList);
+                if (shard != null)
+                    repoFile = RepositoryListFiles.openShard(repoFile, shard);
+                try (RepositoryList repoList = new RepositoryList(repoFile)) {
+                    GitHubMiner miner = new GitHubMiner(apiTokens, outputDirectory);
+                    if (queryOptions.isEmpty())
+                        miner.mineRepositories(repoList);
+                    else
+                        miner.mineRepositories(repoList, queryOptions.toQuery());
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -108,6 +129,41 @@ public class Main {
         )
         Date lastDate;
 
+        @CommandLine.Option(
+                names = {"-p", "--parallel"},
+                description = "Split the creation date range into one window per API token and search the windows in parallel."
+        )
+        boolean parallel;
+
+        @CommandLine.Option(
+                names = {"-g", "--graphql"},
+                description = "Check the found repositories in batches using the GitHub GraphQL API."
+        )
+        boolean graphQL;
+
+        @CommandLine.Option(
+                names = {"-c", "--concurrency-per-token"},
+                paramLabel = "CHECKS",
+                converter = PositiveIntConverter.class,
+                description = "The number of found repositories to check concurrently per API token, at least 1.",
+                defaultValue = "1"
+        )
+        int concurrencyPerToken;
+
+        @CommandLine.Option(
+                names = {"-R", "--recursive"},
+                description = "Look for lockfiles in all directories of a repository, not only in its root."
+        )
+        boolean recursive;
+
+        @CommandLine.Option(
+                names = {"--shard"},
+                paramLabel = "i/N",
+                converter = ShardConverter.class,
+                description = "Only check the found repositories in shard i of N, with i between 1 and N. The shard has its own repository list next to REPO-FILE."
+        )
+        Shard shard;
+
         @Override
         public void run() {
             if (repoFile == null) {
@@ -124,12 +180,176 @@ public class Main {
             }
             try {
                 List<String> apiTokens = Files.readAllLines(apiTokenFile);
+                if (shard != null)
+                    repoFile = RepositoryListFiles.openShard(repoFile, shard);
                 RepositorySearchConfig searchConfig = RepositorySearchConfig.fromJson(searchConfigFile);
-                var repoList = new RepositoryList(repoFile);
-                new GitHubMiner(apiTokens, outputDirectory).findRepositories(repoList, searchConfig, lastDate);
+                try (var repoList = new RepositoryList(repoFile)) {
+                    new GitHubMiner(apiTokens, outputDirectory).findRepositories(repoList, searchConfig, lastDate,
+                            new GitHubMiner.FindOptions(parallel, graphQL, concurrencyPerToken, recursive, shard));
+                }
             } catch (IOException | InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
     }
+
+    @CommandLine.Command(name = "query", mixinStandardHelpOptions = true, version = "0.1",
+            description = "List the repositories in a repository list that match the given conditions.")
+    private static class Query implements Runnable {
+        @CommandLine.Option(
+                names = {"-r", "--repos"},
+                paramLabel = "REPO-FILE",
+                description = "A JSON file as given by the find-repos operation.",
+                required = true
+        )
+        Path repoFile;
+
+        @CommandLine.Option(
+                names = {"-o", "--output"},
+                paramLabel = "OUTPUT-FILE",
+                description = "A file to write the names of the matching repositories to, one per line. " +
+                        "If not given, the names are printed."
+        )
+        Path outputFile;
+
+        @CommandLine.Mixin
+        QueryOptions queryOptions;
+
+        @Override
+        public void run() {
+            List<String> names;
+            try (RepositoryList repoList = new RepositoryList(repoFile)) {
+                names = repoList.query(queryOptions.toQuery());
+            }
+            if (outputFile == null) {
+                names.forEach(System.out::println);
+                return;
+            }
+            try {
+                Files.write(outputFile, names);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            System.out.println("Wrote " + names.size() + " repositories to " + outputFile);
+        }
+    }
+
+    /**
+     * The conditions shared by the commands that select repositories from a repository list.
+     */
+    private static class QueryOptions {
+        @CommandLine.Option(
+                names = {"-t", "--project-type"},
+                paramLabel = "TYPE",
+                split = ",",
+                description = "Only repositories with one of these project types, e.g. PNPM,YARN."
+        )
+        Set<RepositoryFilters.ProjectType> projectTypes;
+
+        @CommandLine.Option(
+                names = {"--lockfile-exists"},
+                paramLabel = "BOOLEAN",
+                arity = "1",
+                description = "Only repositories with (true) or without (false) a lockfile."
+        )
+        Boolean lockfileExists;
+
+        @CommandLine.Option(
+                names = {"--not-checked-in"},
+                paramLabel = "DAYS",
+                description = "Only repositories that were never checked or not checked in the given number of days."
+        )
+        Integer notCheckedInDays;
+
+        boolean isEmpty() {
+            return (projectTypes == null || projectTypes.isEmpty()) && lockfileExists == null
+                    && notCheckedInDays == null;
+        }
+
+        RepositoryList.Query toQuery() {
+            Date notCheckedSince = notCheckedInDays == null ? null :
+                    Date.from(Instant.now().minus(notCheckedInDays, ChronoUnit.DAYS));
+            return new RepositoryList.Query(projectTypes, lockfileExists, notCheckedSince);
+        }
+    }
+
+    @CommandLine.Command(name = "convert", mixinStandardHelpOptions = true, version = "0.1",
+            description = "Convert a repository list between JSON and the compact binary format. Files ending in "
+                    + BinaryRepositoryListCodec.FILE_ENDING + " are binary, all others JSON.")
+    private static class Convert implements Runnable {
+        @CommandLine.Option(
+                names = {"-i", "--input"},
+                paramLabel = "INPUT-FILE",
+                description = "The repository list to convert.",
+                required = true
+        )
+        Path inputFile;
+
+        @CommandLine.Option(
+                names = {"-o", "--output"},
+                paramLabel = "OUTPUT-FILE",
+                description = "The file to write the converted repository list to.",
+                required = true
+        )
+        Path outputFile;
+
+        @Override
+        public void run() {
+            int converted = RepositoryListFiles.convert(inputFile, outputFile);
+            System.out.println("Converted " + converted + " repositories to " + outputFile);
+        }
+    }
+
+    @CommandLine.Command(name = "merge", mixinStandardHelpOptions = true, version = "0.1",
+            description = "Merge repository lists, such as the lists of all shards, into one sorted list. The lists " +
+                    "are streamed and sorted externally, so they do not have to fit in memory.")
+    private static class Merge implements Runnable {
+        @CommandLine.Option(
+                names = {"-o", "--output"},
+                paramLabel = "OUTPUT-FILE",
+                description = "The file to write the merged repository list to.",
+                required = true
+        )
+        Path outputFile;
+
+        @CommandLine.Parameters(
+                paramLabel = "INPUT-FILE",
+                description = "The repository lists to merge.",
+                arity = "1..*"
+        )
+        List<Path> inputFiles;
+
+        @CommandLine.Option(
+                names = {"-p", "--policy"},
+                paramLabel = "POLICY",
+                description = "How the entries of a repository found in several lists are combined: LATEST keeps the " +
+                        "entry checked last, UNION combines the project types and lockfile paths of all entries and " +
+                        "keeps the latest check time. Default: ${DEFAULT-VALUE}.",
+                defaultValue = "LATEST"
+        )
+        MergePolicy policy;
+
+        @Override
+        public void run() {
+            int merged = RepositoryListFiles.merge(inputFiles, outputFile, policy);
+            System.out.println("Merged " + merged + " repositories into " + outputFile);
+        }
+    }
+
+    private static class ShardConverter implements CommandLine.ITypeConverter<Shard> {
+        @Override
+        public Shard convert(String value) {
+            return Shard.valueOf(value);
+        }
+    }
+
+    private static class PositiveIntConverter implements CommandLine.ITypeConverter<Integer> {
+        @Override
+        public Integer convert(String value) {
+            int count = Integer.parseInt(value.trim());
+            if (count < 1)
+                throw new CommandLine.TypeConversionException("Expected a number of at least 1, got " + value);
+            return count;
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BinaryOperator;
+
+/**
+ * A MergePolicy decides how the entries of a repository found in several repository lists are combined when the
+ * lists are merged. Entries are combined in the order of the lists they were found in.
+ */
+enum MergePolicy implements BinaryOperator<RepositoryData> {
+    /**
+     * Keep the entry that was checked last, or the first one if none was checked later.
+     */
+    LATEST {
+        @Override
+        public RepositoryData apply(RepositoryData a, RepositoryData b) {
+            return isCheckedLater(b, a) ? b : a;
+        }
+    },
+    /**
+     * Combine the entries: the project types and lockfile paths of all entries, a lockfile if any entry has one,
+     * and the latest check time and the URL of the entry that was checked last.
+     */
+    UNION {
+        @Override
+        public RepositoryData apply(RepositoryData a, RepositoryData b) {
+            RepositoryData latest = isCheckedLater(b, a) ? b : a;
+            return new RepositoryData(latest.url(), latest.lastCheckedAt(),
+                    union(a.projectType(), b.projectType()), a.lockfileExists() || b.lockfileExists(),
+                    sortedUnion(a.lockfilePaths(), b.lockfilePaths()));
+        }
+    };
+
+    private static boolean isCheckedLater(RepositoryData a, RepositoryData b) {
+        Date aChecked = a.lastCheckedAt(), bChecked = b.lastCheckedAt();
+        return aChecked != null && (bChecked == null || aChecked.after(bChecked));
+    }
+
+    private static List<ProjectType> union(List<ProjectType> a, List<ProjectType> b) {
+        if (a == null || b == null)
+            return a == null ? b : a;
+        Set<ProjectType> union = new LinkedHashSet<>(a);
+        union.addAll(b);
+        return new ArrayList<>(union);
+    }
+
+    private static List<String> sortedUnion(List<String> a, List<String> b) {
+        if (a == null || b == null)
+            return a == null ? b : a;
+        Set<String> union = new TreeSet<>(a);
+        union.addAll(b);
+        return new ArrayList<>(union);
+    }
+}
@@ -5,15 +5,17 @@ import org.kohsuke.github.GHRepository;
 import java.util.List;
 
 /**
- * Class to hold project type and lockfile existence.
+ * Class to hold project type, lockfile existence, and the paths of the lockfiles found.
  */
-public record ProjectInfo(GHRepository repository, List<RepositoryFilters.ProjectType> projectType, boolean lockfileExists) {
+public record ProjectInfo(GHRepository repository, List<RepositoryFilters.ProjectType> projectType, boolean lockfileExists,
+                          List<String> lockfilePaths) {
 
     @Override
     public String toString() {
         return "ProjectInfo{" +
                 "projectType=" + projectType +
                 ", lockfileExists=" + lockfileExists +
+                ", lockfilePaths=" + lockfilePaths +
                 '}';
     }
 }
@@ -1,11 +1,21 @@
 package io.github.chains_project.miner;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
 import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 /**
  * The PullRequestFilters class contains predicates over GitHub repositories
@@ -13,28 +23,138 @@ import java.util.regex.Pattern;
  */
 public class PullRequestFilters {
 
-    private static final Pattern NPM_LOCKFILE_CHANGE = Pattern.compile("^[+]{3}.*package-lock.json$", Pattern.MULTILINE);
     /**
-     * Checks whether a pull request was created before the given date.
+     * The number of pull requests whose files are listed in each GraphQL query.
+     */
+    static final int BATCH_SIZE = 50;
+    /**
+     * The maximum number of files GitHub lists per pull request in a single GraphQL query.
+     */
+    static final int MAX_LISTED_FILES = 100;
+    /**
+     * The names of the lockfiles a pull request is looked for to change, i.e. the npm and Gradle lockfiles of the
+     * {@link LockfileSignatures}.
+     */
+    static final Set<String> LOCKFILE_NAMES =
+            LockfileSignatures.lockfileNames(List.of(ProjectType.npm, ProjectType.GRADLE));
+    private static final Logger log = LoggerFactory.getLogger(PullRequestFilters.class);
+    private static GraphQLTransport graphQL;
+
+    /**
+     * Checks whether a pull request changes one of the {@link #LOCKFILE_NAMES}. Only the file headers of its diff
+     * are read, and the download stops at the first changed lockfile.
+     */
+    public static final Predicate<GHPullRequest> changesOnlyLockfile =
+            pr -> GitPatchCache.changesAnyFile(pr, PullRequestFilters::isLockfile).orElse(false);
+
+    private PullRequestFilters() { /* Nothing to see here... */ }
+
+    /**
+     * Initialize the pull request filters.
      *
-     * @param cutoffDate The point in time which the PR must have been created before.
-     * @return a {@link Predicate} over {@link org.kohsuke.github.GHPullRequest}s returning
-     * true if a PR was created before the given date, false otherwise.
+     * @param graphQL the {@link GraphQLTransport} used to list the files changed by pull requests.
      */
-    public static final Predicate<GHPullRequest> changesOnlyLockfile = pr -> {
-        String patch = GitPatchCache.get(pr).orElse("");
-        if (NPM_LOCKFILE_CHANGE.matcher(patch).find()) {
-            return true;
-        } else {
-            // If we don't match the predicate, the pull request will get filtered out,
-            // and we can remove it from the cache.
-            GitPatchCache.remove(pr);
-            return false;
+    public static void initialize(GraphQLTransport graphQL) {
+        PullRequestFilters.graphQL = graphQL;
+    }
+
+    /**
+     * Find the pull requests that change a lockfile, checking as little of each pull request as possible.
+     * <ol>
+     *     <li>The paths of the files changed by the pull requests are listed with one GraphQL query per
+     *     {@link #BATCH_SIZE} pull requests. A pull request listing a lockfile is accepted, and one whose files
+     *     are all listed without a lockfile among them is rejected, both without downloading its diff.</li>
+     *     <li>Only the pull requests changing more than {@link #MAX_LISTED_FILES} files, or whose files could not
+     *     be listed, are checked with {@link #changesOnlyLockfile}, which streams their diffs.</li>
+     * </ol>
+     * It is meant for mining the pull requests of a repository in {@link GitHubMiner}, which is commented out
+     * since breaking updates are not written anymore, so it has no caller for now.
+     *
+     * @param pullRequests the pull requests to check, usually a page of the pull requests of a repository.
+     * @return the pull requests changing a lockfile, in the given order.
+     * @throws TokenUnavailableException if the files of a batch could not be listed because of a rate limit.
+     */
+    public static List<GHPullRequest> changingLockfile(List<GHPullRequest> pullRequests) {
+        List<GHPullRequest> changing = new ArrayList<>();
+        int diffsChecked = 0;
+        for (int from = 0; from < pullRequests.size(); from += BATCH_SIZE) {
+            List<GHPullRequest> batch = pullRequests.subList(from, Math.min(from + BATCH_SIZE, pullRequests.size()));
+            List<FileListCheck> checks = checkFileLists(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                switch (checks.get(i)) {
+                    case LOCKFILE -> changing.add(batch.get(i));
+                    case NO_LOCKFILE -> { }
+                    case UNDECIDED -> {
+                        diffsChecked++;
+                        if (changesOnlyLockfile.test(batch.get(i)))
+                            changing.add(batch.get(i));
+                    }
+                }
+            }
         }
-    };
-    private static final Pattern GRADLE_LOCKFILE_CHANGE = Pattern.compile("^[+]{3}.*gradle.lockfile$", Pattern.MULTILINE);
+        log.debug("  {} of {} pull requests change a lockfile, {} needed their diff checked", changing.size(),
+                pullRequests.size(), diffsChecked);
+        return changing;
+    }
 
-    private PullRequestFilters() { /* Nothing to see here... */ }
+    /**
+     * Check the paths of the files changed by a batch of pull requests. The pull requests are left undecided if
+     * the query fails, so that their diffs are checked instead, unless it failed because of a rate limit. Then
+     * the diffs would use up the same token, so the batch fails with a {@link TokenUnavailableException}.
+     */
+    static List<FileListCheck> checkFileLists(List<GHPullRequest> batch) {
+        List<FileListCheck> checks = new ArrayList<>(Collections.nCopies(batch.size(), FileListCheck.UNDECIDED));
+        if (graphQL == null)
+            return checks;
+        StringBuilder query = new StringBuilder("query {\n");
+        for (int i = 0; i < batch.size(); i++) {
+            GHRepository repository = batch.get(i).getRepository();
+            query.append("  p").append(i).append(": repository(owner: ")
+                    .append(GraphQLTransport.quote(repository.getOwnerName()))
+                    .append(", name: ").append(GraphQLTransport.quote(repository.getName()))
+                    .append(") { pullRequest(number: ").append(batch.get(i).getNumber())
+                    .append(") { changedFiles files(first: ").append(MAX_LISTED_FILES)
+                    .append(") { nodes { path } } } }\n");
+        }
+        query.append("}\n");
+        try {
+            JsonObject response = graphQL.execute(query.toString());
+            JsonElement data = response.get("data");
+            if ((data == null || data.isJsonNull()) && GraphQLTransport.isRateLimited(response.get("errors")))
+                // The transport fails with the reset time from the response, so this only happens with
+                // transports that do not see it, which are asked to wait for the default time.
+                throw new TokenUnavailableException("GraphQL query was rate limited",
+                        TokenUnavailableException.retryAt(header -> null));
+            if (data == null || data.isJsonNull())
+                throw new IOException("GraphQL query returned no data: " + response.get("errors"));
+            for (int i = 0; i < batch.size(); i++) {
+                checks.set(i, checkFileList(data.getAsJsonObject().get("p" + i)));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (e instanceof TokenUnavailableException unavailable)
+                throw unavailable;
+            log.warn("  Could not list the files of {} pull requests, checking their diffs instead", batch.size(), e);
+        }
+        return checks;
+    }
+
+    static FileListCheck checkFileList(JsonElement repository) {
+        if (repository == null || !repository.isJsonObject())
+            return FileListCheck.UNDECIDED;
+        JsonElement pullRequest = repository.getAsJsonObject().get("pullRequest");
+        if (pullRequest == null || !pullRequest.isJsonObject())
+            return FileListCheck.UNDECIDED;
+        JsonElement files = pullRequest.getAsJsonObject().get("files");
+        if (files == null || !files.isJsonObject())
+            return FileListCheck.UNDECIDED;
+        JsonArray nodes = files.getAsJsonObject().getAsJsonArray("nodes");
+        for (JsonElement node : nodes) {
+            if (isLockfile(node.getAsJsonObject().get("path").getAsString()))
+                return FileListCheck.LOCKFILE;
+        }
+        int changedFiles = pullRequest.getAsJsonObject().get("changedFiles").getAsInt();
+        return nodes.size() >= changedFiles ? FileListCheck.NO_LOCKFILE : FileListCheck.UNDECIDED;
+    }
 
     /**
      * Checks whether a pull request was created before the given date.
@@ -52,4 +172,15 @@ public class PullRequestFilters {
             }
         };
     }
+
+    static boolean isLockfile(String path) {
+        return LOCKFILE_NAMES.contains(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * The result of checking the paths of the files changed by a pull request.
+     */
+    enum FileListCheck {
+        LOCKFILE, NO_LOCKFILE, UNDECIDED
+    }
 }
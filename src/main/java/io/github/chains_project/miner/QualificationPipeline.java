@@ -0,0 +1,315 @@
+package io.github.chains_project.miner;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * The QualificationPipeline checks found repositories on a fixed number of worker threads and hands the
+ * qualified ones to a sink, usually a {@link RepositoryList}.
+ * <p>
+ * The queue of repositories waiting to be checked is bounded, and {@link #submit(GHRepository)} blocks while it
+ * is full, so the search never runs further ahead of the checks than the queue allows. Each check has a deadline.
+ * When the deadline passes, all HTTP calls the check has in flight are cancelled and its worker is interrupted,
+ * so that a timed out check stops using the API quota instead of running on in the background. For the HTTP
+ * calls to be cancelled, {@link #CALL_TRACKER} must be installed as an interceptor of the HTTP client. A call
+ * stays tracked until its response body is closed, so that reading a large body can be cancelled as well. Work a
+ * check hands to other threads is only tracked if it is wrapped with {@link #inCurrentCheck(Runnable)}.
+ * <p>
+ * Found repositories are bound to the API token they were found with. When a check fails because that token ran
+ * out of requests, see {@link TokenUnavailableException}, the repository is bound to another token and the check
+ * is queued again. Only if that fails too, the check is set aside and queued again once the token can be used
+ * again, instead of holding on to its worker.
+ */
+public class QualificationPipeline implements AutoCloseable {
+
+    /**
+     * The OkHttp interceptor that keeps track of the HTTP calls made by each check.
+     */
+    public static final Interceptor CALL_TRACKER = new CallTracker();
+    /**
+     * The number of times a check may be set aside because its token could not be used before it fails.
+     */
+    private static final int MAX_PARKS = 3;
+    private static final ThreadLocal<Check> currentCheck = new ThreadLocal<>();
+    private static final Logger log = LoggerFactory.getLogger(QualificationPipeline.class);
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService deadlines;
+    private final Function<GHRepository, ProjectInfo> qualifier;
+    private final Consumer<ProjectInfo> sink;
+    private final UnaryOperator<GHRepository> rebinder;
+    private final Duration deadline;
+
+    /**
+     * @param workerCount the number of repositories to check concurrently.
+     * @param queueSize   the maximum number of repositories waiting to be checked.
+     * @param deadline    the maximum time to spend checking a single repository.
+     * @param qualifier   checks a repository, returning its project info if it qualifies and null otherwise.
+     * @param sink        receives the project info of the qualified repositories.
+     */
+    public QualificationPipeline(int workerCount, int queueSize, Duration deadline,
+                                 Function<GHRepository, ProjectInfo> qualifier, Consumer<ProjectInfo> sink) {
+        this(workerCount, queueSize, deadline, qualifier, sink, null);
+    }
+
+    /**
+     * @param workerCount the number of repositories to check concurrently.
+     * @param queueSize   the maximum number of repositories waiting to be checked.
+     * @param deadline    the maximum time to spend checking a single repository.
+     * @param qualifier   checks a repository, returning its project info if it qualifies and null otherwise.
+     * @param sink        receives the project info of the qualified repositories.
+     * @param rebinder    fetches a repository again with another API token, for checks whose token can not be
+     *                    used anymore, or null to wait for the token instead.
+     */
+    public QualificationPipeline(int workerCount, int queueSize, Duration deadline,
+                                 Function<GHRepository, ProjectInfo> qualifier, Consumer<ProjectInfo> sink,
+                                 UnaryOperator<GHRepository> rebinder) {
+        this.deadline = deadline;
+        this.qualifier = qualifier;
+        this.sink = sink;
+        this.rebinder = rebinder;
+        // When the queue is full, the submitting thread waits for a free slot instead of being rejected. Once the
+        // pipeline is closed, nothing takes tasks from the queue anymore, so they are rejected.
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), (task, executor) -> {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("The qualification pipeline is closed");
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        });
+        deadlines = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Queue a repository to be checked, waiting for space in the queue if it is full.
+     *
+     * @param repository the repository to check.
+     * @return a future completing when the check is done, whether the repository qualified, was rejected,
+     * failed, or ran past its deadline.
+     */
+    public CompletableFuture<Void> submit(GHRepository repository) {
+        Check check = new Check(repository);
+        workers.execute(check);
+        return check.done;
+    }
+
+    /**
+     * Wrap a task so that it runs as part of the check running on the calling thread, if any. The HTTP calls the
+     * task makes are then cancelled along with the check, even when the task runs on another thread.
+     *
+     * @param task the task to wrap.
+     * @return the wrapped task, or the task itself if the calling thread is not checking a repository.
+     */
+    public static Runnable inCurrentCheck(Runnable task) {
+        Check check = currentCheck.get();
+        if (check == null)
+            return task;
+        return () -> {
+            // A thread waiting for other tasks may run tasks of another check meanwhile, so restore its own check.
+            Check previous = currentCheck.get();
+            currentCheck.set(check);
+            try {
+                task.run();
+            } finally {
+                if (previous == null)
+                    currentCheck.remove();
+                else
+                    currentCheck.set(previous);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        // The checks still waiting in the queue are not run anymore, so they are done.
+        for (Runnable task : workers.shutdownNow()) {
+            if (task instanceof Check check)
+                check.done.complete(null);
+        }
+        deadlines.shutdownNow();
+    }
+
+    private class Check implements Runnable {
+        private GHRepository repository;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final Set<Call> calls = new HashSet<>();
+        private Thread worker;
+        private boolean cancelled;
+        private int parks;
+
+        Check(GHRepository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                worker = Thread.currentThread();
+            }
+            ScheduledFuture<?> timeout = deadlines.schedule(this::cancel, deadline.toMillis(), TimeUnit.MILLISECONDS);
+            currentCheck.set(this);
+            boolean parked = false;
+            try {
+                ProjectInfo projectInfo = qualifier.apply(repository);
+                if (projectInfo != null && !isCancelled())
+                    sink.accept(projectInfo);
+            } catch (RuntimeException e) {
+                TokenUnavailableException unavailable = TokenUnavailableException.causeOf(e);
+                if (isCancelled())
+                    log.warn("  Skipping repository {} due to timeout", repository.getFullName());
+                else if (unavailable != null && parks < MAX_PARKS)
+                    parked = park(unavailable);
+                else
+                    log.error("  Error while checking repository " + repository.getFullName(), e);
+            } finally {
+                timeout.cancel(false);
+                currentCheck.remove();
+                synchronized (this) {
+                    worker = null;
+                }
+                // Clear an interrupt from a deadline that passed just as the check finished.
+                Thread.interrupted();
+                if (!parked) {
+                    RepositoryMetadataProbe.forget(repository);
+                    done.complete(null);
+                }
+            }
+        }
+
+        /**
+         * Queue the check again with its repository bound to another token. If that fails, set the check aside
+         * until the token it ran out of can be used again, and queue it once more then. Both happen off the
+         * worker, which is free to check other repositories meanwhile.
+         */
+        private boolean park(TokenUnavailableException unavailable) {
+            parks++;
+            if (rebinder != null) {
+                log.info("  Checking repository {} again with another token: {}", repository.getFullName(),
+                        unavailable.getMessage());
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        GHRepository rebound = rebinder.apply(repository);
+                        RepositoryMetadataProbe.forget(repository);
+                        repository = rebound;
+                    } catch (RuntimeException e) {
+                        log.warn("  Could not fetch repository {} with another token", repository.getFullName(), e);
+                        requeueWhenAvailable(unavailable);
+                        return;
+                    }
+                    requeue();
+                });
+            } else {
+                requeueWhenAvailable(unavailable);
+            }
+            return true;
+        }
+
+        private void requeueWhenAvailable(TokenUnavailableException unavailable) {
+            long delay = Math.max(0, unavailable.getAvailableAt().getTime() - System.currentTimeMillis());
+            log.info("  Checking repository {} again in {}s: {}", repository.getFullName(), delay / 1000,
+                    unavailable.getMessage());
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::requeue);
+        }
+
+        /**
+         * Queue the parked check again, or give up on it if the pipeline was closed meanwhile.
+         */
+        private void requeue() {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.warn("  Not checking repository {} again: {}", repository.getFullName(), e.getMessage());
+                RepositoryMetadataProbe.forget(repository);
+                done.complete(null);
+            }
+        }
+
+        synchronized void cancel() {
+            if (worker == null)
+                return;
+            cancelled = true;
+            calls.forEach(Call::cancel);
+            worker.interrupt();
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized void register(Call call) {
+            if (cancelled)
+                call.cancel();
+            calls.add(call);
+        }
+
+        synchronized void unregister(Call call) {
+            calls.remove(call);
+        }
+    }
+
+    private static class CallTracker implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Check check = currentCheck.get();
+            if (check == null)
+                return chain.proceed(chain.request());
+            Call call = chain.call();
+            check.register(call);
+            Response response;
+            try {
+                if (call.isCanceled())
+                    throw new InterruptedIOException("Deadline passed for " + check.repository.getFullName());
+                response = chain.proceed(chain.request());
+            } catch (IOException | RuntimeException e) {
+                check.unregister(call);
+                throw e;
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                check.unregister(call);
+                return response;
+            }
+            // The body is read after the interceptor returns, so the call is only done once the body is closed.
+            ForwardingSource source = new ForwardingSource(body.source()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        check.unregister(call);
+                    }
+                }
+            };
+            return response.newBuilder()
+                    .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.GitHubMiner.RepositorySearchConfig;
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * The RepositoryFilterPipeline runs the {@link RepositoryFilters} used to qualify found repositories, and
+ * decides the order to run them in while it is running.
+ * <p>
+ * For each filter, the pipeline records how many repositories it has checked and rejected, the time spent, and
+ * the number of API calls made. Since a repository is rejected as soon as one filter rejects it, the filters are
+ * run in order of expected cost per rejected repository, i.e. the average cost of running the filter divided by
+ * the rate at which it rejects repositories. The cost of a filter counts both the time it takes and the API calls
+ * it makes, since the calls use up the rate limits of the API tokens. Filters that only look at the search result
+ * payload cost nothing and always run first. Checks answered by the same API call are one filter, so that the
+ * cost of the call is not charged to whichever of them happens to run first. The project type is identified only
+ * for repositories passing all filters.
+ */
+public class RepositoryFilterPipeline {
+    /**
+     * The cost of an API call in nanoseconds. A token can make 5000 calls per hour, so each call uses up 720 ms of
+     * the time the token can be used for.
+     */
+    private static final double API_CALL_NANOS = 3_600_000_000_000.0 / 5000;
+    private static final Logger log = LoggerFactory.getLogger(RepositoryFilterPipeline.class);
+    private final List<Filter> filters;
+    private final Filter projectType = new Filter("project type", repository -> true, false);
+    private final List<ProjectType> ecosystems;
+    private final boolean recursiveTreeScan;
+
+    RepositoryFilterPipeline(List<Filter> filters, List<ProjectType> ecosystems, boolean recursiveTreeScan) {
+        this.filters = filters;
+        this.ecosystems = ecosystems;
+        this.recursiveTreeScan = recursiveTreeScan;
+    }
+
+    /**
+     * Create a pipeline with the filters given by a search configuration.
+     *
+     * @param searchConfig      a {@link RepositorySearchConfig} specifying the repositories to look for.
+     * @param recursiveTreeScan whether the project type is identified from all files of a repository, using the
+     *                          {@link RepositoryTreeScanner}, instead of only the files in its root.
+     * @return a pipeline checking that repositories fulfill the search criteria.
+     */
+    public static RepositoryFilterPipeline forSearch(RepositorySearchConfig searchConfig, boolean recursiveTreeScan) {
+        return new RepositoryFilterPipeline(List.of(
+                new Filter("pushed", RepositoryFilters.isPushedWithinThreeMonths, true),
+                // The number of commits and the date of the last one come from the same commit summary.
+                new Filter("commits", repository -> RepositoryFilters.hasSufficientNumberOfCommits(repository,
+                        searchConfig.minNumberOfCommits()) && RepositoryFilters.isLastCommitWithinThreeMonths(
+                        repository), false),
+                new Filter("contributors", repository -> RepositoryFilters.hasSufficientNumberOfContributors(
+                        repository, searchConfig.minNumberOfContributors()), false)),
+                searchConfig.ecosystems(), recursiveTreeScan);
+    }
+
+    /**
+     * Run the filters over a repository and identify its project type if it passes all of them.
+     *
+     * @param repository the repository to check.
+     * @return the project info of the repository, or null if it was rejected or has an unknown project type.
+     */
+    public ProjectInfo qualify(GHRepository repository) {
+        if (!passesFilters(repository))
+            return null;
+        long start = System.nanoTime();
+        long calls = ApiCallCounter.current();
+        ProjectInfo projectInfo = recursiveTreeScan
+                ? RepositoryFilters.identifyProjectTypeAndLockfileRecursively(repository, ecosystems)
+                : RepositoryFilters.identifyProjectTypeAndLockfile(repository, ecosystems);
+        projectType.record(projectInfo != null, System.nanoTime() - start, ApiCallCounter.current() - calls);
+        return projectInfo;
+    }
+
+    /**
+     * Run the filters over a repository in their current order, until one of them rejects it.
+     *
+     * @return true if the repository passes all filters.
+     */
+    boolean passesFilters(GHRepository repository) {
+        for (Filter filter : currentOrder()) {
+            if (!filter.test(repository))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the filters in the order they are currently run.
+     */
+    List<String> filterOrder() {
+        return currentOrder().stream().map(filter -> filter.name).toList();
+    }
+
+    /**
+     * Log the statistics of each filter, in the order the filters are currently run.
+     */
+    public void logStatistics() {
+        List<Filter> order = new ArrayList<>(currentOrder());
+        order.add(projectType);
+        for (Filter filter : order) {
+            long evaluations = filter.evaluations.sum();
+            long rejections = filter.rejections.sum();
+            log.info("  Filter {}: checked {}, rejected {} ({}%), {} API calls, {} ms average", filter.name,
+                    evaluations, rejections, evaluations == 0 ? 0 : 100 * rejections / evaluations,
+                    filter.apiCalls.sum(), evaluations == 0 ? 0 : filter.nanos.sum() / evaluations / 1_000_000);
+        }
+    }
+
+    private List<Filter> currentOrder() {
+        // Sort on a snapshot of the costs, since other threads keep updating the statistics.
+        Map<Filter, Double> costs = new IdentityHashMap<>();
+        for (Filter filter : filters) {
+            costs.put(filter, filter.expectedCostPerRejection());
+        }
+        List<Filter> order = new ArrayList<>(filters);
+        order.sort(Comparator.comparingDouble(costs::get));
+        return order;
+    }
+
+    static class Filter {
+        private final String name;
+        private final Predicate<GHRepository> predicate;
+        private final boolean free;
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder apiCalls = new LongAdder();
+
+        Filter(String name, Predicate<GHRepository> predicate, boolean free) {
+            this.name = name;
+            this.predicate = predicate;
+            this.free = free;
+        }
+
+        boolean test(GHRepository repository) {
+            long start = System.nanoTime();
+            long calls = ApiCallCounter.current();
+            boolean passed = predicate.test(repository);
+            record(passed, System.nanoTime() - start, ApiCallCounter.current() - calls);
+            return passed;
+        }
+
+        void record(boolean passed, long elapsedNanos, long calls) {
+            evaluations.increment();
+            if (!passed)
+                rejections.increment();
+            nanos.add(elapsedNanos);
+            apiCalls.add(calls);
+        }
+
+        /**
+         * The average cost per check, i.e. the time spent plus the time worth of the API calls made, divided by the
+         * rejection rate. Both are smoothed so that filters without statistics start out with a rejection rate of
+         * one half and are tried early on.
+         */
+        double expectedCostPerRejection() {
+            if (free)
+                return 0;
+            double checks = evaluations.sum();
+            double averageCost = (nanos.sum() + apiCalls.sum() * API_CALL_NANOS + 1.0) / (checks + 1.0);
+            double rejectionRate = (rejections.sum() + 1.0) / (checks + 2.0);
+            return averageCost / rejectionRate;
+        }
+    }
+}
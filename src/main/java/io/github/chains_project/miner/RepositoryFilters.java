@@ -1,6 +1,5 @@
 package io.github.chains_project.miner;
 
-import org.kohsuke.github.GHCommit;
 import org.kohsuke.github.GHEvent;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GHTreeEntry;
@@ -11,8 +10,8 @@ import java.io.IOException;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -32,137 +31,73 @@ public class RepositoryFilters {
                 .iterator();
         return workflowIterator.hasNext();
     };
+    /**
+     * Check whether anything was pushed to the given repository within the last three months. This only uses
+     * the repository information included in search results, and is a necessary condition for
+     * {@link #isLastCommitWithinThreeMonths(GHRepository)}. Repositories without a push date are not rejected.
+     */
+    public static final Predicate<GHRepository> isPushedWithinThreeMonths = repository -> {
+        Date pushedAt = repository.getPushedAt();
+        return pushedAt == null || isWithinThreeMonths(pushedAt);
+    };
     private static final Logger log = LoggerFactory.getLogger(RepositoryFilters.class);
 
     private RepositoryFilters() { /* Nothing to see here... */ }
 
     /**
-     * Identifies the type of project (Maven, Gradle, npm, yarn, pip, RubyGems, Helm, Conda, Composer, NuGet, Bower, Cargo)
-     * and checks for the existence of lockfiles in the main branch of the GitHub repository.
+     * Identifies the type of project (npm, Gradle, pip, RubyGems, Helm, Composer, NuGet, Bower, Cargo) and checks for
+     * the existence of lockfiles in the main branch of the GitHub repository.
      *
+     * @param ecosystems the ecosystems to look for, the project files of other ecosystems are ignored.
      * @return a ProjectInfo object containing the identified ProjectType and a boolean indicating whether a lockfile exists.
      */
-    public static ProjectInfo identifyProjectTypeAndLockfile(GHRepository repository) {
+    public static ProjectInfo identifyProjectTypeAndLockfile(GHRepository repository,
+                                                             Collection<ProjectType> ecosystems) {
         try {
             List<GHTreeEntry> treeEntries = repository.getTree(repository.getDefaultBranch()).getTree();
-            List<ProjectType> lockfiles = new ArrayList<>();
-
-            boolean hasGradle = false, hasNpm = false, hasYarn = false, hasPipEnv = false, hasRubyGems = false,
-                    hasHelm = false, hasComposer = false, hasNuGet = false, hasBower = false, hasCargo = false;
-            boolean hasGradleLock = false, hasNpmLock = false, hasYarnLock = false, hasPipEnvLock = false,
-                    hasRubyGemsLock = false, hasHelmLock = false, hasComposerLock = false, hasNuGetLock = false,
-                    hasBowerLock = false, hasCargoLock = false, hasShrinkwrap = false, hasPnpmLock = false,
-                    hasBunLock = false;
-
-            for (GHTreeEntry entry : treeEntries) {
-                String path = entry.getPath();
-                // if (path.contains("Cargo.toml")) {
-                //     hasCargo = true;
-                // } else if (path.contains("Cargo.lock")) {
-                //     hasCargoLock = true;
-                // }
-//                if (path.contains("build.gradle")) {
-//                    hasGradle = true;
-//                } else if (path.contains("gradle.lockfile")) {
-//                    hasGradleLock = true;
-               if (path.contains("package.json")) {
-                   // the content of the package.json will be checked again later.
-                   hasNpm = true;
-               } else if (path.contains("package-lock.json")) {
-                   hasNpmLock = true;
-                   System.out.println("npm lock");
-               } else if (path.contains("yarn.lock")) {
-                   hasYarnLock = true;
-               } else if (path.contains("npm-shrinkwrap.json")) {
-                   hasShrinkwrap = true;
-               } else if (path.contains("pnpm-lock.yaml")) {
-                   hasPnpmLock = true;
-               } else if (path.contains("bun.lockb")) {
-                   hasBunLock = true;
-               }
-            //    else if (path.contains("Pipfile")) {
-//                    hasPipEnv = true;
-//                    System.out.println("pip");
-//                } else if (path.contains("Pipfile.lock")) {
-//                    hasPipEnvLock = true;
-//                } else if (path.contains("Gemfile")) {
-//                    hasRubyGems = true;
-//                    System.out.println("ruby gem");
-//                } else if (path.contains("Gemfile.lock")) {
-//                    hasRubyGemsLock = true;
-//                } else if (path.contains("Chart.yaml")) {
-//                    hasHelm = true;
-//                    System.out.println("helm");
-//                } else if (path.contains("Chart.lock")) {
-//                    hasHelmLock = true;
-//                } else if (path.contains("composer.json")) {
-//                    hasComposer = true;
-//                    System.out.println("composer");
-//                } else if (path.contains("composer.lock")) {
-//                    hasComposerLock = true;
-//                } else if (path.contains("bower.json")) {
-//                    hasBower = true;
-//                    System.out.println("bower");
-//                } else if (path.contains("bower.lock")) {
-//                    hasBowerLock = true;
-//                } else if (path.contains("Cargo.toml")) {
-//                    hasCargo = true;
-//                    System.out.println("cargo");
-//                } else if (path.contains("Cargo.lock")) {
-//                    hasCargoLock = true;
-//                } else if (path.contains("packages.config")) {
-//                    hasNuGet = true;
-//                    System.out.println(".net");
-//                } else if (path.contains("packages.lock.json")) {
-//                    hasNuGetLock = true;
-//                }
-            }
-//            if (hasGradle) {
-//                System.out.println("gradle");
-//                return new ProjectInfo(repository, ProjectType.GRADLE, hasGradleLock);
-//            }
-            if (hasNpm) {
-                if (hasShrinkwrap) {
-                    System.out.println("shrinkwrap");
-                    lockfiles.add(ProjectType.NPMSHRINK);
-                }
-                if (hasYarnLock) {
-                    System.out.println("yarn");
-                    lockfiles.add(ProjectType.YARN);
-                }
-                if (hasPnpmLock) {
-                    System.out.println("pnpm");
-                    lockfiles.add(ProjectType.PNPM);
-                }
-                if (hasNpmLock) {
-                    System.out.println("npm");
-                    lockfiles.add(ProjectType.NPM);
-                }
-                if (hasBunLock) {
-                    System.out.println("bun");
-                    lockfiles.add(ProjectType.BUN);
-                }
-                if (lockfiles.isEmpty()) {
-                    System.out.println("empty");
-                    return new ProjectInfo(repository, Collections.singletonList(ProjectType.npm), false);
-                }
-                return new ProjectInfo(repository, lockfiles, true);
-            }
-
-
-//            if (hasPipEnv) return new ProjectInfo(repository, ProjectType.PIP, hasPipEnvLock);
-//            if (hasRubyGems) return new ProjectInfo(repository, ProjectType.RUBYGEMS, hasRubyGemsLock);
-//            if (hasHelm) return new ProjectInfo(repository, ProjectType.HELM, hasHelmLock);
-//            if (hasComposer) return new ProjectInfo(repository, ProjectType.COMPOSER, hasComposerLock);
-//            if (hasNuGet) return new ProjectInfo(repository, ProjectType.NUGET, hasNuGetLock);
-//            if (hasBower) return new ProjectInfo(repository, ProjectType.BOWER, hasBowerLock);
-//            if (hasCargo) return new ProjectInfo(repository, ProjectType.CARGO, hasCargoLock);
+            return identifyProjectTypeAndLockfile(repository,
+                    treeEntries.stream().map(GHTreeEntry::getPath).toList(), ecosystems);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to check repository structure", e);
+        }
+    }
 
+    /**
+     * Identifies the type of project and checks for the existence of lockfiles anywhere on the main branch of the
+     * GitHub repository, including the packages of monorepos.
+     *
+     * @param ecosystems the ecosystems to look for, the project files of other ecosystems are ignored.
+     * @return a ProjectInfo object containing the identified ProjectType, a boolean indicating whether a lockfile
+     * exists, and the paths of the lockfiles.
+     * @see RepositoryTreeScanner
+     */
+    public static ProjectInfo identifyProjectTypeAndLockfileRecursively(GHRepository repository,
+                                                                        Collection<ProjectType> ecosystems) {
+        try {
+            return RepositoryTreeScanner.scan(repository, ecosystems);
         } catch (IOException e) {
             throw new RuntimeException("Failed to check repository structure", e);
         }
-        System.out.println("unknown");
-        return null;
+    }
+
+    /**
+     * Identifies the type of project and checks for the existence of lockfiles given the paths of the files
+     * in the root of the main branch of the GitHub repository.
+     *
+     * @param repository the repository the paths belong to.
+     * @param paths      the paths of the files in the root of the main branch.
+     * @param ecosystems the ecosystems to look for, the project files of other ecosystems are ignored.
+     * @return a ProjectInfo object containing the identified ProjectType and a boolean indicating whether a lockfile
+     * exists, or null if the project type is unknown.
+     * @see LockfileSignatures
+     */
+    public static ProjectInfo identifyProjectTypeAndLockfile(GHRepository repository, Collection<String> paths,
+                                                             Collection<ProjectType> ecosystems) {
+        LockfileSignatures.Scan scan = new LockfileSignatures.Scan(ecosystems);
+        for (String path : paths) {
+            scan.accept(path);
+        }
+        return scan.toProjectInfo(repository);
     }
 
     /**
@@ -170,7 +105,7 @@ public class RepositoryFilters {
      */
     public static boolean hasSufficientNumberOfCommits(GHRepository repository, int minNumberOfCommits) {
         try {
-            return repository.listCommits().toList().size() >= minNumberOfCommits;
+            return RepositoryMetadataProbe.getCommitCount(repository) >= minNumberOfCommits;
         } catch (IOException e) {
             log.error("Search for GitHub repo {} failed : ", repository.getFullName(), e);
             return false;
@@ -182,7 +117,7 @@ public class RepositoryFilters {
      */
     public static boolean hasSufficientNumberOfContributors(GHRepository repository, int minNumberOfContributors) {
         try {
-            return repository.listContributors().toList().size() >= minNumberOfContributors;
+            return RepositoryMetadataProbe.getContributorCount(repository) >= minNumberOfContributors;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -190,12 +125,9 @@ public class RepositoryFilters {
 
     public static boolean isLastCommitWithinThreeMonths(GHRepository repository) {
         try {
-            List<GHCommit> commits = repository.listCommits().toList();
-            if (!commits.isEmpty()) {
-                LocalDate lastCommitDate = commits.get(0).getCommitDate().toInstant()
-                        .atZone(ZoneId.systemDefault()).toLocalDate();
-                LocalDate threeMonthsAgo = LocalDate.now().minus(3, ChronoUnit.MONTHS);
-                return lastCommitDate.isAfter(threeMonthsAgo);
+            Date lastCommitDate = RepositoryMetadataProbe.getLastCommitDate(repository);
+            if (lastCommitDate != null) {
+                return isWithinThreeMonths(lastCommitDate);
             }
         } catch (IOException e) {
             log.error("Error retrieving commits for repository: " + repository.getFullName(), e);
@@ -203,6 +135,15 @@ public class RepositoryFilters {
         return false;
     }
 
+    /**
+     * Check if the given date of a last commit is within the last three months.
+     */
+    static boolean isWithinThreeMonths(Date lastCommit) {
+        LocalDate lastCommitDate = lastCommit.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        LocalDate threeMonthsAgo = LocalDate.now().minus(3, ChronoUnit.MONTHS);
+        return lastCommitDate.isAfter(threeMonthsAgo);
+    }
+
     /**
      * Enum representing different project types based on the build system.
      */
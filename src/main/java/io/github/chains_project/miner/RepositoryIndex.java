@@ -0,0 +1,140 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The RepositoryIndex holds the secondary indexes of a {@link RepositoryTable}, so that repositories can be
+ * selected by project type, lockfile existence and check time without scanning the table.
+ * <p>
+ * Project types and lockfile existence are indexed as bitmaps of rows. Check times are indexed in a sorted array
+ * of keys combining the check time in seconds with the row, so that the rows not checked since a given time are
+ * a prefix of the array, followed by the rows checked in the same second, whose exact check times are compared.
+ * Since rows change far more often than they are selected, the array is only rebuilt from the check time of each
+ * row when it is needed after a change. Rows that were never checked have their own bitmap. The index is updated
+ * by the table whenever a row changes.
+ */
+class RepositoryIndex {
+    private final Map<ProjectType, BitSet> projectTypes = new EnumMap<>(ProjectType.class);
+    private final BitSet lockfileExists = new BitSet();
+    private final BitSet unchecked = new BitSet();
+    /**
+     * The check time of each row in epoch milliseconds, or {@link RepositoryTable#NOT_CHECKED}.
+     */
+    private long[] checkTimes = new long[16];
+    /**
+     * The sorted keys of the checked rows, or null if a row changed since they were built.
+     */
+    private long[] checked = new long[0];
+
+    /**
+     * Add a row to the index.
+     *
+     * @param row            the row.
+     * @param typeMask       the project types of the row, as a bitmask of ordinals.
+     * @param lockfileExists whether the repository in the row has a lockfile.
+     * @param lastCheckedAt  the epoch milliseconds of the last check, or {@link RepositoryTable#NOT_CHECKED}.
+     */
+    void add(int row, int typeMask, boolean lockfileExists, long lastCheckedAt) {
+        for (ProjectType type : ProjectType.values()) {
+            if ((typeMask & (1 << type.ordinal())) != 0)
+                projectTypes.computeIfAbsent(type, t -> new BitSet()).set(row);
+        }
+        this.lockfileExists.set(row, lockfileExists);
+        if (row >= checkTimes.length) {
+            int length = checkTimes.length;
+            checkTimes = Arrays.copyOf(checkTimes, Math.max(row + 1, length + (length >> 1)));
+            Arrays.fill(checkTimes, length, checkTimes.length, RepositoryTable.NOT_CHECKED);
+        }
+        checkTimes[row] = lastCheckedAt;
+        if (lastCheckedAt == RepositoryTable.NOT_CHECKED)
+            unchecked.set(row);
+        else
+            checked = null;
+    }
+
+    /**
+     * Remove a row from the index, given the values it was added with.
+     */
+    void remove(int row, int typeMask, boolean lockfileExists, long lastCheckedAt) {
+        for (ProjectType type : ProjectType.values()) {
+            if ((typeMask & (1 << type.ordinal())) != 0)
+                projectTypes.get(type).clear(row);
+        }
+        if (lockfileExists)
+            this.lockfileExists.clear(row);
+        checkTimes[row] = RepositoryTable.NOT_CHECKED;
+        if (lastCheckedAt == RepositoryTable.NOT_CHECKED)
+            unchecked.clear(row);
+        else
+            checked = null;
+    }
+
+    /**
+     * @param query the query to answer.
+     * @param size  the number of rows in the table.
+     * @return the rows matching the query.
+     */
+    BitSet select(RepositoryList.Query query, int size) {
+        BitSet rows = new BitSet(size);
+        rows.set(0, size);
+        if (query.projectTypes() != null && !query.projectTypes().isEmpty()) {
+            BitSet anyType = new BitSet(size);
+            for (ProjectType type : query.projectTypes()) {
+                BitSet typeRows = projectTypes.get(type);
+                if (typeRows != null)
+                    anyType.or(typeRows);
+            }
+            rows.and(anyType);
+        }
+        if (query.lockfileExists() != null) {
+            if (query.lockfileExists())
+                rows.and(lockfileExists);
+            else
+                rows.andNot(lockfileExists);
+        }
+        if (query.notCheckedSince() != null) {
+            long since = query.notCheckedSince().getTime();
+            BitSet stale = (BitSet) unchecked.clone();
+            long[] keys = checkedKeys();
+            int start = Arrays.binarySearch(keys, key(since, 0));
+            start = start < 0 ? -start - 1 : start;
+            for (int i = 0; i < start; i++) {
+                stale.set((int) keys[i]);
+            }
+            // The keys only order the rows to the second, so compare the exact times within the second itself.
+            for (int i = start; i < keys.length && keys[i] >>> 32 == Math.floorDiv(since, 1000); i++) {
+                int row = (int) keys[i];
+                if (checkTimes[row] < since)
+                    stale.set(row);
+            }
+            rows.and(stale);
+        }
+        return rows;
+    }
+
+    private long[] checkedKeys() {
+        if (checked == null) {
+            int count = 0;
+            long[] keys = new long[checkTimes.length];
+            for (int row = 0; row < checkTimes.length; row++) {
+                if (checkTimes[row] != RepositoryTable.NOT_CHECKED)
+                    keys[count++] = key(checkTimes[row], row);
+            }
+            Arrays.sort(keys, 0, count);
+            checked = Arrays.copyOf(keys, count);
+        }
+        return checked;
+    }
+
+    /**
+     * Combine a check time, to the second, with a row into a key ordered by check time.
+     */
+    private static long key(long lastCheckedAt, int row) {
+        return (Math.floorDiv(lastCheckedAt, 1000) << 32) | row;
+    }
+}
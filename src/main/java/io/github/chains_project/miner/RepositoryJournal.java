@@ -0,0 +1,325 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * The RepositoryJournal is an append-only log of the changes made to a {@link RepositoryList}, stored next to
+ * its snapshot. Each change is a single JSON line holding the full new data of a repository, so replaying
+ * the journal over the last snapshot restores the list as it was when the last change was written.
+ * <p>
+ * Changes are written by a single writer thread. All changes queued while the previous batch was being written
+ * are written together and synced to disk once (group commit). The journal is compacted into the snapshot
+ * periodically, when requested, and when it is closed. Snapshots are written in the background by a
+ * {@link JsonUtils.SnapshotWriter}, and only once a snapshot is safely on disk are the changes it contains
+ * removed from the journal.
+ */
+class RepositoryJournal implements AutoCloseable {
+    /**
+     * The file ending added to the snapshot file name to get the journal file name.
+     */
+    static final String JOURNAL_FILE_ENDING = ".journal";
+    private static final Duration COMPACTION_INTERVAL = Duration.ofMinutes(5);
+    private static final Logger log = LoggerFactory.getLogger(RepositoryJournal.class);
+    private final BlockingQueue<Object> pending = new LinkedBlockingQueue<>();
+    private final Path journalFile;
+    private final Supplier<Map<String, RepositoryData>> snapshot;
+    private final JsonUtils.SnapshotWriter<Map<String, RepositoryData>> snapshotWriter;
+    private final Thread shutdownHook;
+    private FileChannel channel;
+    /**
+     * The number of bytes written to the journal since it was opened, including those removed after compaction.
+     */
+    private long written;
+    /**
+     * The value of {@link #written} at the start of the journal file.
+     */
+    private long removed;
+    private boolean closed;
+
+    /**
+     * Open a journal for appending.
+     *
+     * @param journalFile    the journal file, which is created if it does not exist.
+     * @param length         the length of the complete changes at the start of the journal, as found by
+     *                       {@link #replay(Path, BiConsumer)}. A partly written change after them is removed, so
+     *                       that new changes are not appended to it.
+     * @param snapshot       supplies a copy of the current state of the repository list.
+     * @param snapshotWriter writes the snapshots of the repository list to its snapshot file.
+     * @throws IOException if the journal file could not be opened.
+     */
+    RepositoryJournal(Path journalFile, long length, Supplier<Map<String, RepositoryData>> snapshot,
+                      JsonUtils.SnapshotWriter<Map<String, RepositoryData>> snapshotWriter) throws IOException {
+        this.journalFile = journalFile;
+        this.snapshot = snapshot;
+        this.snapshotWriter = snapshotWriter;
+        channel = open(journalFile);
+        if (channel.size() > length) {
+            log.warn("Removing {} bytes of an incomplete change at the end of {}", channel.size() - length,
+                    journalFile);
+            channel.truncate(length);
+            channel.force(false);
+            channel.position(length);
+        }
+        written = channel.size();
+        Thread writer = new Thread(this::writeLoop, "repository-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Make sure queued changes are written and compacted even if the miner exits without closing the list.
+        shutdownHook = new Thread(this::close);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * @param snapshotFile the snapshot file of a repository list.
+     * @return the journal file belonging to the snapshot file.
+     */
+    static Path journalFileFor(Path snapshotFile) {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + JOURNAL_FILE_ENDING);
+    }
+
+    /**
+     * Replay the changes in a journal file. A change that was only partly written when the miner was stopped
+     * ends the replay.
+     *
+     * @param journalFile the journal file, which may not exist.
+     * @param apply       receives the name and new data of each changed repository, in order.
+     * @return the number of changes replayed, and the length of the journal up to the end of the last of them.
+     */
+    static Replay replay(Path journalFile, BiConsumer<String, RepositoryData> apply) {
+        if (!Files.exists(journalFile))
+            return new Replay(0, 0);
+        byte[] journal;
+        try {
+            journal = Files.readAllBytes(journalFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        int replayed = 0;
+        int end = 0;
+        while (end < journal.length) {
+            int lineEnd = end;
+            while (lineEnd < journal.length && journal[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            // The writer ends every change with a newline, so a line without one was cut off.
+            if (lineEnd == journal.length) {
+                log.warn("Ignoring incomplete change at the end of {}", journalFile);
+                break;
+            }
+            String line = new String(journal, end, lineEnd - end, StandardCharsets.UTF_8);
+            if (!line.isBlank()) {
+                Change change;
+                try {
+                    change = JsonUtils.fromJson(line, Change.class);
+                } catch (IOException e) {
+                    log.warn("Ignoring incomplete change at the end of {}", journalFile);
+                    break;
+                }
+                apply.accept(change.name(), change.data());
+                replayed++;
+            }
+            end = lineEnd + 1;
+        }
+        return new Replay(replayed, end);
+    }
+
+    /**
+     * Queue a change to be written to the journal.
+     *
+     * @param operation the kind of change, e.g. "add" or "update".
+     * @param name      the name of the changed repository.
+     * @param data      the new data of the repository.
+     */
+    synchronized void append(String operation, String name, RepositoryData data) {
+        if (closed) {
+            log.warn("Change to {} made after the repository list was closed is not stored", name);
+            return;
+        }
+        pending.add(new Change(operation, name, data));
+    }
+
+    /**
+     * Request the journal to be compacted into the snapshot, without waiting for it.
+     */
+    synchronized void compact() {
+        if (!closed)
+            pending.add(new Compact());
+    }
+
+    /**
+     * Write all queued changes, write a final snapshot, and stop the writer thread.
+     */
+    @Override
+    public void close() {
+        Stop stop = new Stop(new CompletableFuture<>());
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            pending.add(stop);
+        }
+        stop.done().join();
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down.
+            }
+        }
+    }
+
+    private void writeLoop() {
+        long nextCompaction = System.nanoTime() + COMPACTION_INTERVAL.toNanos();
+        boolean dirty = written > 0;
+        while (true) {
+            List<Object> batch = new ArrayList<>();
+            try {
+                Object first = pending.poll(Math.max(0, nextCompaction - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (first != null)
+                    batch.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pending.drainTo(batch);
+
+            StringBuilder lines = new StringBuilder();
+            boolean compact = dirty && System.nanoTime() >= nextCompaction;
+            Stop stop = null;
+            for (Object item : batch) {
+                if (item instanceof Change change) {
+                    lines.append(JsonUtils.toJson(change)).append('\n');
+                } else if (item instanceof Compact) {
+                    compact = true;
+                } else if (item instanceof RemoveUpTo removeUpTo) {
+                    removeUpTo(removeUpTo.position());
+                } else if (item instanceof Stop s) {
+                    stop = s;
+                }
+            }
+            try {
+                if (!lines.isEmpty()) {
+                    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer);
+                    }
+                    channel.force(false);
+                    dirty = true;
+                }
+            } catch (IOException e) {
+                log.error("Failed to write the repository journal", e);
+            }
+            if (stop != null) {
+                writeFinalSnapshot();
+                stop.done().complete(null);
+                return;
+            }
+            if (compact) {
+                // Once the snapshot is on disk, everything written to the journal so far is part of it.
+                long position = written;
+                snapshotWriter.request(snapshot, () -> pending.add(new RemoveUpTo(position)));
+                dirty = false;
+            }
+            if (compact || System.nanoTime() >= nextCompaction)
+                nextCompaction = System.nanoTime() + COMPACTION_INTERVAL.toNanos();
+        }
+    }
+
+    /**
+     * Remove the changes before the given position from the journal file, keeping the ones written after it.
+     * The remaining changes are copied to a new file which then replaces the journal, so that the journal is
+     * intact whenever the miner is stopped.
+     */
+    private void removeUpTo(long position) {
+        long start = position - removed;
+        if (start <= 0)
+            return;
+        try {
+            Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+            try (FileChannel copy = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long remaining = channel.size() - start;
+                long copied = 0;
+                while (copied < remaining) {
+                    copied += channel.transferTo(start + copied, remaining - copied, copy);
+                }
+                copy.force(true);
+            }
+            channel.close();
+            Files.move(tempFile, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = open(journalFile);
+            removed = position;
+        } catch (IOException e) {
+            log.error("Failed to compact the repository journal", e);
+        }
+    }
+
+    private void writeFinalSnapshot() {
+        try {
+            AtomicBoolean written = new AtomicBoolean();
+            snapshotWriter.request(snapshot, () -> written.set(true));
+            snapshotWriter.close();
+            // Keep the journal if the snapshot failed, so the changes are recovered on the next start.
+            if (written.get()) {
+                channel.truncate(0);
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to close the repository journal", e);
+        }
+    }
+
+    private static FileChannel open(Path journalFile) throws IOException {
+        // Only the writer thread writes to the journal, so positioning the channel at the end is enough to append.
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return channel.position(channel.size());
+    }
+
+    /**
+     * The result of replaying a journal.
+     *
+     * @param changes the number of changes replayed.
+     * @param length  the number of bytes up to the end of the last complete change.
+     */
+    record Replay(int changes, long length) {
+    }
+
+    /**
+     * A change to a repository as stored in the journal.
+     */
+    record Change(String operation, String name, RepositoryData data) {
+    }
+
+    private record Compact() {
+    }
+
+    private record RemoveUpTo(long position) {
+    }
+
+    private record Stop(CompletableFuture<Void> done) {
+    }
+}
@@ -1,41 +1,93 @@
 package io.github.chains_project.miner;
 
-import com.fasterxml.jackson.databind.type.MapType;
 import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 
 /**
  * The RepositoryList class represents a collection of data regarding GitHub repositories.
+ * <p>
+ * The list is persisted as a snapshot, in JSON or in a compact binary format depending on its file ending,
+ * together with a {@link RepositoryJournal} of the changes made since the snapshot was written. Changes are
+ * appended to the journal as they are made, and the journal is compacted into the snapshot periodically and when
+ * the list is closed. When a list is created, any changes left in the journal by a previous run that did not shut
+ * down cleanly are replayed over the snapshot.
  */
-public class RepositoryList {
+public class RepositoryList implements AutoCloseable {
 
-    private final Map<String, RepositoryData> repos;
+    /**
+     * The default minimum time between two writes of the snapshot file.
+     */
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofSeconds(30);
+
+    private final RepositoryTable repos = new RepositoryTable();
 
     /**
      * The file that is used to persist this repository list
      */
     private final Path backingFile;
+    private final RepositoryListCodec codec;
+
+    private final RepositoryJournal journal;
+
+    /**
+     * The lock for the loading state.
+     */
+    private final Object loading = new Object();
+    private boolean loaded;
+    private RuntimeException loadFailure;
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     /**
      * Create a new RepositoryList from file.
      *
-     * @param jsonFile a path to a JSON file containing a RepositoryList in serialized form.
+     * @param jsonFile a path to a JSON or binary file containing a RepositoryList in serialized form.
      */
     public RepositoryList(Path jsonFile) {
+        this(jsonFile, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Create a new RepositoryList from file.
+     *
+     * @param jsonFile         a path to a JSON or binary file containing a RepositoryList in serialized form.
+     * @param snapshotInterval the minimum time between two writes of the file.
+     */
+    public RepositoryList(Path jsonFile, Duration snapshotInterval) {
         backingFile = jsonFile;
-        MapType jsonType = JsonUtils.getTypeFactory().constructMapType(Map.class, String.class, RepositoryData.class);
-        repos = JsonUtils.readFromFile(jsonFile, jsonType);
+        codec = RepositoryListCodec.forFile(jsonFile);
+        // The journal is small, so its changes are collected up front and applied while the snapshot is loaded.
+        Path journalFile = RepositoryJournal.journalFileFor(jsonFile);
+        Map<String, RepositoryData> recovered = new LinkedHashMap<>();
+        RepositoryJournal.Replay replay = RepositoryJournal.replay(journalFile, recovered::put);
+        int replayed = replay.changes();
+        if (replayed > 0)
+            log.info("Recovered {} changes from {}", replayed, journalFile);
+        try {
+            journal = new RepositoryJournal(journalFile, replay.length(), this::snapshot,
+                    new JsonUtils.SnapshotWriter<>(jsonFile, snapshotInterval, codec::write));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Thread loader = new Thread(() -> load(recovered), "repository-list-loader");
+        loader.setDaemon(true);
+        loader.start();
+        if (replayed > 0)
+            journal.compact();
     }
 
     public RepositoryData getRepoByName(String name) {
-        return repos.get(name);
+        return get(name);
     }
 
     public Date getRepoLastCheckedDate(String repoName) {
-        return repos.get(repoName).lastCheckedAt;
+        return get(repoName).lastCheckedAt;
     }
 
     /**
@@ -44,8 +96,14 @@ public class RepositoryList {
      * @param projectInfo the repository to add.
      */
     public void add(ProjectInfo projectInfo) {
-        repos.put(projectInfo.repository().getFullName(), new RepositoryData(projectInfo.repository().getUrl().toString(),
-                null, projectInfo.projectType(), projectInfo.lockfileExists()));
+        String name = projectInfo.repository().getFullName();
+        RepositoryData data = new RepositoryData(projectInfo.repository().getUrl().toString(),
+                null, projectInfo.projectType(), projectInfo.lockfileExists(), projectInfo.lockfilePaths());
+        // Changes are journaled while holding the lock, so the journal has the same order as the table.
+        synchronized (repos) {
+            repos.put(name, data);
+            journal.append("add", name, data);
+        }
     }
 
     /**
@@ -55,13 +113,15 @@ public class RepositoryList {
      * @return true if the repository is in the list, false otherwise.
      */
     public boolean contains(GHRepository repo) {
-        return repos.containsKey(repo.getFullName());
+        awaitLoaded();
+        return repos.contains(repo.getFullName());
     }
 
     /**
      * @return the number of items in this list.
      */
     public int size() {
+        awaitLoaded();
         return repos.size();
     }
 
@@ -69,7 +129,56 @@ public class RepositoryList {
      * @return the full names of the repositories in the list, on the form organization/project (e.g. apache/maven).
      */
     public Set<String> getRepositoryNames() {
-        return repos.keySet();
+        awaitLoaded();
+        return Collections.unmodifiableSet(repos.asMap().keySet());
+    }
+
+    /**
+     * Find the repositories matching a query using the secondary indexes of the list, which are updated as
+     * repositories are added and checked.
+     *
+     * @param query the query to answer.
+     * @return the full names of the matching repositories, in list order.
+     */
+    public List<String> query(Query query) {
+        awaitLoaded();
+        return repos.select(query);
+    }
+
+    /**
+     * Iterate over the repositories in the list while it is being loaded from file, so that they can be processed
+     * before the whole list is loaded. The iterator waits for the next repository to be loaded when needed.
+     *
+     * @return the full names of the repositories in the list, in file order followed by the repositories only
+     * found in the journal and those added while iterating.
+     */
+    public Iterator<String> iterateRepositoryNames() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                synchronized (loading) {
+                    while (next >= repos.size() && !loaded) {
+                        try {
+                            loading.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    throwIfLoadFailed();
+                    return next < repos.size();
+                }
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return repos.name(next++);
+            }
+        };
     }
 
 
@@ -79,7 +188,7 @@ public class RepositoryList {
      * if this repository is not yet checked.
      */
     public Date getCheckedTime(String repoName) {
-        Date lastCheckedTime = repos.get(repoName).lastCheckedAt;
+        Date lastCheckedTime = get(repoName).lastCheckedAt;
         return lastCheckedTime == null ? Date.from(Instant.EPOCH) : lastCheckedTime;
     }
 
@@ -88,7 +197,16 @@ public class RepositoryList {
      * @return the projectType.
      */
     public List<RepositoryFilters.ProjectType> getProjectType(String repoName) {
-        return repos.get(repoName).projectType;
+        return get(repoName).projectType;
+    }
+
+    /**
+     * @param repoName the name of the repository on the form organization/project (e.g. apache/maven).
+     * @return the paths of the lockfiles found in the repository, empty if they are not known.
+     */
+    public List<String> getLockfilePaths(String repoName) {
+        List<String> lockfilePaths = get(repoName).lockfilePaths;
+        return lockfilePaths == null ? List.of() : lockfilePaths;
     }
 
     /**
@@ -96,20 +214,127 @@ public class RepositoryList {
      * @return true or false based on the lockfile existence.
      */
     public boolean isLockfilePushed(String repoName) {
-        return repos.get(repoName).lockfileExists;
+        return get(repoName).lockfileExists;
     }
 
     /**
-     * Store this RepositoryList to a file in JSON format.
+     * Store this RepositoryList to its file. Since all changes are journaled as they are made,
+     * this is only needed to compact the journal ahead of time. The file is written in the background, and
+     * several calls within the snapshot interval result in a single write.
      */
     public void writeToFile() {
-        JsonUtils.writeToFile(backingFile, repos);
+        journal.compact();
     }
 
+    /**
+     * Write all remaining changes and store this RepositoryList to its file.
+     */
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    /**
+     * @param repo the name of the repository on the form organization/project (e.g. apache/maven).
+     * @param from the time the repository was checked for breaking updates.
+     */
     public void setCheckedTime(String repo, Date from) {
+        get(repo);
+        synchronized (repos) {
+            RepositoryData data = repos.get(repo);
+            RepositoryData updated = new RepositoryData(data.url, from, data.projectType, data.lockfileExists,
+                    data.lockfilePaths);
+            repos.put(repo, updated);
+            journal.append("update", repo, updated);
+        }
     }
 
+    /**
+     * Load the snapshot entry by entry, replacing entries with their recovered changes, followed by the
+     * repositories that were only added in the journal. Entries changed while loading are not replaced.
+     */
+    private void load(Map<String, RepositoryData> recovered) {
+        try (var entries = codec.read(backingFile)) {
+            while (entries.hasNext()) {
+                Map.Entry<String, RepositoryData> entry = entries.next();
+                RepositoryData data = recovered.remove(entry.getKey());
+                loaded(entry.getKey(), data == null ? entry.getValue() : data);
+            }
+            recovered.forEach(this::loaded);
+        } catch (RuntimeException e) {
+            loadFailure = e;
+            log.error("Failed to load " + backingFile, e);
+        } finally {
+            synchronized (loading) {
+                loaded = true;
+                loading.notifyAll();
+            }
+        }
+    }
+
+    private void loaded(String name, RepositoryData data) {
+        if (repos.putIfAbsent(name, data)) {
+            synchronized (loading) {
+                loading.notifyAll();
+            }
+        }
+    }
+
+    private void awaitLoaded() {
+        synchronized (loading) {
+            while (!loaded) {
+                try {
+                    loading.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            throwIfLoadFailed();
+        }
+    }
+
+    private void throwIfLoadFailed() {
+        if (loadFailure != null)
+            throw new RuntimeException("Failed to load " + backingFile, loadFailure);
+    }
+
+    /**
+     * Look up a repository, waiting for the list to be loaded if it has not been loaded yet.
+     */
+    private RepositoryData get(String name) {
+        RepositoryData data = repos.get(name);
+        if (data == null) {
+            awaitLoaded();
+            data = repos.get(name);
+        }
+        return data;
+    }
+
+    private Map<String, RepositoryData> snapshot() {
+        // Writing a partly loaded list would lose the repositories that are not loaded yet.
+        awaitLoaded();
+        return repos.copy().asMap();
+    }
+
+    /**
+     * A query for repositories in the list. A repository matches when it matches all given conditions.
+     *
+     * @param projectTypes    the project types of which the repository must have at least one, or null or empty
+     *                        to match all project types.
+     * @param lockfileExists  whether the repository must have a lockfile, or null to match either.
+     * @param notCheckedSince match only repositories that were never checked or were last checked before this
+     *                        time, to the second, or null to match all.
+     */
+    public record Query(Set<RepositoryFilters.ProjectType> projectTypes, Boolean lockfileExists,
+                        Date notCheckedSince) {
+    }
+
+    /**
+     * @param lockfilePaths the paths of the lockfiles found in the repository, or null for repositories found
+     *                      before the paths were recorded.
+     */
     record RepositoryData(String url, Date lastCheckedAt, java.util.List<RepositoryFilters.ProjectType> projectType,
-                          boolean lockfileExists) {
+                          boolean lockfileExists, List<String> lockfilePaths) {
     }
 }
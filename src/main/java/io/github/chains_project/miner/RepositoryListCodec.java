@@ -0,0 +1,67 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A RepositoryListCodec reads and writes the snapshot file of a {@link RepositoryList}. The codec of a file is
+ * chosen by its file ending, see {@link #forFile(Path)}.
+ */
+interface RepositoryListCodec {
+
+    /**
+     * The codec for pretty-printed JSON files, the default.
+     */
+    RepositoryListCodec JSON = new JsonRepositoryListCodec();
+
+    /**
+     * The codec for the compact binary format, see {@link BinaryRepositoryListCodec}.
+     */
+    RepositoryListCodec BINARY = new BinaryRepositoryListCodec();
+
+    /**
+     * @param file a repository list file.
+     * @return the binary codec for files ending in {@link BinaryRepositoryListCodec#FILE_ENDING}, otherwise the
+     * JSON codec.
+     */
+    static RepositoryListCodec forFile(Path file) {
+        return file.getFileName().toString().endsWith(BinaryRepositoryListCodec.FILE_ENDING) ? BINARY : JSON;
+    }
+
+    /**
+     * Read the repositories in a file one at a time. An empty file contains no repositories.
+     *
+     * @param file the file to read.
+     * @return the entries of the file in file order, which must be closed after use.
+     */
+    Entries read(Path file);
+
+    /**
+     * Write repositories to a file, atomically replacing its previous content.
+     *
+     * @param file  the file to write.
+     * @param repos the repositories to write, by full name.
+     */
+    default void write(Path file, Map<String, RepositoryData> repos) {
+        write(file, repos.entrySet().iterator());
+    }
+
+    /**
+     * Write repositories to a file as they are produced, atomically replacing its previous content.
+     *
+     * @param file    the file to write.
+     * @param entries the repositories to write, by full name, each name only once.
+     */
+    void write(Path file, Iterator<Map.Entry<String, RepositoryData>> entries);
+
+    /**
+     * The entries of a repository list file, read one at a time.
+     */
+    interface Entries extends Iterator<Map.Entry<String, RepositoryData>>, AutoCloseable {
+        @Override
+        void close();
+    }
+}
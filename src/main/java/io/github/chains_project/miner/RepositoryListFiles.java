@@ -0,0 +1,373 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * The RepositoryListFiles class provides operations on whole repository list files, such as converting, sharding
+ * and merging them, without opening them as a {@link RepositoryList}.
+ */
+public class RepositoryListFiles {
+
+    /**
+     * The maximum number of repositories held in memory per run when merging.
+     */
+    private static final int RUN_SIZE = 100_000;
+    /**
+     * The maximum number of runs merged at once.
+     */
+    static final int MAX_FAN_IN = 64;
+    private static final ProjectType[] PROJECT_TYPES = ProjectType.values();
+    private static final int HAS_URL = 1;
+    private static final int HAS_LAST_CHECKED_AT = 1 << 1;
+    private static final int HAS_PROJECT_TYPE = 1 << 2;
+    private static final int LOCKFILE_EXISTS = 1 << 3;
+    private static final int HAS_LOCKFILE_PATHS = 1 << 4;
+    private static final Logger log = LoggerFactory.getLogger(RepositoryListFiles.class);
+
+    private RepositoryListFiles() { /* Nothing to see here... */ }
+
+    /**
+     * Convert a repository list to the format given by the file ending of the output file.
+     *
+     * @param input  the repository list to convert.
+     * @param output the file to write the converted repository list to.
+     * @return the number of repositories in the list.
+     */
+    public static int convert(Path input, Path output) {
+        Map<String, RepositoryData> repos = readAll(input);
+        RepositoryListCodec.forFile(output).write(output, repos);
+        return repos.size();
+    }
+
+    /**
+     * Get the repository list of a shard, creating it from the repositories of the full list in the shard if it
+     * does not exist yet. Once created, the shard has its own list, which is updated by the runs on the shard
+     * and can be merged back with {@link #merge(List, Path, MergePolicy)}.
+     *
+     * @param file  the full repository list.
+     * @param shard the shard.
+     * @return the repository list file of the shard.
+     */
+    public static Path openShard(Path file, Shard shard) {
+        Path shardFile = shard.fileFor(file);
+        if (Files.exists(shardFile))
+            return shardFile;
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        readAll(file).forEach((name, data) -> {
+            if (shard.contains(name))
+                repos.put(name, data);
+        });
+        RepositoryListCodec.forFile(shardFile).write(shardFile, repos);
+        log.info("Created {} with the {} repositories in shard {}", shardFile, repos.size(), shard);
+        return shardFile;
+    }
+
+    /**
+     * Merge repository lists, such as the lists of all shards, into one. When a repository is in several lists,
+     * their entries are combined by the merge policy, in the order of the lists.
+     * <p>
+     * The lists are merged with an external sort, so the memory used does not depend on their size: each list is
+     * read as a stream and split into runs of at most {@link #RUN_SIZE} repositories, which are sorted by name and
+     * written to temporary files. The runs are then merged with a k-way merge, and the merged repositories are
+     * written to the output as they are produced, sorted by name. At most {@link #MAX_FAN_IN} runs are open at a
+     * time: while there are more, groups of consecutive runs are first merged into longer runs. Run files store
+     * every record with its own strings, so reading a run only holds the record at its head in memory.
+     *
+     * @param inputs the repository lists to merge.
+     * @param output the file to write the merged repository list to.
+     * @param policy the policy combining the entries of a repository found in several lists.
+     * @return the number of repositories in the merged list.
+     */
+    public static int merge(List<Path> inputs, Path output, MergePolicy policy) {
+        Path runDirectory = null;
+        try {
+            runDirectory = Files.createTempDirectory(output.toAbsolutePath().getParent(), "merge-runs");
+            List<Path> runs = new ArrayList<>();
+            for (Path input : inputs) {
+                writeSortedRuns(input, runDirectory, runs);
+            }
+            while (runs.size() > MAX_FAN_IN) {
+                runs = mergeGroups(runs, runDirectory, policy);
+            }
+            try (MergedRuns merged = new MergedRuns(runs, policy)) {
+                RepositoryListCodec.forFile(output).write(output, merged);
+                return merged.count;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (runDirectory != null)
+                deleteRuns(runDirectory);
+        }
+    }
+
+    /**
+     * Merge each group of {@link #MAX_FAN_IN} consecutive runs into one run. Since the groups keep the order of
+     * the runs, entries are still combined in the order of the lists.
+     *
+     * @return the merged runs, in order.
+     */
+    private static List<Path> mergeGroups(List<Path> runs, Path runDirectory, MergePolicy policy)
+            throws IOException {
+        List<Path> merged = new ArrayList<>();
+        for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+            List<Path> group = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            Path file = Files.createTempFile(runDirectory, "run-", ".run");
+            try (MergedRuns groupRuns = new MergedRuns(group, policy)) {
+                writeRun(file, groupRuns);
+            }
+            for (Path run : group) {
+                Files.delete(run);
+            }
+            merged.add(file);
+        }
+        log.info("Merged {} runs into {}", runs.size(), merged.size());
+        return merged;
+    }
+
+    private static void deleteRuns(Path runDirectory) {
+        try (Stream<Path> files = Files.list(runDirectory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(runDirectory);
+        } catch (IOException e) {
+            log.warn("Could not remove the temporary files in {}", runDirectory);
+        }
+    }
+
+    /**
+     * Split a repository list into sorted runs, including the changes left in its journal.
+     */
+    private static void writeSortedRuns(Path input, Path runDirectory, List<Path> runs) throws IOException {
+        Map<String, RepositoryData> journaled = new LinkedHashMap<>();
+        RepositoryJournal.replay(RepositoryJournal.journalFileFor(input), journaled::put);
+        List<Map.Entry<String, RepositoryData>> run = new ArrayList<>();
+        try (var entries = RepositoryListCodec.forFile(input).read(input)) {
+            while (entries.hasNext()) {
+                Map.Entry<String, RepositoryData> entry = entries.next();
+                RepositoryData changed = journaled.remove(entry.getKey());
+                run.add(changed == null ? entry : Map.entry(entry.getKey(), changed));
+                if (run.size() == RUN_SIZE) {
+                    runs.add(writeSortedRun(run, runDirectory));
+                    run.clear();
+                }
+            }
+        }
+        run.addAll(journaled.entrySet());
+        if (!run.isEmpty())
+            runs.add(writeSortedRun(run, runDirectory));
+    }
+
+    private static Path writeSortedRun(List<Map.Entry<String, RepositoryData>> run, Path runDirectory)
+            throws IOException {
+        run.sort(Map.Entry.comparingByKey());
+        Path file = Files.createTempFile(runDirectory, "run-", ".run");
+        writeRun(file, run.iterator());
+        return file;
+    }
+
+    /**
+     * Write a run file. Each record is preceded by a marker byte, and holds the name, a flag byte, and the fields
+     * given by the flags, with all strings inline. The run ends with a zero marker byte. Runs only live as long as
+     * the merge, so they are not synced and project types are stored by ordinal.
+     */
+    private static void writeRun(Path file, Iterator<Map.Entry<String, RepositoryData>> entries)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(JsonUtils.createBuffered(file))) {
+            while (entries.hasNext()) {
+                Map.Entry<String, RepositoryData> entry = entries.next();
+                RepositoryData data = entry.getValue();
+                out.writeBoolean(true);
+                out.writeUTF(entry.getKey());
+                out.writeByte((data.url() != null ? HAS_URL : 0)
+                        | (data.lastCheckedAt() != null ? HAS_LAST_CHECKED_AT : 0)
+                        | (data.projectType() != null ? HAS_PROJECT_TYPE : 0)
+                        | (data.lockfileExists() ? LOCKFILE_EXISTS : 0)
+                        | (data.lockfilePaths() != null ? HAS_LOCKFILE_PATHS : 0));
+                if (data.url() != null)
+                    out.writeUTF(data.url());
+                if (data.lastCheckedAt() != null)
+                    out.writeLong(data.lastCheckedAt().getTime());
+                if (data.projectType() != null) {
+                    out.writeInt(data.projectType().size());
+                    for (ProjectType type : data.projectType()) {
+                        out.writeByte(type.ordinal());
+                    }
+                }
+                if (data.lockfilePaths() != null) {
+                    out.writeInt(data.lockfilePaths().size());
+                    for (String path : data.lockfilePaths()) {
+                        out.writeUTF(path);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        }
+    }
+
+    /**
+     * Read a whole repository list, including the changes a run that did not shut down cleanly left in its
+     * journal.
+     */
+    private static Map<String, RepositoryData> readAll(Path file) {
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        try (var entries = RepositoryListCodec.forFile(file).read(file)) {
+            entries.forEachRemaining(entry -> repos.put(entry.getKey(), entry.getValue()));
+        }
+        RepositoryJournal.replay(RepositoryJournal.journalFileFor(file), repos::put);
+        return repos;
+    }
+
+    /**
+     * The MergedRuns merge sorted runs into one sorted sequence, combining the entries of repositories found in
+     * several runs.
+     */
+    private static class MergedRuns implements Iterator<Map.Entry<String, RepositoryData>>, AutoCloseable {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<Run> heads = new PriorityQueue<>(
+                Comparator.comparing((Run run) -> run.head.getKey()).thenComparingInt(run -> run.index));
+        private final MergePolicy policy;
+        private int count;
+
+        MergedRuns(List<Path> runs, MergePolicy policy) throws IOException {
+            this.policy = policy;
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader entries = new RunReader(runs.get(i));
+                    readers.add(entries);
+                    advance(new Run(i, entries));
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, RepositoryData> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Run first = heads.poll();
+            String name = first.head.getKey();
+            RepositoryData data = first.head.getValue();
+            advance(first);
+            while (!heads.isEmpty() && heads.peek().head.getKey().equals(name)) {
+                Run run = heads.poll();
+                data = policy.apply(data, run.head.getValue());
+                advance(run);
+            }
+            count++;
+            return Map.entry(name, data);
+        }
+
+        private void advance(Run run) {
+            if (run.entries.hasNext()) {
+                run.head = run.entries.next();
+                heads.add(run);
+            }
+        }
+
+        @Override
+        public void close() {
+            readers.forEach(RunReader::close);
+        }
+    }
+
+    /**
+     * Reads the records of a run file one at a time, see {@link #writeRun(Path, Iterator)}.
+     */
+    private static class RunReader implements RepositoryListCodec.Entries {
+        private final DataInputStream in;
+        private boolean hasNext;
+
+        RunReader(Path file) throws IOException {
+            in = new DataInputStream(JsonUtils.openBuffered(file));
+            hasNext = in.readBoolean();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public Map.Entry<String, RepositoryData> next() {
+            if (!hasNext)
+                throw new NoSuchElementException();
+            try {
+                String name = in.readUTF();
+                int flags = in.readUnsignedByte();
+                String url = (flags & HAS_URL) != 0 ? in.readUTF() : null;
+                Date lastCheckedAt = (flags & HAS_LAST_CHECKED_AT) != 0 ? new Date(in.readLong()) : null;
+                List<ProjectType> projectType = null;
+                if ((flags & HAS_PROJECT_TYPE) != 0) {
+                    projectType = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        projectType.add(PROJECT_TYPES[in.readUnsignedByte()]);
+                    }
+                }
+                List<String> lockfilePaths = null;
+                if ((flags & HAS_LOCKFILE_PATHS) != 0) {
+                    lockfilePaths = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        lockfilePaths.add(in.readUTF());
+                    }
+                }
+                hasNext = in.readBoolean();
+                return Map.entry(name, new RepositoryData(url, lastCheckedAt, projectType,
+                        (flags & LOCKFILE_EXISTS) != 0, lockfilePaths));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class Run {
+        private final int index;
+        private final RunReader entries;
+        private Map.Entry<String, RepositoryData> head;
+
+        Run(int index, RunReader entries) {
+            this.index = index;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.github.chains_project.miner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The RepositoryMetadataProbe provides the number of commits, the number of contributors, and the date of the
+ * last commit of a repository without paginating through the full lists.
+ * <p>
+ * Each list is requested with a page size of one, so the number of the last page given in the Link header of
+ * the response is the number of items in the list, and the single item on the page is the most recent one.
+ * The results are memoized per repository so that all {@link RepositoryFilters} share the same requests.
+ */
+public class RepositoryMetadataProbe {
+    private static final Pattern LAST_PAGE = Pattern.compile("[?&]page=(\\d+)[^>]*>;\\s*rel=\"last\"");
+    private static final Map<String, CompletableFuture<CommitSummary>> commitCache = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<Integer>> contributorCache = new ConcurrentHashMap<>();
+    private static OkHttpClient httpClient;
+    private static GitHubAPITokenQueue tokenQueue;
+
+    private RepositoryMetadataProbe() { /* Nothing to see here... */ }
+
+    /**
+     * Initialize the metadata probe.
+     *
+     * @param httpClient the {@link okhttp3.OkHttpClient} to use for the connection to GitHub.
+     * @param tokenQueue the {@link GitHubAPITokenQueue} providing the API tokens to use for the connection.
+     */
+    public static void initialize(OkHttpClient httpClient, GitHubAPITokenQueue tokenQueue) {
+        RepositoryMetadataProbe.httpClient = httpClient;
+        RepositoryMetadataProbe.tokenQueue = tokenQueue;
+    }
+
+    /**
+     * @param repository the repository to probe.
+     * @return the number of commits on the default branch of the repository.
+     * @throws IOException if there is an error communicating with the GitHub servers.
+     */
+    public static int getCommitCount(GHRepository repository) throws IOException {
+        return getCommitSummary(repository).count();
+    }
+
+    /**
+     * @param repository the repository to probe.
+     * @return the commit date of the last commit on the default branch, or null if the repository has no commits.
+     * @throws IOException if there is an error communicating with the GitHub servers.
+     */
+    public static Date getLastCommitDate(GHRepository repository) throws IOException {
+        return getCommitSummary(repository).lastCommitDate();
+    }
+
+    /**
+     * @param repository the repository to probe.
+     * @return the number of contributors to the repository.
+     * @throws IOException if there is an error communicating with the GitHub servers.
+     */
+    public static int getContributorCount(GHRepository repository) throws IOException {
+        return memoize(contributorCache, repository, RepositoryMetadataProbe::fetchContributorCount);
+    }
+
+    /**
+     * Remove the memoized results for a repository that will not be checked again.
+     *
+     * @param repository the repository to forget.
+     */
+    public static void forget(GHRepository repository) {
+        commitCache.remove(repository.getFullName());
+        contributorCache.remove(repository.getFullName());
+    }
+
+    private static CommitSummary getCommitSummary(GHRepository repository) throws IOException {
+        return memoize(commitCache, repository, RepositoryMetadataProbe::fetchCommitSummary);
+    }
+
+    /**
+     * Fetch a result once per repository. The request is made on the thread that asks first, outside the map, and
+     * other threads asking meanwhile wait for its result. A failed request is not remembered, so that it is made
+     * again when the repository is checked again.
+     */
+    private static <T> T memoize(Map<String, CompletableFuture<T>> cache, GHRepository repository, Probe<T> probe)
+            throws IOException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> existing = cache.putIfAbsent(repository.getFullName(), result);
+        if (existing == null) {
+            try {
+                result.complete(probe.fetch(repository));
+            } catch (IOException | RuntimeException e) {
+                cache.remove(repository.getFullName(), result);
+                result.completeExceptionally(e);
+                throw e;
+            }
+            return result.join();
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while probing " + repository.getFullName());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static CommitSummary fetchCommitSummary(GHRepository repository) throws IOException {
+        try (Response response = requestFirstItem(repository, "commits")) {
+            // GitHub answers with 409 Conflict when listing the commits of an empty repository.
+            if (response.code() == HttpURLConnection.HTTP_CONFLICT)
+                return new CommitSummary(0, null);
+            JsonArray commits = readPage(repository, response);
+            if (commits.isEmpty())
+                return new CommitSummary(0, null);
+            String commitDate = commits.get(0).getAsJsonObject().getAsJsonObject("commit")
+                    .getAsJsonObject("committer").get("date").getAsString();
+            return new CommitSummary(countItems(response, commits), Date.from(Instant.parse(commitDate)));
+        }
+    }
+
+    private static int fetchContributorCount(GHRepository repository) throws IOException {
+        try (Response response = requestFirstItem(repository, "contributors")) {
+            // GitHub answers with 204 No Content when listing the contributors of an empty repository.
+            if (response.code() == HttpURLConnection.HTTP_NO_CONTENT)
+                return 0;
+            return countItems(response, readPage(repository, response));
+        }
+    }
+
+    private static Response requestFirstItem(GHRepository repository, String list) throws IOException {
+        if (httpClient == null || tokenQueue == null)
+            throw new IllegalStateException("RepositoryMetadataProbe has not been initialized");
+        Call request = httpClient.newCall(new Request.Builder()
+                .get()
+                .url(repository.getUrl() + "/" + list + "?per_page=1")
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", "bearer " + tokenQueue.nextToken())
+                .build());
+        return request.execute();
+    }
+
+    private static JsonArray readPage(GHRepository repository, Response response) throws IOException {
+        TokenUnavailableException.throwIfRateLimited(response.code(), response::header,
+                "Probing repository " + repository.getFullName());
+        if (response.code() != HttpURLConnection.HTTP_OK)
+            throw new IOException("Failed to probe repository " + repository.getFullName() +
+                    ". Status code: " + response.code());
+        return JsonParser.parseReader(Objects.requireNonNull(response.body()).charStream()).getAsJsonArray();
+    }
+
+    /**
+     * With a page size of one, the number of the last page is the number of items. If there is no last page,
+     * all items fit on the first one.
+     */
+    private static int countItems(Response response, JsonArray firstPage) {
+        String link = response.header("Link");
+        if (link != null) {
+            Matcher lastPage = LAST_PAGE.matcher(link);
+            if (lastPage.find())
+                return Integer.parseInt(lastPage.group(1));
+        }
+        return firstPage.size();
+    }
+
+    @FunctionalInterface
+    private interface Probe<T> {
+        T fetch(GHRepository repository) throws IOException;
+    }
+
+    private record CommitSummary(int count, Date lastCommitDate) {
+    }
+}
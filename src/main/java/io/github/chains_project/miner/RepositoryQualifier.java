@@ -0,0 +1,240 @@
+package io.github.chains_project.miner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.github.chains_project.miner.GitHubMiner.RepositorySearchConfig;
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The RepositoryQualifier checks whether repositories fulfill the search criteria using batched GraphQL queries.
+ * <p>
+ * The REST based {@link RepositoryFilters} need several requests per repository: the commit history is listed
+ * twice, and the tree of the default branch is fetched to look for lockfiles. A single GraphQL query instead
+ * fetches the size of the commit history, the date of the last commit, and the presence of the manifests and
+ * lockfiles of the ecosystems in the search configuration, see {@link LockfileSignatures#fileNames}, for a whole
+ * batch of repositories. GraphQL does not expose the number
+ * of contributors, so that check is still made over REST, but only for the repositories passing the other checks.
+ */
+public class RepositoryQualifier {
+
+    /**
+     * The number of repositories checked in each GraphQL query.
+     */
+    public static final int BATCH_SIZE = 50;
+    /**
+     * The number of times a rate limited batch is queried again right away, each time with another API token,
+     * before waiting until the token it was last rate limited on can be used again.
+     */
+    private static final int ATTEMPTS_BEFORE_WAITING = 3;
+    private static final Logger log = LoggerFactory.getLogger(RepositoryQualifier.class);
+    private final GraphQLTransport transport;
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder qualifiedCount = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder apiCalls = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * @param transport the {@link GraphQLTransport} used to send the queries.
+     */
+    public RepositoryQualifier(GraphQLTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Check which of the given repositories fulfill the search criteria, and identify their project type.
+     *
+     * @param repositories the repositories to check.
+     * @param searchConfig      a {@link RepositorySearchConfig} specifying the repositories to look for.
+     * @param recursiveTreeScan whether the project type is identified from all files of a repository, using the
+     *                          {@link RepositoryTreeScanner}, instead of only the files in its root.
+     * @return the project info of the repositories that fulfill the search criteria and have a known project type,
+     * as given by {@link RepositoryFilters#identifyProjectTypeAndLockfile(GHRepository, Collection)}.
+     */
+    public List<ProjectInfo> qualify(List<GHRepository> repositories, RepositorySearchConfig searchConfig,
+                                     boolean recursiveTreeScan) {
+        long start = System.nanoTime();
+        long calls = ApiCallCounter.current();
+        List<String> projectFiles = LockfileSignatures.fileNames(searchConfig.ecosystems());
+        String fragment = buildFragment(projectFiles);
+        List<ProjectInfo> qualified = new ArrayList<>();
+        for (int from = 0; from < repositories.size(); from += BATCH_SIZE) {
+            batches.increment();
+            List<GHRepository> batch = repositories.subList(from, Math.min(from + BATCH_SIZE, repositories.size()));
+            try {
+                JsonObject data = queryBatchWithRetries(batch, fragment);
+                for (int i = 0; i < batch.size(); i++) {
+                    JsonElement repositoryData = data.get("r" + i);
+                    if (repositoryData == null || repositoryData.isJsonNull()) {
+                        log.warn("  No GraphQL data for repository {}", batch.get(i).getFullName());
+                        continue;
+                    }
+                    try {
+                        ProjectInfo projectInfo = qualifyWhenAvailable(batch.get(i), repositoryData.getAsJsonObject(),
+                                searchConfig, projectFiles, recursiveTreeScan);
+                        if (projectInfo != null)
+                            qualified.add(projectInfo);
+                    } catch (RuntimeException e) {
+                        // The repository is not lost when waiting for a token was interrupted, the caller searches
+                        // for it again.
+                        if (TokenUnavailableException.causeOf(e) != null)
+                            throw e;
+                        log.error("  Error while checking repository " + batch.get(i).getFullName(), e);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("  Error while checking a batch of {} repositories", batch.size(), e);
+            }
+        }
+        checked.add(repositories.size());
+        qualifiedCount.add(qualified.size());
+        apiCalls.add(ApiCallCounter.current() - calls);
+        nanos.add(System.nanoTime() - start);
+        return qualified;
+    }
+
+    /**
+     * Log the number of repositories checked and qualified so far, and the API calls and time spent on them,
+     * including the REST requests made for the contributor counts and project types.
+     */
+    public void logStatistics() {
+        long repositories = checked.sum();
+        long qualifiedRepositories = qualifiedCount.sum();
+        log.info("  Qualifier: checked {} in {} batches, qualified {} ({}%), {} API calls, {} ms average",
+                repositories, batches.sum(), qualifiedRepositories,
+                repositories == 0 ? 0 : 100 * qualifiedRepositories / repositories, apiCalls.sum(),
+                repositories == 0 ? 0 : nanos.sum() / repositories / 1_000_000);
+    }
+
+    /**
+     * Query a batch, querying it again when the token used is rate limited. The transport picks another token for
+     * every query. When all tokens tried are rate limited, which happens with secondary rate limits since those
+     * apply to the whole account, wait until the last one can be used again instead of giving up on the batch.
+     */
+    private JsonObject queryBatchWithRetries(List<GHRepository> batch, String fragment) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return queryBatch(batch, fragment);
+            } catch (TokenUnavailableException e) {
+                log.info("  Checking a batch of {} repositories again: {}", batch.size(), e.getMessage());
+                if (attempt % ATTEMPTS_BEFORE_WAITING == 0)
+                    awaitAvailability(e);
+            }
+        }
+    }
+
+    /**
+     * Check a repository, checking it again once its token can be used again if the REST requests the check
+     * makes are rate limited.
+     */
+    private ProjectInfo qualifyWhenAvailable(GHRepository repository, JsonObject data,
+                                             RepositorySearchConfig searchConfig, List<String> projectFiles,
+                                             boolean recursiveTreeScan) {
+        while (true) {
+            try {
+                return qualify(repository, data, searchConfig, projectFiles, recursiveTreeScan);
+            } catch (RuntimeException e) {
+                TokenUnavailableException unavailable = TokenUnavailableException.causeOf(e);
+                if (unavailable == null)
+                    throw e;
+                log.info("  Checking repository {} again: {}", repository.getFullName(), unavailable.getMessage());
+                RepositoryMetadataProbe.forget(repository);
+                awaitAvailability(unavailable);
+            }
+        }
+    }
+
+    /**
+     * Wait until a token that was rate limited can be used again.
+     *
+     * @throws TokenUnavailableException the given exception, if the wait is interrupted.
+     */
+    private static void awaitAvailability(TokenUnavailableException unavailable) {
+        long delay = unavailable.getAvailableAt().getTime() - System.currentTimeMillis();
+        if (delay <= 0)
+            return;
+        log.info("  Waiting {}s for the API tokens to be available again", delay / 1000);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unavailable;
+        }
+    }
+
+    private JsonObject queryBatch(List<GHRepository> batch, String fragment) throws IOException {
+        StringBuilder query = new StringBuilder("query {\n");
+        for (int i = 0; i < batch.size(); i++) {
+            GHRepository repository = batch.get(i);
+            query.append("  r").append(i).append(": repository(owner: ")
+                    .append(GraphQLTransport.quote(repository.getOwnerName()))
+                    .append(", name: ").append(GraphQLTransport.quote(repository.getName()))
+                    .append(") { ...Qualification }\n");
+        }
+        query.append("}\n").append(fragment);
+
+        JsonObject response = transport.execute(query.toString());
+        JsonElement errors = response.get("errors");
+        if (errors != null && !errors.isJsonNull())
+            log.warn("  GraphQL query returned errors: {}", errors);
+        JsonElement data = response.get("data");
+        if ((data == null || data.isJsonNull()) && GraphQLTransport.isRateLimited(errors))
+            // The transport fails with the reset time from the response, so this only happens with transports that
+            // do not see it, which are asked to wait for the default time.
+            throw new TokenUnavailableException("GraphQL query was rate limited",
+                    TokenUnavailableException.retryAt(header -> null));
+        if (data == null || data.isJsonNull())
+            throw new IOException("GraphQL query returned no data");
+        return data.getAsJsonObject();
+    }
+
+    private ProjectInfo qualify(GHRepository repository, JsonObject data, RepositorySearchConfig searchConfig,
+                                List<String> projectFiles, boolean recursiveTreeScan) {
+        JsonElement defaultBranch = data.get("defaultBranchRef");
+        if (defaultBranch == null || defaultBranch.isJsonNull())
+            return null;
+        JsonObject history = defaultBranch.getAsJsonObject().getAsJsonObject("target").getAsJsonObject("history");
+        JsonArray lastCommit = history.getAsJsonArray("nodes");
+        if (history.get("totalCount").getAsInt() < searchConfig.minNumberOfCommits() || lastCommit.isEmpty())
+            return null;
+        Date lastCommitDate = Date.from(Instant.parse(
+                lastCommit.get(0).getAsJsonObject().get("committedDate").getAsString()));
+        if (!RepositoryFilters.isWithinThreeMonths(lastCommitDate) ||
+                !RepositoryFilters.hasSufficientNumberOfContributors(repository, searchConfig.minNumberOfContributors()))
+            return null;
+        if (recursiveTreeScan)
+            return RepositoryFilters.identifyProjectTypeAndLockfileRecursively(repository,
+                    searchConfig.ecosystems());
+
+        List<String> presentFiles = new ArrayList<>();
+        for (int i = 0; i < projectFiles.size(); i++) {
+            JsonElement file = data.get("f" + i);
+            if (file != null && !file.isJsonNull())
+                presentFiles.add(projectFiles.get(i));
+        }
+        return RepositoryFilters.identifyProjectTypeAndLockfile(repository, presentFiles, searchConfig.ecosystems());
+    }
+
+    private static String buildFragment(List<String> projectFiles) {
+        StringBuilder fragment = new StringBuilder("fragment Qualification on Repository {\n")
+                .append("  defaultBranchRef { target { ... on Commit { ")
+                .append("history(first: 1) { totalCount nodes { committedDate } } } } }\n");
+        for (int i = 0; i < projectFiles.size(); i++) {
+            fragment.append("  f").append(i).append(": object(expression: ")
+                    .append(GraphQLTransport.quote("HEAD:" + projectFiles.get(i)))
+                    .append(") { __typename }\n");
+        }
+        return fragment.append("}\n").toString();
+    }
+}
@@ -0,0 +1,357 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The RepositoryTable holds the repositories of a {@link RepositoryList} in a compact column layout, so that
+ * lists of millions of repositories fit in memory.
+ * <p>
+ * Each repository is a row. The names of all repositories are stored as UTF-8 in a single byte arena and found
+ * through an open-addressing hash table of row numbers. Check times are primitive epoch milliseconds and project
+ * types a bitmask of {@link ProjectType} ordinals. The API URL of a repository is derived from its name, and only
+ * URLs that differ from it, or project type lists that are not in enum order, are kept in side tables. Repositories
+ * with the same lockfile paths share them. {@link RepositoryData} objects are only created when a repository is
+ * read. Rows are never removed. The table keeps a {@link RepositoryIndex} up to date for {@link #select}.
+ * <p>
+ * All methods are synchronized on the table.
+ */
+class RepositoryTable {
+    private static final String API_URL_PREFIX = "https://api.github.com/repos/";
+    private static final ProjectType[] PROJECT_TYPES = ProjectType.values();
+    /**
+     * The check time of repositories that were never checked.
+     */
+    static final long NOT_CHECKED = Long.MIN_VALUE;
+    private static final byte HAS_PROJECT_TYPE = 1;
+    private static final byte LOCKFILE_EXISTS = 1 << 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] nameArena;
+    private int arenaSize;
+    /**
+     * The start of the name of each row in the arena, followed by the end of the last name.
+     */
+    private int[] nameStarts;
+    private int[] hashes;
+    private long[] lastCheckedAt;
+    private int[] projectTypes;
+    private byte[] flags;
+    private String[][] lockfilePaths;
+    /**
+     * The row number plus one of each used slot of the hash table, or zero for free slots.
+     */
+    private int[] slots;
+    private int size;
+    private final Map<Integer, String> urls;
+    private final Map<Integer, List<ProjectType>> orderedProjectTypes;
+    /**
+     * The lockfile path arrays in use, shared by all repositories with the same lockfile paths.
+     */
+    private final Map<List<String>, String[]> pathPool;
+    private final RepositoryIndex index;
+
+    RepositoryTable() {
+        nameArena = new byte[INITIAL_CAPACITY * 32];
+        nameStarts = new int[INITIAL_CAPACITY + 1];
+        hashes = new int[INITIAL_CAPACITY];
+        lastCheckedAt = new long[INITIAL_CAPACITY];
+        projectTypes = new int[INITIAL_CAPACITY];
+        flags = new byte[INITIAL_CAPACITY];
+        lockfilePaths = new String[INITIAL_CAPACITY][];
+        slots = new int[INITIAL_CAPACITY * 2];
+        urls = new HashMap<>();
+        orderedProjectTypes = new HashMap<>();
+        pathPool = new HashMap<>();
+        index = new RepositoryIndex();
+    }
+
+    private RepositoryTable(RepositoryTable other) {
+        nameArena = Arrays.copyOf(other.nameArena, other.arenaSize);
+        arenaSize = other.arenaSize;
+        nameStarts = Arrays.copyOf(other.nameStarts, other.size + 1);
+        hashes = Arrays.copyOf(other.hashes, other.size);
+        lastCheckedAt = Arrays.copyOf(other.lastCheckedAt, other.size);
+        projectTypes = Arrays.copyOf(other.projectTypes, other.size);
+        flags = Arrays.copyOf(other.flags, other.size);
+        lockfilePaths = Arrays.copyOf(other.lockfilePaths, other.size);
+        slots = other.slots.clone();
+        size = other.size;
+        urls = new HashMap<>(other.urls);
+        orderedProjectTypes = new HashMap<>(other.orderedProjectTypes);
+        pathPool = new HashMap<>();
+        index = null;
+    }
+
+    /**
+     * @return a copy of this table that is not affected by later changes to it. The copy has no index and
+     * cannot be queried.
+     */
+    synchronized RepositoryTable copy() {
+        return new RepositoryTable(this);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean contains(String name) {
+        return find(name.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    /**
+     * @param name the full name of a repository.
+     * @return the data of the repository, or null if it is not in the table.
+     */
+    synchronized RepositoryData get(String name) {
+        int row = find(name.getBytes(StandardCharsets.UTF_8));
+        return row < 0 ? null : data(row);
+    }
+
+    /**
+     * @param row a row of the table.
+     * @return the full name of the repository in the row.
+     */
+    synchronized String name(int row) {
+        Objects.checkIndex(row, size);
+        return new String(nameArena, nameStarts[row], nameStarts[row + 1] - nameStarts[row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param row a row of the table.
+     * @return the data of the repository in the row.
+     */
+    synchronized RepositoryData data(int row) {
+        Objects.checkIndex(row, size);
+        String url = urls.get(row);
+        if (url == null)
+            url = API_URL_PREFIX + name(row);
+        Date checked = lastCheckedAt[row] == NOT_CHECKED ? null : new Date(lastCheckedAt[row]);
+        List<ProjectType> types = null;
+        if ((flags[row] & HAS_PROJECT_TYPE) != 0) {
+            types = orderedProjectTypes.get(row);
+            if (types == null)
+                types = fromMask(projectTypes[row]);
+        }
+        List<String> paths = lockfilePaths[row] == null ? null : List.of(lockfilePaths[row]);
+        return new RepositoryData(url, checked, types, (flags[row] & LOCKFILE_EXISTS) != 0, paths);
+    }
+
+    /**
+     * Add a repository, or replace the data of a repository already in the table.
+     */
+    synchronized void put(String name, RepositoryData data) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int row = find(key);
+        if (row >= 0)
+            set(row, name, data, true);
+        else
+            set(insert(key, -row - 1), name, data, false);
+    }
+
+    /**
+     * Add a repository if it is not in the table yet.
+     *
+     * @return true if the repository was added.
+     */
+    synchronized boolean putIfAbsent(String name, RepositoryData data) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int row = find(key);
+        if (row >= 0)
+            return false;
+        set(insert(key, -row - 1), name, data, false);
+        return true;
+    }
+
+    /**
+     * @param query the query to answer.
+     * @return the full names of the repositories matching the query, in row order.
+     */
+    synchronized List<String> select(RepositoryList.Query query) {
+        if (index == null)
+            throw new IllegalStateException("Copies of a repository table cannot be queried");
+        BitSet rows = index.select(query, size);
+        List<String> names = new ArrayList<>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            names.add(name(row));
+        }
+        return names;
+    }
+
+    /**
+     * @return a read-only map view of the table, in row order. Entries are created as they are iterated.
+     */
+    Map<String, RepositoryData> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public Set<Entry<String, RepositoryData>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, RepositoryData>> iterator() {
+                        return new Iterator<>() {
+                            private int next;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < RepositoryTable.this.size();
+                            }
+
+                            @Override
+                            public Entry<String, RepositoryData> next() {
+                                if (!hasNext())
+                                    throw new NoSuchElementException();
+                                int row = next++;
+                                return Map.entry(name(row), data(row));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return RepositoryTable.this.size();
+                    }
+                };
+            }
+
+            @Override
+            public RepositoryData get(Object key) {
+                return key instanceof String name ? RepositoryTable.this.get(name) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String name && contains(name);
+            }
+
+            @Override
+            public int size() {
+                return RepositoryTable.this.size();
+            }
+        };
+    }
+
+    private void set(int row, String name, RepositoryData data, boolean replace) {
+        if (replace)
+            index.remove(row, projectTypes[row], (flags[row] & LOCKFILE_EXISTS) != 0, lastCheckedAt[row]);
+        if (data.url() != null && data.url().equals(API_URL_PREFIX + name))
+            urls.remove(row);
+        else
+            urls.put(row, data.url());
+        lastCheckedAt[row] = data.lastCheckedAt() == null ? NOT_CHECKED : data.lastCheckedAt().getTime();
+        byte rowFlags = data.lockfileExists() ? LOCKFILE_EXISTS : 0;
+        projectTypes[row] = 0;
+        orderedProjectTypes.remove(row);
+        if (data.projectType() != null) {
+            rowFlags |= HAS_PROJECT_TYPE;
+            int mask = toMask(data.projectType());
+            projectTypes[row] = mask;
+            // The mask only keeps the types in enum order, without duplicates.
+            if (!fromMask(mask).equals(data.projectType()))
+                orderedProjectTypes.put(row, List.copyOf(data.projectType()));
+        }
+        flags[row] = rowFlags;
+        if (data.lockfilePaths() == null) {
+            lockfilePaths[row] = null;
+        } else {
+            lockfilePaths[row] = pathPool.computeIfAbsent(List.copyOf(data.lockfilePaths()),
+                    paths -> paths.toArray(new String[0]));
+        }
+        index.add(row, projectTypes[row], data.lockfileExists(), lastCheckedAt[row]);
+    }
+
+    /**
+     * @return the row of the name, or minus one minus the free slot where it should be inserted.
+     */
+    private int find(byte[] key) {
+        int hash = hash(key);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            if (slots[slot] == 0)
+                return -slot - 1;
+            int row = slots[slot] - 1;
+            if (hashes[row] == hash && nameEquals(row, key))
+                return row;
+        }
+    }
+
+    private int insert(byte[] key, int slot) {
+        if (size == hashes.length)
+            growRows();
+        if (arenaSize + key.length > nameArena.length)
+            nameArena = Arrays.copyOf(nameArena, Math.max(nameArena.length * 2, arenaSize + key.length));
+        int row = size++;
+        System.arraycopy(key, 0, nameArena, arenaSize, key.length);
+        nameStarts[row] = arenaSize;
+        arenaSize += key.length;
+        nameStarts[row + 1] = arenaSize;
+        hashes[row] = hash(key);
+        slots[slot] = row + 1;
+        // Keep the hash table at most half full.
+        if (size * 2 > slots.length)
+            rehash();
+        return row;
+    }
+
+    private void growRows() {
+        int capacity = hashes.length * 2;
+        nameStarts = Arrays.copyOf(nameStarts, capacity + 1);
+        hashes = Arrays.copyOf(hashes, capacity);
+        lastCheckedAt = Arrays.copyOf(lastCheckedAt, capacity);
+        projectTypes = Arrays.copyOf(projectTypes, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        lockfilePaths = Arrays.copyOf(lockfilePaths, capacity);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hashes[row] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+
+    private boolean nameEquals(int row, byte[] key) {
+        return Arrays.equals(nameArena, nameStarts[row], nameStarts[row + 1], key, 0, key.length);
+    }
+
+    private static int hash(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int toMask(List<ProjectType> types) {
+        int mask = 0;
+        for (ProjectType type : types) {
+            mask |= 1 << type.ordinal();
+        }
+        return mask;
+    }
+
+    private static List<ProjectType> fromMask(int mask) {
+        List<ProjectType> types = new ArrayList<>(Integer.bitCount(mask));
+        for (ProjectType type : PROJECT_TYPES) {
+            if ((mask & (1 << type.ordinal())) != 0)
+                types.add(type);
+        }
+        return types;
+    }
+}
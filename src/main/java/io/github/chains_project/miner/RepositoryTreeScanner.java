@@ -0,0 +1,258 @@
+package io.github.chains_project.miner;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The RepositoryTreeScanner identifies the project type of a repository from all files on its default branch,
+ * not only the files in its root, so that lockfiles in monorepo packages are found as well.
+ * <p>
+ * The tree is requested from the recursive trees API and the response is parsed as a stream, keeping only the
+ * paths of files with a known {@link LockfileSignatures} role, so trees with hundreds of thousands of entries
+ * are never held in memory. Files in node_modules directories are vendored dependencies and are ignored. Lockfiles
+ * only count in a project root, i.e. next to a manifest of their ecosystem.
+ * When GitHub truncates the recursive listing of a tree, the scanner lists the direct children of the tree
+ * instead and scans its sub-trees in parallel, each of them recursively.
+ */
+public class RepositoryTreeScanner {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ForkJoinPool subtreePool = new ForkJoinPool(8);
+    private static final Set<String> IGNORED_DIRECTORIES = Set.of("node_modules");
+    private static OkHttpClient httpClient;
+    private static GitHubAPITokenQueue tokenQueue;
+
+    private RepositoryTreeScanner() { /* Nothing to see here... */ }
+
+    /**
+     * Initialize the tree scanner.
+     *
+     * @param httpClient the {@link okhttp3.OkHttpClient} to use for the connection to GitHub.
+     * @param tokenQueue the {@link GitHubAPITokenQueue} providing the API tokens to use for the connection.
+     */
+    public static void initialize(OkHttpClient httpClient, GitHubAPITokenQueue tokenQueue) {
+        RepositoryTreeScanner.httpClient = httpClient;
+        RepositoryTreeScanner.tokenQueue = tokenQueue;
+    }
+
+    /**
+     * Identifies the type of project and checks for the existence of lockfiles anywhere on the default branch
+     * of the repository.
+     *
+     * @param repository the repository to scan.
+     * @param ecosystems the ecosystems to look for, the project files of other ecosystems are ignored.
+     * @return a ProjectInfo object containing the identified ProjectType, whether a lockfile exists, and the paths
+     * of the lockfiles found, or null if the project type is unknown.
+     * @throws IOException if there is an error communicating with the GitHub servers.
+     */
+    public static ProjectInfo scan(GHRepository repository, Collection<ProjectType> ecosystems) throws IOException {
+        // The common case of a complete recursive listing is handled on the calling thread. The sub-tree scans run
+        // as part of the check of the calling thread, so the QualificationPipeline can cancel their requests too.
+        Queue<String> matches = new ConcurrentLinkedQueue<>();
+        if (list(repository, repository.getDefaultBranch(), "", true, matches).truncated) {
+            matches.clear();
+            Listing root = list(repository, repository.getDefaultBranch(), "", false, matches);
+            List<SubtreeScan> subtreeScans = new ArrayList<>();
+            for (Subtree subtree : root.subtrees) {
+                subtreeScans.add(new SubtreeScan(repository, subtree.sha(), subtree.prefix(), matches));
+            }
+            try {
+                subtreePool.invoke(new SubtreeScans(subtreeScans));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        LockfileSignatures.Scan scan = new LockfileSignatures.Scan(ecosystems);
+        projectFiles(matches).forEach(scan::accept);
+        return scan.toProjectInfo(repository);
+    }
+
+    /**
+     * Keep the manifests, and the lockfiles in the same directory as a manifest of their ecosystem.
+     *
+     * @param matches the paths of the files with a known role.
+     * @return the paths of the files that belong to a project root.
+     */
+    static List<String> projectFiles(Collection<String> matches) {
+        Set<String> projectRoots = new HashSet<>();
+        for (String path : matches) {
+            LockfileSignatures.Signature signature = LockfileSignatures.match(path);
+            if (signature.role() == LockfileSignatures.Role.MANIFEST)
+                projectRoots.add(signature.ecosystem() + ":" + directory(path));
+        }
+        return matches.stream()
+                .filter(path -> projectRoots.contains(LockfileSignatures.match(path).ecosystem() + ":" +
+                        directory(path)))
+                .toList();
+    }
+
+    private static String directory(String path) {
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * List a tree, adding the paths of the files with a known role to the matches.
+     *
+     * @return the listing of the tree, with the sub-trees found if the tree was not listed recursively.
+     */
+    private static Listing list(GHRepository repository, String treeish, String prefix, boolean recursive,
+                                Queue<String> matches) throws IOException {
+        if (httpClient == null || tokenQueue == null)
+            throw new IllegalStateException("RepositoryTreeScanner has not been initialized");
+        Call request = httpClient.newCall(new Request.Builder()
+                .get()
+                .url(repository.getUrl() + "/git/trees/" + treeish + (recursive ? "?recursive=1" : ""))
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", "bearer " + tokenQueue.nextToken())
+                .build());
+        try (var response = request.execute()) {
+            TokenUnavailableException.throwIfRateLimited(response.code(), response::header,
+                    "Listing tree " + treeish + " of " + repository.getFullName());
+            if (response.code() != HttpURLConnection.HTTP_OK)
+                throw new IOException("Failed to get tree " + treeish + " of " + repository.getFullName() +
+                        ". Status code: " + response.code());
+            try (JsonParser parser = jsonFactory.createParser(Objects.requireNonNull(response.body()).byteStream())) {
+                return readListing(parser, prefix, recursive, matches);
+            }
+        }
+    }
+
+    private static Listing readListing(JsonParser parser, String prefix, boolean recursive, Queue<String> matches)
+            throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new IOException("Unexpected tree response");
+        Listing listing = new Listing();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("tree".equals(field)) {
+                readEntries(parser, prefix, recursive, matches, listing);
+            } else if ("truncated".equals(field)) {
+                listing.truncated = parser.getBooleanValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return listing;
+    }
+
+    private static void readEntries(JsonParser parser, String prefix, boolean recursive, Queue<String> matches,
+                                    Listing listing) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String path = null, type = null, sha = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "path" -> path = parser.getText();
+                    case "type" -> type = parser.getText();
+                    case "sha" -> sha = parser.getText();
+                    default -> parser.skipChildren();
+                }
+            }
+            if (path == null)
+                continue;
+            String fullPath = prefix + path;
+            if (isIgnored(fullPath))
+                continue;
+            if ("blob".equals(type) && LockfileSignatures.match(fullPath) != null) {
+                matches.add(fullPath);
+            } else if ("tree".equals(type) && !recursive) {
+                listing.subtrees.add(new Subtree(sha, fullPath + "/"));
+            }
+        }
+    }
+
+    /**
+     * @return whether the path is in, or is, a directory of vendored dependencies.
+     */
+    static boolean isIgnored(String path) {
+        for (String name : path.split("/")) {
+            if (IGNORED_DIRECTORIES.contains(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static class Listing {
+        private final List<Subtree> subtrees = new ArrayList<>();
+        private boolean truncated;
+    }
+
+    private record Subtree(String sha, String prefix) {
+    }
+
+    private static class SubtreeScans extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<SubtreeScan> subtreeScans;
+
+        SubtreeScans(List<SubtreeScan> subtreeScans) {
+            this.subtreeScans = subtreeScans;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(subtreeScans);
+        }
+    }
+
+    private static class SubtreeScan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final GHRepository repository;
+        private final String treeish;
+        private final String prefix;
+        private final Queue<String> matches;
+        private final Runnable scanInCheck;
+
+        SubtreeScan(GHRepository repository, String treeish, String prefix, Queue<String> matches) {
+            this.repository = repository;
+            this.treeish = treeish;
+            this.prefix = prefix;
+            this.matches = matches;
+            this.scanInCheck = QualificationPipeline.inCurrentCheck(this::scanSubtree);
+        }
+
+        @Override
+        protected void compute() {
+            scanInCheck.run();
+        }
+
+        private void scanSubtree() {
+            try {
+                Queue<String> found = new ConcurrentLinkedQueue<>();
+                if (!list(repository, treeish, prefix, true, found).truncated) {
+                    matches.addAll(found);
+                    return;
+                }
+                // The recursive listing is incomplete, so list the direct children and scan each sub-tree.
+                Listing listing = list(repository, treeish, prefix, false, matches);
+                List<SubtreeScan> subtreeScans = new ArrayList<>();
+                for (Subtree subtree : listing.subtrees) {
+                    subtreeScans.add(new SubtreeScan(repository, subtree.sha(), subtree.prefix(), matches));
+                }
+                invokeAll(subtreeScans);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
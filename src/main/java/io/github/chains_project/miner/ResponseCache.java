@@ -0,0 +1,125 @@
+package io.github.chains_project.miner;
+
+import okhttp3.Cache;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * The ResponseCache keeps the responses of the GitHub API in a persistent HTTP cache in the output directory, so
+ * that they survive between runs. Cached responses are stored with their ETag and Last-Modified validators, and
+ * once they are stale they are revalidated with a conditional request. GitHub answers such a request with 304 Not
+ * Modified if nothing changed, which does not count against the rate limit, so mining an unchanged repository list
+ * again costs close to no requests. The {@link org.kohsuke.github.GitHub} objects revalidate every request.
+ * <p>
+ * The cache is bounded by its size on disk, evicting the least recently used responses first. GitHub marks its
+ * responses as varying by the Authorization header, which would keep a separate copy of every response for each
+ * API token and miss whenever a request is made with another token than before. Since the responses the miner
+ * requests do not depend on the token, {@link #networkInterceptor()} removes Authorization from the Vary header
+ * before the response is stored.
+ */
+public class ResponseCache {
+
+    /**
+     * The directory in the output directory holding the cache.
+     */
+    static final String DIRECTORY = "http-cache";
+    /**
+     * The default maximum size of the cache on disk.
+     */
+    static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+    private final Cache cache;
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+
+    /**
+     * @param outputDirectory the output directory to keep the cache in.
+     * @param maxSize         the maximum size of the cache on disk, in bytes.
+     */
+    public ResponseCache(Path outputDirectory, long maxSize) {
+        cache = new Cache(outputDirectory.resolve(DIRECTORY).toFile(), maxSize);
+    }
+
+    /**
+     * @return the {@link okhttp3.Cache} to install in the {@link okhttp3.OkHttpClient}.
+     */
+    public Cache cache() {
+        return cache;
+    }
+
+    /**
+     * Get the OkHttp network interceptor making the responses of the GitHub API shareable between API tokens and
+     * counting the requests that reached GitHub. It must be added to the {@link okhttp3.OkHttpClient} using the
+     * cache.
+     *
+     * @return the network interceptor of this cache.
+     */
+    public Interceptor networkInterceptor() {
+        return chain -> {
+            Response response = chain.proceed(chain.request());
+            if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED)
+                notModified.incrementAndGet();
+            else
+                fetched.incrementAndGet();
+            String vary = response.header("Vary");
+            if (vary == null)
+                return response;
+            String shared = Arrays.stream(vary.split(","))
+                    .map(String::trim)
+                    .filter(field -> !field.equalsIgnoreCase("Authorization"))
+                    .collect(Collectors.joining(", "));
+            Response.Builder builder = response.newBuilder();
+            if (shared.isEmpty())
+                builder.removeHeader("Vary");
+            else
+                builder.header("Vary", shared);
+            return builder.build();
+        };
+    }
+
+    /**
+     * @return the number of requests answered from the cache, including those revalidated with a conditional
+     * request.
+     */
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    /**
+     * @return the number of requests answered with a full response from GitHub.
+     */
+    public long missCount() {
+        return fetched.get();
+    }
+
+    /**
+     * @return the number of conditional requests answered with 304 Not Modified.
+     */
+    public long notModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * Log how many requests were answered from the cache.
+     */
+    public void logStatistics() {
+        long size;
+        try {
+            size = cache.size();
+        } catch (IOException e) {
+            size = -1;
+        }
+        log.info("HTTP cache: {} requests answered from the cache, {} of them after a 304, {} fetched in full, " +
+                "{} MB of {} MB used", hitCount(), notModifiedCount(), missCount(), size / (1024 * 1024),
+                cache.maxSize() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.chains_project.miner;
+
+import java.util.List;
+
+/**
+ * A part of the repositories created in a {@link SearchWindow}, selected by their number of stars and their size
+ * in kilobytes.
+ * <p>
+ * A window of {@link SearchWindow#MIN_SIZE} can still have more results than GitHub returns for one query. Such a
+ * window is searched in slices instead: first by splitting the range of stars, then, once a slice is down to a
+ * single number of stars, by splitting the range of sizes. Every repository in the window is in exactly one slice,
+ * so no results are lost.
+ *
+ * @param minStars the smallest number of stars included.
+ * @param maxStars the largest number of stars included, or {@link #UNBOUNDED}.
+ * @param minSize  the smallest size in kilobytes included.
+ * @param maxSize  the largest size in kilobytes included, or {@link #UNBOUNDED}.
+ */
+public record SearchSlice(int minStars, int maxStars, int minSize, int maxSize) {
+
+    /**
+     * The upper bound of a range without a limit.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    /**
+     * The size in kilobytes that sizes are split below, 10 GB. GitHub blocks pushes to repositories much larger than
+     * that, so halving the whole range up to {@link #UNBOUNDED} would only split off empty slices at first.
+     */
+    static final int MAX_REPOSITORY_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * @param minStars the smallest number of stars included.
+     * @return the slice of all repositories with at least the given number of stars.
+     */
+    public static SearchSlice withStarsAtLeast(int minStars) {
+        return new SearchSlice(minStars, UNBOUNDED, 0, UNBOUNDED);
+    }
+
+    /**
+     * Split this slice in two, by stars while it covers more than one number of stars, and by size otherwise. The
+     * upper half keeps the upper bound of this slice, so that no repository is lost when the bound of the split is
+     * too low.
+     *
+     * @param mostStars the largest number of stars of any repository in this slice, which bounds the split.
+     * @return the two halves of this slice, or an empty list if it can not be split any further.
+     */
+    public List<SearchSlice> split(int mostStars) {
+        int upperStars = Math.min(maxStars, Math.max(mostStars, minStars));
+        if (minStars < upperStars) {
+            int middle = minStars + (upperStars - minStars) / 2;
+            return List.of(new SearchSlice(minStars, middle, minSize, maxSize),
+                    new SearchSlice(middle + 1, maxStars, minSize, maxSize));
+        }
+        if (minSize < maxSize) {
+            // All repositories in the slice have the same number of stars, so only their size can tell them apart.
+            int upperSize = Math.min(maxSize, Math.max(MAX_REPOSITORY_SIZE, minSize));
+            int middle = minSize + (upperSize - minSize) / 2;
+            return List.of(new SearchSlice(minStars, upperStars, minSize, middle),
+                    new SearchSlice(minStars, upperStars, middle + 1, maxSize));
+        }
+        return List.of();
+    }
+
+    /**
+     * @return the stars qualifier of this slice in the format used by the GitHub search API, e.g. 10..20.
+     */
+    public String starsQuery() {
+        return rangeQuery(minStars, maxStars);
+    }
+
+    /**
+     * @return the size qualifier of this slice in the format used by the GitHub search API, or null if the slice
+     * includes all sizes.
+     */
+    public String sizeQuery() {
+        return minSize == 0 && maxSize == UNBOUNDED ? null : rangeQuery(minSize, maxSize);
+    }
+
+    private static String rangeQuery(int min, int max) {
+        if (max == UNBOUNDED)
+            return ">=" + min;
+        return min == max ? Integer.toString(min) : min + ".." + max;
+    }
+
+    @Override
+    public String toString() {
+        String size = sizeQuery();
+        return "stars:" + starsQuery() + (size != null ? " size:" + size : "");
+    }
+}
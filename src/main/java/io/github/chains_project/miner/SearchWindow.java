@@ -0,0 +1,115 @@
+package io.github.chains_project.miner;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A half-open range [start, end) of repository creation times used when searching for repositories.
+ * <p>
+ * GitHub returns at most 1000 results for a single search query, so the size of the window decides both
+ * how many search requests are needed and whether any results are lost. {@link #next(int, Instant)} implements
+ * the adaptive strategy: each window is sized so that it would have about {@link #TARGET_RESULTS} results if
+ * repositories were created as often as in the window before it. Windows therefore grow over quiet periods and
+ * shrink again when creations become denser. Windows with too many results anyway are split until every result
+ * can be returned, down to {@link #MIN_SIZE}; see {@link SearchSlice} for windows that are still too large.
+ *
+ * @param start the earliest creation time included in the window.
+ * @param end   the creation time right after the window.
+ */
+public record SearchWindow(Instant start, Instant end) {
+
+    /**
+     * The maximum number of results GitHub returns for a single search query.
+     */
+    public static final int MAX_SEARCH_RESULTS = 1000;
+    /**
+     * The smallest window size, windows of this size are never split further.
+     */
+    public static final Duration MIN_SIZE = Duration.ofHours(1);
+    /**
+     * The largest window size, windows are never grown beyond this size.
+     */
+    public static final Duration MAX_SIZE = Duration.ofDays(180);
+    /**
+     * The number of results each window is sized for, leaving room for denser periods below the maximum.
+     */
+    static final int TARGET_RESULTS = MAX_SEARCH_RESULTS / 2;
+    private static final DateTimeFormatter QUERY_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Create the first window to search, ending at the given point in time.
+     *
+     * @param end   the creation time right after the window.
+     * @param lower the earliest creation time that may be searched.
+     * @return a window of one day, or less if the lower bound is closer than that.
+     */
+    public static SearchWindow endingAt(Instant end, Instant lower) {
+        return new SearchWindow(max(end.minus(Duration.ofDays(1)), lower), end);
+    }
+
+    /**
+     * @return the length of this window.
+     */
+    public Duration size() {
+        return Duration.between(start, end);
+    }
+
+    /**
+     * @return whether this window is large enough to be split in two.
+     */
+    public boolean isSplittable() {
+        return size().compareTo(MIN_SIZE.multipliedBy(2)) >= 0;
+    }
+
+    /**
+     * @return the newer half of this window, truncated to whole hours where possible.
+     */
+    public SearchWindow newerHalf() {
+        Instant middle = start.plus(size().dividedBy(2));
+        Instant truncated = middle.truncatedTo(ChronoUnit.HOURS);
+        return new SearchWindow(truncated.isAfter(start) ? truncated : middle, end);
+    }
+
+    /**
+     * Decide the window to search after this one, given the number of results this window had.
+     *
+     * @param totalCount the total number of search results in this window.
+     * @param lower      the earliest creation time that may be searched.
+     * @return the window directly before this one, sized after the result count of this window. It is at most
+     * twice as large as this window, and between {@link #MIN_SIZE} and {@link #MAX_SIZE}.
+     */
+    public SearchWindow next(int totalCount, Instant lower) {
+        Duration grown = size().multipliedBy(2);
+        Duration size = totalCount == 0 ? grown
+                : Duration.ofSeconds(size().toSeconds() * TARGET_RESULTS / totalCount);
+        size = min(size, min(grown, MAX_SIZE));
+        if (size.compareTo(MIN_SIZE) < 0)
+            size = MIN_SIZE;
+        return new SearchWindow(max(start.minus(size), lower), start);
+    }
+
+    /**
+     * @return the window in the format used by the GitHub search API, e.g.
+     * 2012-01-01T00:00:00Z..2012-01-07T23:59:59Z
+     */
+    public String toQuery() {
+        return QUERY_FORMAT.format(start) + ".." + QUERY_FORMAT.format(end.minusSeconds(1));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+
+    private static Instant max(Instant a, Instant b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) < 0 ? a : b;
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.chains_project.miner;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * A Shard is one of a number of disjoint parts of the repositories, so that mining and finding repositories can
+ * be split between processes or machines without any coordination. Repositories are assigned to shards by a
+ * stable hash of their full name, which gives the same assignment on every machine and in every run.
+ *
+ * @param index the number of the shard, from 1 to count.
+ * @param count the number of shards.
+ */
+public record Shard(int index, int count) {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public Shard {
+        if (count < 1 || index < 1 || index > count)
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count +
+                    ", the shard must be between 1 and the number of shards");
+    }
+
+    /**
+     * @param shard a shard on the form i/N (e.g. 2/4).
+     * @return the shard.
+     */
+    public static Shard valueOf(String shard) {
+        String[] parts = shard.split("/");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Invalid shard " + shard + ", expected the form i/N");
+        try {
+            return new Shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shard " + shard + ", expected the form i/N", e);
+        }
+    }
+
+    /**
+     * @param repoName the name of the repository on the form organization/project (e.g. apache/maven).
+     * @return true if the repository belongs to this shard.
+     */
+    public boolean contains(String repoName) {
+        // GitHub names are case-insensitive, and String.hashCode is not specified to be stable, so a 64-bit FNV-1a
+        // hash of the lower case name is used.
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : repoName.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return Math.floorMod(hash, count) == index - 1;
+    }
+
+    /**
+     * @param file a repository list file.
+     * @return the file holding the part of the repository list in this shard, next to the given file
+     * (e.g. repos.shard-2-of-4.json for repos.json).
+     */
+    public Path fileFor(Path file) {
+        String fileName = file.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String suffix = ".shard-" + index + "-of-" + count;
+        return file.resolveSibling(extension > 0 ?
+                fileName.substring(0, extension) + suffix + fileName.substring(extension) : fileName + suffix);
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
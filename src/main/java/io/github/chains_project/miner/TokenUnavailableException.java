@@ -0,0 +1,92 @@
+package io.github.chains_project.miner;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.util.Date;
+import java.util.function.UnaryOperator;
+
+/**
+ * A TokenUnavailableException is thrown instead of waiting when the API token a request was going to be made with
+ * has run out of requests or was set aside by the {@link GitHubAPITokenQueue}. The work it interrupted should be
+ * retried, which picks another token if one is available.
+ */
+public class TokenUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    /**
+     * The time a token is set aside for when GitHub rejects a request without saying when to retry it.
+     */
+    static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(60);
+    private final Date availableAt;
+
+    /**
+     * @param message     a description of why the token cannot be used.
+     * @param availableAt the time at which the token can be used again.
+     */
+    public TokenUnavailableException(String message, Date availableAt) {
+        super(message);
+        this.availableAt = availableAt;
+    }
+
+    /**
+     * @return the time at which the token can be used again.
+     */
+    public Date getAvailableAt() {
+        return availableAt;
+    }
+
+    /**
+     * Get the time after which a request that was rejected by GitHub may be retried, from its Retry-After header
+     * if any, and otherwise from the reset time of the rate limit if it is used up, or after
+     * {@link #DEFAULT_RETRY_AFTER} if the response does not say.
+     *
+     * @param headers the headers of the response, by name.
+     * @return the time at which the request may be retried.
+     */
+    static Date retryAt(UnaryOperator<String> headers) {
+        long now = System.currentTimeMillis();
+        try {
+            String retryAfter = headers.apply("Retry-After");
+            if (retryAfter != null)
+                return new Date(now + Long.parseLong(retryAfter.trim()) * 1000);
+            String reset = headers.apply("X-RateLimit-Reset");
+            if ("0".equals(headers.apply("X-RateLimit-Remaining")) && reset != null)
+                return new Date(Math.max(now, Long.parseLong(reset.trim()) * 1000));
+        } catch (NumberFormatException e) {
+            // Fall back to the default below.
+        }
+        return new Date(now + DEFAULT_RETRY_AFTER.toMillis());
+    }
+
+    /**
+     * Fail a request made outside of the GitHub API client if GitHub rejected it because of a rate limit, that is
+     * with status code 403 or 429 and either a Retry-After header or no remaining requests. Other failures, such as
+     * a 403 for a repository that may not be accessed, are left to the caller.
+     *
+     * @param statusCode the status code of the response.
+     * @param headers    the headers of the response, by name.
+     * @param message    a description of the request that was rejected.
+     * @throws TokenUnavailableException if the request was rejected because of a rate limit.
+     */
+    static void throwIfRateLimited(int statusCode, UnaryOperator<String> headers, String message) {
+        if (statusCode != HttpURLConnection.HTTP_FORBIDDEN && statusCode != GraphQLTransport.HTTP_TOO_MANY_REQUESTS)
+            return;
+        if (headers.apply("Retry-After") != null || "0".equals(headers.apply("X-RateLimit-Remaining")))
+            throw new TokenUnavailableException(message + " was rate limited with status code " + statusCode,
+                    retryAt(headers));
+    }
+
+    /**
+     * Find the TokenUnavailableException that caused an exception, as the GitHub API client may wrap the
+     * exceptions thrown while it makes a request.
+     *
+     * @param e an exception.
+     * @return the TokenUnavailableException among the exception and its causes, or null if there is none.
+     */
+    public static TokenUnavailableException causeOf(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TokenUnavailableException unavailable)
+                return unavailable;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.chains_project.miner;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.chains_project.miner.GitHubAPITokenQueue.Bucket;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The TokenVerifier checks which GitHub API tokens are valid. All tokens are checked concurrently by requesting
+ * their rate limits, which does not count against them, so the budgets of the valid tokens are known before the
+ * first request is made with them.
+ * <p>
+ * The results are cached in a file, keyed by a hash of the token, so that a run started shortly after another
+ * one does not need to check its tokens again. Tokens are never logged, only the prefix of their hash given by
+ * {@link #fingerprint(String)}.
+ */
+class TokenVerifier {
+
+    /**
+     * The GitHub API endpoint reporting the rate limits of a token.
+     */
+    static final String RATE_LIMIT_ENDPOINT = "https://api.github.com/rate_limit";
+    /**
+     * The time for which the result of a check is reused.
+     */
+    static final Duration CACHE_TTL = Duration.ofMinutes(10);
+    private static final Logger log = LoggerFactory.getLogger(TokenVerifier.class);
+    private final OkHttpClient httpClient;
+    private final Path cacheFile;
+
+    /**
+     * @param httpClient the {@link okhttp3.OkHttpClient} to use for the connection to GitHub.
+     * @param cacheFile  the file caching the results of recent checks.
+     */
+    TokenVerifier(OkHttpClient httpClient, Path cacheFile) {
+        this.httpClient = httpClient;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Check the given tokens, reusing the results of checks made within the last {@link #CACHE_TTL}. A token
+     * that could not be checked, for instance because GitHub could not be reached, is considered invalid but its
+     * result is not cached.
+     *
+     * @param apiTokens the tokens to check.
+     * @return the valid tokens in the given order, each with the rate limits reported while checking it. For
+     * tokens whose cached result was reused, these are the rate limits reported when the token was last checked.
+     */
+    Map<String, Map<Bucket, RateLimit>> verify(Collection<String> apiTokens) {
+        Map<String, CachedCheck> cache = readCache();
+        Instant expiry = Instant.now().minus(CACHE_TTL);
+        cache.values().removeIf(check -> check.checkedAt().toInstant().isBefore(expiry));
+        Map<String, CompletableFuture<Check>> checks = new LinkedHashMap<>();
+        for (String apiToken : apiTokens) {
+            CachedCheck cached = cache.get(hash(apiToken));
+            checks.put(apiToken, cached != null
+                    ? CompletableFuture.completedFuture(new Check(cached.valid(),
+                    cached.rateLimits() != null ? cached.rateLimits() : Map.of(), true))
+                    : check(apiToken));
+        }
+        Map<String, Map<Bucket, RateLimit>> valid = new LinkedHashMap<>();
+        int checked = 0;
+        for (Map.Entry<String, CompletableFuture<Check>> entry : checks.entrySet()) {
+            String apiToken = entry.getKey();
+            Check check = entry.getValue().join();
+            if (!check.cached() && check.definite()) {
+                cache.put(hash(apiToken), new CachedCheck(check.valid(), new Date(), check.rateLimits()));
+                checked++;
+            }
+            if (check.valid()) {
+                valid.put(apiToken, check.rateLimits());
+            } else {
+                log.error("Found invalid token {}, removing it from use.", fingerprint(apiToken));
+            }
+        }
+        log.info("{} of {} tokens are valid, {} reused from {}", valid.size(), apiTokens.size(),
+                apiTokens.size() - checked, cacheFile);
+        if (checked > 0)
+            writeCache(cache);
+        return valid;
+    }
+
+    private CompletableFuture<Check> check(String apiToken) {
+        CompletableFuture<Check> result = new CompletableFuture<>();
+        Call request = httpClient.newCall(new Request.Builder()
+                .get()
+                .url(RATE_LIMIT_ENDPOINT)
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", "bearer " + apiToken)
+                .build());
+        request.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    if (response.code() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                        result.complete(Check.INVALID);
+                    } else if (response.code() != HttpURLConnection.HTTP_OK) {
+                        log.warn("Could not check token {}. Status code: {}", fingerprint(apiToken), response.code());
+                        result.complete(Check.UNKNOWN);
+                    } else {
+                        result.complete(new Check(true, readRateLimits(response), false));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not read the rate limits of token {}", fingerprint(apiToken), e);
+                    result.complete(new Check(true, Map.of(), false));
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                log.warn("Could not check token {}", fingerprint(apiToken), e);
+                result.complete(Check.UNKNOWN);
+            }
+        });
+        return result;
+    }
+
+    private static Map<Bucket, RateLimit> readRateLimits(Response response) throws IOException {
+        JsonObject resources = JsonParser.parseReader(Objects.requireNonNull(response.body()).charStream())
+                .getAsJsonObject().getAsJsonObject("resources");
+        Map<Bucket, RateLimit> rateLimits = new EnumMap<>(Bucket.class);
+        for (Bucket bucket : Bucket.values()) {
+            JsonElement resource = resources.get(bucket.resource());
+            if (resource != null && resource.isJsonObject()) {
+                JsonObject limit = resource.getAsJsonObject();
+                rateLimits.put(bucket, new RateLimit(limit.get("remaining").getAsInt(),
+                        limit.get("reset").getAsLong() * 1000));
+            }
+        }
+        return rateLimits;
+    }
+
+    private Map<String, CachedCheck> readCache() {
+        if (!Files.exists(cacheFile))
+            return new HashMap<>();
+        try {
+            JavaType type = JsonUtils.getTypeFactory().constructMapType(HashMap.class, String.class,
+                    CachedCheck.class);
+            Map<String, CachedCheck> cache = JsonUtils.readFromNullableFile(cacheFile, type);
+            return cache != null ? cache : new HashMap<>();
+        } catch (RuntimeException e) {
+            log.warn("Ignoring unreadable token cache {}", cacheFile);
+            return new HashMap<>();
+        }
+    }
+
+    private void writeCache(Map<String, CachedCheck> cache) {
+        try {
+            JsonUtils.writeToFile(cacheFile, cache);
+        } catch (RuntimeException e) {
+            log.warn("Could not write token cache {}", cacheFile);
+        }
+    }
+
+    /**
+     * @param apiToken a GitHub API token.
+     * @return a short prefix of the hash of the token, which identifies it in logs without revealing it.
+     */
+    static String fingerprint(String apiToken) {
+        return hash(apiToken).substring(0, 8);
+    }
+
+    private static String hash(String apiToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(apiToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The budget of a token in a rate limit bucket, as reported by GitHub.
+     *
+     * @param remaining the number of remaining requests.
+     * @param resetAt   the time at which the budget is reset, in milliseconds since the epoch.
+     */
+    record RateLimit(int remaining, long resetAt) {
+    }
+
+    /**
+     * The result of checking a token.
+     *
+     * @param valid      whether the token can be used.
+     * @param rateLimits the rate limits reported for the token.
+     * @param cached     whether the result was read from the cache.
+     */
+    private record Check(boolean valid, Map<Bucket, RateLimit> rateLimits, boolean cached) {
+        private static final Check INVALID = new Check(false, Map.of(), false);
+        private static final Check UNKNOWN = new Check(false, null, false);
+
+        /**
+         * @return whether GitHub answered the check, so that its result may be cached.
+         */
+        boolean definite() {
+            return rateLimits != null;
+        }
+    }
+
+    /**
+     * The cached result of checking a token.
+     *
+     * @param valid      whether the token can be used.
+     * @param checkedAt  when the token was checked.
+     * @param rateLimits the rate limits reported when the token was checked, or null if the entry was written
+     *                   before they were cached.
+     */
+    record CachedCheck(boolean valid, Date checkedAt, Map<Bucket, RateLimit> rateLimits) {
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinaryRepositoryListCodecTest {
+
+    private static final Map<String, RepositoryData> REPOS = new LinkedHashMap<>();
+
+    static {
+        REPOS.put("owner/derived", new RepositoryData("https://api.github.com/repos/owner/derived", new Date(1000),
+                List.of(ProjectType.YARN, ProjectType.npm), true, List.of("yarn.lock", "packages/app/yarn.lock")));
+        REPOS.put("owner/other", new RepositoryData("https://github.com/owner/other", null, List.of(), false,
+                List.of()));
+        REPOS.put("owner/none", new RepositoryData(null, null, null, false, null));
+    }
+
+    @Test
+    void roundTripsAllKindsOfUrls(@TempDir Path directory) {
+        Path file = directory.resolve("repos" + BinaryRepositoryListCodec.FILE_ENDING);
+
+        RepositoryListCodec.BINARY.write(file, REPOS);
+
+        assertEquals(REPOS, read(file));
+    }
+
+    @Test
+    void roundTripsStreamedEntries(@TempDir Path directory) {
+        Path file = directory.resolve("repos" + BinaryRepositoryListCodec.FILE_ENDING);
+
+        RepositoryListCodec.BINARY.write(file, REPOS.entrySet().iterator());
+
+        assertEquals(REPOS, read(file));
+    }
+
+    private static Map<String, RepositoryData> read(Path file) {
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        try (RepositoryListCodec.Entries entries = RepositoryListCodec.BINARY.read(file)) {
+            entries.forEachRemaining(entry -> repos.put(entry.getKey(), entry.getValue()));
+        }
+        return repos;
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.chains_project.miner;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiffScannerTest {
+
+    @Test
+    void findsBinaryLockfilesByTheirDiffHeader() throws IOException {
+        String diff = """
+                diff --git a/bun.lockb b/bun.lockb
+                index 1234567..89abcde 100755
+                Binary files a/bun.lockb and b/bun.lockb differ
+                """;
+
+        assertTrue(changesLockfile(diff));
+    }
+
+    @Test
+    void findsDeletedLockfilesByTheirOldFileHeader() throws IOException {
+        // Git names the old path in the "diff --git" header too, so that header is left out here.
+        String diff = """
+                --- a/pnpm-lock.yaml
+                +++ /dev/null
+                @@ -1 +0,0 @@
+                -lockfileVersion: '9.0'
+                """;
+
+        assertTrue(changesLockfile("diff --git a/README.md b/README.md\n" + diff));
+        assertEquals(List.of("pnpm-lock.yaml"), DiffScanner.headerPaths("--- a/pnpm-lock.yaml"));
+        assertEquals(List.of(), DiffScanner.headerPaths("+++ /dev/null"));
+    }
+
+    @Test
+    void ignoresRemovedLinesThatLookLikeHeaders() throws IOException {
+        String diff = """
+                diff --git a/notes.md b/notes.md
+                --- a/notes.md
+                +++ b/notes.md
+                @@ -1,2 +1 @@
+                --- package-lock.json
+                +++ yarn.lock
+                 unchanged
+                """;
+
+        assertFalse(changesLockfile(diff));
+    }
+
+    @Test
+    void findsQuotedPathsWithSpaces() throws IOException {
+        String diff = """
+                diff --git "a/my app/yarn.lock" "b/my app/yarn.lock"
+                --- "a/my app/yarn.lock"\t
+                +++ "b/my app/yarn.lock"\t
+                @@ -1 +1 @@
+                """;
+
+        assertTrue(changesLockfile(diff));
+        assertEquals(List.of("my app/yarn.lock", "my app/yarn.lock"),
+                DiffScanner.headerPaths("diff --git \"a/my app/yarn.lock\" \"b/my app/yarn.lock\""));
+        assertEquals(List.of("my app/package-lock.json"),
+                DiffScanner.headerPaths("+++ b/my app/package-lock.json\t"));
+    }
+
+    @Test
+    void readsAFinalLineWithoutANewline() throws IOException {
+        assertTrue(changesLockfile("diff --git a/gradle.lockfile b/gradle.lockfile"));
+        assertFalse(changesLockfile("diff --git a/README.md b/README.md\n@@ -1 +1 @@\n-Old\n+New"));
+    }
+
+    @Test
+    void stopsReadingAtTheFirstMatchingFile() throws IOException {
+        Buffer diff = new Buffer().writeUtf8("""
+                diff --git a/package-lock.json b/package-lock.json
+                --- a/package-lock.json
+                """);
+
+        assertTrue(DiffScanner.anyChangedFile(diff, PullRequestFilters::isLockfile));
+        assertEquals("--- a/package-lock.json\n", diff.readUtf8());
+    }
+
+    private static boolean changesLockfile(String diff) throws IOException {
+        return DiffScanner.anyChangedFile(new Buffer().writeUtf8(diff), PullRequestFilters::isLockfile);
+    }
+}
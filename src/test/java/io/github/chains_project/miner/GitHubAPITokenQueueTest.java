@@ -0,0 +1,141 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.GitHubAPITokenQueue.Bucket;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GitHubAPITokenQueueTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @Test
+    void handsOutTheTokenWithTheMostRemainingRequests() {
+        GitHubAPITokenQueue queue = new GitHubAPITokenQueue(List.of("a", "b", "c"));
+        long resetAt = System.currentTimeMillis() + HOUR;
+        queue.updateBudget("a", Bucket.CORE, 100, resetAt);
+        queue.updateBudget("b", Bucket.CORE, 4000, resetAt);
+        queue.updateBudget("c", Bucket.CORE, 50, resetAt);
+
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+        // The budgets of the other buckets are separate.
+        queue.updateBudget("c", Bucket.SEARCH, 30, resetAt);
+        queue.updateBudget("b", Bucket.SEARCH, 2, resetAt);
+        assertEquals("a", queue.nextToken(Bucket.SEARCH));
+    }
+
+    @Test
+    void skipsDrainedAndParkedTokens() {
+        GitHubAPITokenQueue queue = new GitHubAPITokenQueue(List.of("a", "b", "c"));
+        long now = System.currentTimeMillis();
+        queue.updateBudget("a", Bucket.CORE, Bucket.CORE.cutoff(), now + HOUR);
+        queue.updateBudget("c", Bucket.CORE, 10, now + HOUR);
+        queue.park("b", now + HOUR);
+
+        assertEquals("c", queue.nextToken(Bucket.CORE));
+        assertEquals("c", queue.nextToken(Bucket.CORE));
+    }
+
+    @Test
+    void waitsUntilTheEarliestResetWhenAllTokensAreDrained() {
+        GitHubAPITokenQueue queue = new GitHubAPITokenQueue(List.of("a", "b"));
+        long start = System.currentTimeMillis();
+        // The queue waits a second after the reset reported by GitHub.
+        long resetAt = start - 700;
+        queue.updateBudget("a", Bucket.CORE, 0, start + HOUR);
+        queue.updateBudget("b", Bucket.CORE, 0, resetAt);
+
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 250 && waited < 5000, "waited " + waited + "ms");
+    }
+
+    @Test
+    void keepsTheLowerBudgetOfResponsesThatArriveOutOfOrder() {
+        GitHubAPITokenQueue queue = new GitHubAPITokenQueue(List.of("a", "b"));
+        long resetAt = System.currentTimeMillis() + HOUR;
+        queue.updateBudget("a", Bucket.CORE, 100, resetAt);
+        queue.updateBudget("b", Bucket.CORE, 150, resetAt);
+        // An earlier response of the same window, and one of the previous window.
+        queue.updateBudget("a", Bucket.CORE, 200, resetAt);
+        queue.updateBudget("a", Bucket.CORE, 5000, resetAt - HOUR);
+
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+    }
+
+    @Test
+    void readsTheBudgetsAndRetryAfterFromTheResponses() throws IOException {
+        GitHubAPITokenQueue queue = new GitHubAPITokenQueue(List.of("a", "b"));
+        long resetAt = System.currentTimeMillis() / 1000 + 3600;
+        OkHttpClient httpClient = httpClient(queue, new Response.Builder()
+                .code(200)
+                .message("OK")
+                .header("X-RateLimit-Resource", "core")
+                .header("X-RateLimit-Remaining", "3")
+                .header("X-RateLimit-Reset", String.valueOf(resetAt)));
+        queue.updateBudget("b", Bucket.CORE, 10, resetAt * 1000);
+
+        request(httpClient, "a");
+
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+        long now = System.currentTimeMillis();
+        request(httpClient(queue, new Response.Builder().code(403).message("Forbidden").header("Retry-After", "60")),
+                "b");
+        assertTrue(queue.unavailableUntil("b") >= now + 60_000);
+    }
+
+    @Test
+    void opensTheCircuitBreakerAfterRepeatedFailuresForLongerEachTime() throws IOException {
+        GitHubAPITokenQueue queue = new GitHubAPITokenQueue(List.of("a", "b"));
+        OkHttpClient httpClient = httpClient(queue, new Response.Builder().code(502).message("Bad Gateway"));
+        long start = System.currentTimeMillis();
+
+        request(httpClient, "a");
+        request(httpClient, "a");
+        assertTrue(queue.unavailableUntil("a") < start);
+        request(httpClient, "a");
+        long firstCoolDown = queue.unavailableUntil("a") - start;
+        assertTrue(firstCoolDown >= 30_000 && firstCoolDown < 60_000, firstCoolDown + "ms");
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+        assertEquals("b", queue.nextToken(Bucket.CORE));
+
+        for (int i = 0; i < 3; i++) {
+            request(httpClient, "a");
+        }
+        long secondCoolDown = queue.unavailableUntil("a") - start;
+        assertTrue(secondCoolDown >= 60_000 && secondCoolDown < 90_000, secondCoolDown + "ms");
+    }
+
+    /**
+     * A client whose requests are answered by the given response, through the interceptor of the queue.
+     */
+    private static OkHttpClient httpClient(GitHubAPITokenQueue queue, Response.Builder response) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(queue.rateLimitInterceptor())
+                .addInterceptor(chain -> response
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .body(ResponseBody.create("{}", MediaType.get("application/json")))
+                        .build())
+                .build();
+    }
+
+    private static void request(OkHttpClient httpClient, String apiToken) throws IOException {
+        Request request = new Request.Builder()
+                .url("https://api.github.com/rate_limit")
+                .header("Authorization", "token " + apiToken)
+                .build();
+        httpClient.newCall(request).execute().close();
+    }
+}
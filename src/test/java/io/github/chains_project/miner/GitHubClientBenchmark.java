@@ -0,0 +1,121 @@
+package io.github.chains_project.miner;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.extras.okhttp3.OkHttpGitHubConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares building a {@link GitHub} object for every repository, as the miner used to, with reusing one
+ * {@link GitHub} object per token on a shared {@link OkHttpClient}, as {@link GitHubAPITokenQueue} does now.
+ * <p>
+ * Both fetch a repository from a local mock of the GitHub API, which also answers the /rate_limit request a newly
+ * built object makes before its first request. Run from the project root with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) \
+ *     org.openjdk.jmh.Main GitHubClientBenchmark -prof gc
+ * </pre>
+ * The gc profiler reports the bytes allocated per request as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitHubClientBenchmark {
+
+    private static final byte[] RATE_LIMIT = ("{\"resources\":{\"core\":{\"limit\":5000,\"remaining\":4999," +
+            "\"reset\":4102444800}},\"rate\":{\"limit\":5000,\"remaining\":4999,\"reset\":4102444800}}")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REPOSITORY = ("{\"id\":1,\"name\":\"repo\",\"full_name\":\"owner/repo\"," +
+            "\"owner\":{\"login\":\"owner\"},\"default_branch\":\"main\"}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"4"})
+    public int tokens;
+
+    private HttpServer server;
+    private String endpoint;
+    private OkHttpClient httpClient;
+    private List<GitHub> gitHubs;
+    private final AtomicInteger nextToken = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Otherwise Nagle's algorithm holds back the responses of the mock, which would dominate the times.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestURI().getPath().equals("/rate_limit") ? RATE_LIMIT : REPOSITORY;
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort();
+        httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(tokens * 4, 5, TimeUnit.MINUTES))
+                .build();
+        gitHubs = new ArrayList<>();
+        for (int i = 0; i < tokens; i++) {
+            gitHubs.add(build("token" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    @Benchmark
+    public GHRepository buildPerCall() throws IOException {
+        return build("token" + next()).getRepository("owner/repo");
+    }
+
+    @Benchmark
+    public GHRepository pooled() throws IOException {
+        return gitHubs.get(next()).getRepository("owner/repo");
+    }
+
+    private int next() {
+        return Math.floorMod(nextToken.getAndIncrement(), tokens);
+    }
+
+    private GitHub build(String apiToken) throws IOException {
+        return new GitHubBuilder()
+                .withEndpoint(endpoint)
+                .withConnector(new OkHttpGitHubConnector(httpClient))
+                .withOAuthToken(apiToken)
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.GitHubMiner.DateRange;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GitHubMinerTest {
+
+    private static final LocalDate NEWEST = LocalDate.of(2024, 6, 30);
+
+    @Test
+    void parallelRangesCoverTheSequentialSearchExactly() {
+        for (int days : new int[]{1, 2, 7, 30, 365, 1000, 3653}) {
+            for (int parts = 1; parts <= 16; parts++) {
+                LocalDate earliest = NEWEST.minusDays(days);
+                List<DateRange> ranges = GitHubMiner.splitCreationDates(NEWEST, earliest, parts);
+
+                assertTrue(ranges.size() <= parts);
+                assertEquals(NEWEST, ranges.get(0).start());
+                assertEquals(earliest, ranges.get(ranges.size() - 1).end());
+                long covered = 0;
+                for (int i = 0; i < ranges.size(); i++) {
+                    DateRange range = ranges.get(i);
+                    assertTrue(range.start().isAfter(range.end()), range.toString());
+                    if (i > 0)
+                        assertEquals(ranges.get(i - 1).end(), range.start(), "gap or overlap before " + range);
+                    covered += ChronoUnit.DAYS.between(range.end(), range.start());
+                }
+                assertEquals(days, covered);
+            }
+        }
+    }
+
+    @Test
+    void workersShareTheRangesEvenlyWhenRecentOnesTakeLonger() {
+        int workers = 4;
+        List<DateRange> ranges = GitHubMiner.splitCreationDates(NEWEST, NEWEST.minusDays(3653), workers * 16);
+        // The newest ranges take the longest to search, as most repositories were created recently.
+        long[] cost = IntStream.range(0, ranges.size()).mapToLong(i -> 20 - 20L * i / ranges.size()).toArray();
+        AtomicLongArray busy = new AtomicLongArray(workers);
+
+        GitHubMiner.searchRangesInParallel(IntStream.range(0, workers).boxed().toList(), ranges, (worker, range) -> {
+            int index = ranges.indexOf(range);
+            try {
+                Thread.sleep(cost[index]);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            busy.addAndGet(worker, cost[index]);
+        });
+
+        long total = 0;
+        long least = Long.MAX_VALUE;
+        long most = 0;
+        for (int i = 0; i < workers; i++) {
+            total += busy.get(i);
+            least = Math.min(least, busy.get(i));
+            most = Math.max(most, busy.get(i));
+        }
+        assertEquals(LongStream.of(cost).sum(), total);
+        // Each worker takes another range as soon as it is done, so no worker is ahead by much more than a range.
+        assertTrue(most - least <= 2 * cost[0], "least " + least + "ms, most " + most + "ms");
+    }
+
+    @Test
+    void emptyRangeIsNotSearched() {
+        assertTrue(GitHubMiner.splitCreationDates(NEWEST, NEWEST, 4).isEmpty());
+        assertTrue(GitHubMiner.splitCreationDates(NEWEST, NEWEST.plusDays(1), 4).isEmpty());
+    }
+}
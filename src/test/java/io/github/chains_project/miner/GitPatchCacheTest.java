@@ -0,0 +1,159 @@
+package io.github.chains_project.miner;
+
+import com.google.gson.JsonObject;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GitPatchCacheTest {
+
+    private static final Pattern EXPRESSION = Pattern.compile("object\\(expression: \"[^:]+:([^\"]+)\"");
+    private static final String README_DIFF = """
+            diff --git a/README.md b/README.md
+            --- a/README.md
+            +++ b/README.md
+            @@ -1 +1 @@
+            -Old
+            +New
+            """;
+    /**
+     * A lockfile diff much larger than a single read, so that the scan stops long before the README.
+     */
+    private static final String LOCKFILE_DIFF = """
+            diff --git a/yarn.lock b/yarn.lock
+            --- a/yarn.lock
+            +++ b/yarn.lock
+            @@ -1 +1,100000 @@
+            -left-pad@1.0.0
+            """ + "+left-pad@1.1.0\n".repeat(100_000) + README_DIFF;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void serveDiffs(@TempDir Path spillDirectory) {
+        // Pull requests with an even number change the lockfile, the others only the README.
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    requests.incrementAndGet();
+                    int number = Integer.parseInt(chain.request().url().pathSegments().get(3).replace(".diff", ""));
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(number % 2 == 0 ? LOCKFILE_DIFF : README_DIFF,
+                                    MediaType.get("text/plain")))
+                            .build();
+                })
+                .build();
+        GitPatchCache.initialize(httpClient, new GitHubAPITokenQueue(List.of("token")), null, spillDirectory);
+    }
+
+    @Test
+    void partialPatchesOnlyDecideMatchingChecks() throws Exception {
+        GHPullRequest pullRequest = pullRequest(2, "head");
+
+        assertEquals(Optional.of(true), GitPatchCache.changesAnyFile(pullRequest, PullRequestFilters::isLockfile));
+        assertEquals(Optional.of(true), GitPatchCache.changesAnyFile(pullRequest, PullRequestFilters::isLockfile));
+        assertEquals(1, requests.get());
+        // The diff was read up to the lockfile only, so the README is looked for in the diff again.
+        assertEquals(Optional.of(true), GitPatchCache.changesAnyFile(pullRequest, "README.md"::equals));
+        assertEquals(2, requests.get());
+        assertEquals(Optional.of(LOCKFILE_DIFF), GitPatchCache.get(pullRequest));
+        assertEquals(Optional.of(LOCKFILE_DIFF), GitPatchCache.get(pullRequest));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void completePatchesDecideAllChecks() throws Exception {
+        GHPullRequest pullRequest = pullRequest(3, "head");
+
+        assertEquals(Optional.of(false), GitPatchCache.changesAnyFile(pullRequest, PullRequestFilters::isLockfile));
+        assertEquals(Optional.of(true), GitPatchCache.changesAnyFile(pullRequest, "README.md"::equals));
+        assertEquals(Optional.of(README_DIFF), GitPatchCache.get(pullRequest));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void pullRequestsThatWerePushedToAreFetchedAgain() throws Exception {
+        assertEquals(Optional.of(false),
+                GitPatchCache.changesAnyFile(pullRequest(5, "first"), PullRequestFilters::isLockfile));
+        assertEquals(Optional.of(false),
+                GitPatchCache.changesAnyFile(pullRequest(5, "second"), PullRequestFilters::isLockfile));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void keepsTheBlobShasOfTheMostRecentlyUsedFilesOnly() {
+        // Every file is its own blob, named after its path, whose content is the path as well.
+        AtomicInteger lookups = new AtomicInteger();
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    requests.incrementAndGet();
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(chain.request().url().pathSegments().get(5),
+                                    MediaType.get("application/octet-stream")))
+                            .build();
+                })
+                .build();
+        GitPatchCache.initialize(httpClient, new GitHubAPITokenQueue(List.of("token")), query -> {
+            lookups.incrementAndGet();
+            Matcher path = EXPRESSION.matcher(query);
+            path.find();
+            JsonObject object = new JsonObject();
+            object.addProperty("oid", path.group(1));
+            JsonObject repository = new JsonObject();
+            repository.add("object", object);
+            JsonObject data = new JsonObject();
+            data.add("repository", repository);
+            JsonObject response = new JsonObject();
+            response.add("data", data);
+            return response;
+        }, null);
+
+        assertEquals(Optional.of("blob-first"), GitPatchCache.get("owner", "blobs", "head", "blob-first"));
+        assertEquals(Optional.of("blob-first"), GitPatchCache.get("owner", "blobs", "head", "blob-first"));
+        assertEquals(1, lookups.get());
+        for (int i = 0; i < GitPatchCache.MAX_BLOB_SHAS; i++) {
+            GitPatchCache.get("owner", "blobs", "head", "blob" + i);
+        }
+        // The SHA of the first file was evicted and is looked up again, but its content is still cached.
+        int blobRequests = requests.get();
+        assertEquals(Optional.of("blob-first"), GitPatchCache.get("owner", "blobs", "head", "blob-first"));
+        assertEquals(GitPatchCache.MAX_BLOB_SHAS + 2, lookups.get());
+        assertEquals(blobRequests, requests.get());
+    }
+
+    private static GHPullRequest pullRequest(int number, String headSha) throws Exception {
+        GHRepository repository = GitHub.getMappingObjectReader().forType(GHRepository.class)
+                .readValue("{\"name\":\"repo\",\"full_name\":\"owner/repo\",\"owner\":{\"login\":\"owner\"}}");
+        GHPullRequest pullRequest = GitHub.getMappingObjectReader().forType(GHPullRequest.class)
+                .readValue("{\"number\":" + number + ",\"head\":{\"sha\":\"" + headSha + "\"}," +
+                        "\"diff_url\":\"https://github.com/owner/repo/pull/" + number + ".diff\"}");
+        // Pull requests are bound to their repository when GitHub lists them.
+        Method wrapUp = GHPullRequest.class.getDeclaredMethod("wrapUp", GHRepository.class);
+        wrapUp.setAccessible(true);
+        return (GHPullRequest) wrapUp.invoke(pullRequest, repository);
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.chains_project.miner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonUtilsTest {
+
+    @Test
+    void readsTheEntriesOfAnObjectInFileOrder(@TempDir Path directory) {
+        Path file = directory.resolve("counts.json");
+        Map<String, List<Integer>> counts = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            counts.put("owner/repo" + (i * 7919 % 1000), List.of(i, i * 2));
+        }
+        JsonUtils.writeToFile(file, counts);
+
+        List<Map.Entry<String, Object>> entries = new ArrayList<>();
+        try (JsonUtils.ObjectEntryReader<Object> reader = JsonUtils.readObjectEntries(file, Object.class)) {
+            reader.forEachRemaining(entries::add);
+        }
+
+        assertEquals(List.copyOf(counts.entrySet()), entries);
+    }
+
+    @Test
+    void readsAnEmptyFileAsAnEmptyObject(@TempDir Path directory) throws IOException {
+        Path empty = Files.createFile(directory.resolve("empty.json"));
+        Path array = Files.writeString(directory.resolve("array.json"), "[]");
+
+        try (JsonUtils.ObjectEntryReader<Object> reader = JsonUtils.readObjectEntries(empty, Object.class)) {
+            assertFalse(reader.hasNext());
+        }
+        assertThrows(RuntimeException.class, () -> JsonUtils.readObjectEntries(array, Object.class));
+    }
+
+    @Test
+    void coalescesTheSnapshotsRequestedWithinAnInterval(@TempDir Path directory) {
+        List<String> writes = new CopyOnWriteArrayList<>();
+        List<String> callbacks = new CopyOnWriteArrayList<>();
+        AtomicInteger supplied = new AtomicInteger();
+        JsonUtils.SnapshotWriter<String> writer = new JsonUtils.SnapshotWriter<>(directory.resolve("repos.json"),
+                Duration.ofHours(1), (file, data) -> writes.add(data));
+
+        // The first snapshot is written right away, and the next ones wait for the interval to pass.
+        writer.request(() -> "first", () -> callbacks.add("first"));
+        writer.flush();
+        for (String data : List.of("second", "third", "last")) {
+            writer.request(() -> {
+                supplied.incrementAndGet();
+                return data;
+            }, () -> callbacks.add(data));
+        }
+        assertEquals(List.of("first"), writes);
+        writer.close();
+
+        assertEquals(List.of("first", "last"), writes);
+        assertEquals(List.of("first", "last"), callbacks);
+        assertEquals(1, supplied.get());
+    }
+
+    @Test
+    void keepsTheTargetWhenAWriteFails(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("repos.json");
+        Files.writeString(file, "{\"owner/repo\":{}}");
+
+        assertThrows(RuntimeException.class, () -> JsonUtils.writeAtomically(file, out -> {
+            out.write("{\"owner/other\":".getBytes(StandardCharsets.UTF_8));
+            throw new IOException("Disk full");
+        }));
+
+        assertEquals("{\"owner/repo\":{}}", Files.readString(file));
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(file), files.toList());
+        }
+    }
+
+    @Test
+    void skipsTheCallbackOfASnapshotThatFailed(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("repos.json");
+        Files.writeString(file, "{}");
+        List<String> callbacks = new CopyOnWriteArrayList<>();
+        JsonUtils.SnapshotWriter<String> writer = new JsonUtils.SnapshotWriter<>(file, Duration.ZERO,
+                (path, data) -> JsonUtils.writeAtomically(path, out -> {
+                    throw new IOException("Disk full");
+                }));
+
+        writer.request(() -> "snapshot", () -> callbacks.add("snapshot"));
+        writer.close();
+
+        assertEquals(List.of(), callbacks);
+        assertEquals("{}", Files.readString(file));
+    }
+}
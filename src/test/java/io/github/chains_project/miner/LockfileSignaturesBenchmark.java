@@ -0,0 +1,130 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares classifying the entries of a repository tree with the {@link LockfileSignatures} table against the chain
+ * of path.contains() checks it replaced, with the ecosystems that were commented out in that chain enabled. The
+ * tree is generated: a monorepo of packages with source files, and a manifest and sometimes a lockfile in every
+ * package. Run from the project root with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) \
+ *     org.openjdk.jmh.Main LockfileSignaturesBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockfileSignaturesBenchmark {
+
+    private static final String[] SOURCE_FILES = {"index.js", "index.test.js", "README.md", "tsconfig.json",
+            "src/main.ts", "src/util/strings.ts", "docs/package.json.md", ".eslintrc.json", "LICENSE"};
+    private static final String[] PROJECT_FILES = {"package.json", "yarn.lock", "package-lock.json",
+            "pnpm-lock.yaml", "build.gradle", "Cargo.toml", "Cargo.lock", "composer.json", "Gemfile"};
+
+    @Param({"100000"})
+    public int entries;
+
+    private List<String> paths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        paths = new ArrayList<>(entries);
+        for (int i = 0; paths.size() < entries; i++) {
+            String directory = "packages/package" + i + "/";
+            for (int j = 0; j < 20 && paths.size() < entries; j++) {
+                paths.add(directory + SOURCE_FILES[random.nextInt(SOURCE_FILES.length)]);
+            }
+            if (paths.size() < entries)
+                paths.add(directory + PROJECT_FILES[random.nextInt(PROJECT_FILES.length)]);
+        }
+    }
+
+    @Benchmark
+    public ProjectInfo signatureTable() {
+        LockfileSignatures.Scan scan = new LockfileSignatures.Scan(EnumSet.allOf(ProjectType.class));
+        for (String path : paths) {
+            scan.accept(path);
+        }
+        return scan.toProjectInfo(null);
+    }
+
+    /**
+     * The matching that identifyProjectTypeAndLockfile did before the table, reduced to the flags it set.
+     */
+    @Benchmark
+    public int containsChain() {
+        int found = 0;
+        for (String path : paths) {
+            if (path.contains("package.json")) {
+                found |= 1;
+            } else if (path.contains("package-lock.json")) {
+                found |= 1 << 1;
+            } else if (path.contains("yarn.lock")) {
+                found |= 1 << 2;
+            } else if (path.contains("npm-shrinkwrap.json")) {
+                found |= 1 << 3;
+            } else if (path.contains("pnpm-lock.yaml")) {
+                found |= 1 << 4;
+            } else if (path.contains("bun.lockb")) {
+                found |= 1 << 5;
+            } else if (path.contains("build.gradle")) {
+                found |= 1 << 6;
+            } else if (path.contains("gradle.lockfile")) {
+                found |= 1 << 7;
+            } else if (path.contains("Pipfile")) {
+                found |= 1 << 8;
+            } else if (path.contains("Pipfile.lock")) {
+                found |= 1 << 9;
+            } else if (path.contains("Gemfile")) {
+                found |= 1 << 10;
+            } else if (path.contains("Gemfile.lock")) {
+                found |= 1 << 11;
+            } else if (path.contains("Chart.yaml")) {
+                found |= 1 << 12;
+            } else if (path.contains("Chart.lock")) {
+                found |= 1 << 13;
+            } else if (path.contains("composer.json")) {
+                found |= 1 << 14;
+            } else if (path.contains("composer.lock")) {
+                found |= 1 << 15;
+            } else if (path.contains("bower.json")) {
+                found |= 1 << 16;
+            } else if (path.contains("bower.lock")) {
+                found |= 1 << 17;
+            } else if (path.contains("Cargo.toml")) {
+                found |= 1 << 18;
+            } else if (path.contains("Cargo.lock")) {
+                found |= 1 << 19;
+            } else if (path.contains("packages.config")) {
+                found |= 1 << 20;
+            } else if (path.contains("packages.lock.json")) {
+                found |= 1 << 21;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.chains_project.miner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.chains_project.miner.PullRequestFilters.FileListCheck;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PullRequestFiltersTest {
+
+    private static final Pattern ALIAS = Pattern.compile("(p\\d+): repository\\(owner: \"[^\"]+\", name: \"([^\"]+)\"");
+    private static final String RATE_LIMITED = "{\"data\":null,\"errors\":[{\"type\":\"RATE_LIMITED\"}]}";
+
+    @Test
+    void recognizesTheLockfilesByName() {
+        assertTrue(PullRequestFilters.isLockfile("package-lock.json"));
+        assertTrue(PullRequestFilters.isLockfile("packages/app/yarn.lock"));
+        assertTrue(PullRequestFilters.isLockfile("pnpm-lock.yaml"));
+        assertTrue(PullRequestFilters.isLockfile("bun.lockb"));
+        assertTrue(PullRequestFilters.isLockfile("android/gradle.lockfile"));
+        assertFalse(PullRequestFilters.isLockfile("package.json"));
+        assertFalse(PullRequestFilters.isLockfile("Cargo.lock"));
+        assertFalse(PullRequestFilters.isLockfile("docs/yarn.lock.md"));
+    }
+
+    @Test
+    void classifiesPullRequestsByTheirListedFiles() throws Exception {
+        // Each repository is named after the files its pull request changes.
+        PullRequestFilters.initialize(query -> {
+            JsonObject data = new JsonObject();
+            Matcher alias = ALIAS.matcher(query);
+            while (alias.find()) {
+                data.add(alias.group(1), repositoryData(alias.group(2)));
+            }
+            JsonObject response = new JsonObject();
+            response.add("data", data);
+            return response;
+        });
+        List<GHPullRequest> batch = List.of(pullRequest("lockfile"), pullRequest("readme"), pullRequest("many"),
+                pullRequest("missing"));
+
+        assertEquals(List.of(FileListCheck.LOCKFILE, FileListCheck.NO_LOCKFILE, FileListCheck.UNDECIDED,
+                FileListCheck.UNDECIDED), PullRequestFilters.checkFileLists(batch));
+    }
+
+    @Test
+    void rateLimitedFileListsFailTheBatch() throws Exception {
+        PullRequestFilters.initialize(query -> JsonParser.parseString(RATE_LIMITED).getAsJsonObject());
+        long now = System.currentTimeMillis();
+
+        TokenUnavailableException unavailable = assertThrows(TokenUnavailableException.class,
+                () -> PullRequestFilters.checkFileLists(List.of(pullRequest("lockfile"))));
+        assertTrue(unavailable.getAvailableAt().getTime() >=
+                now + TokenUnavailableException.DEFAULT_RETRY_AFTER.toMillis());
+    }
+
+    @Test
+    void rateLimitedFileListsAreRetriedWhenTheLimitResets() throws Exception {
+        long resetAt = System.currentTimeMillis() / 1000 + 3600;
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .header("X-RateLimit-Remaining", "0")
+                        .header("X-RateLimit-Reset", String.valueOf(resetAt))
+                        .body(ResponseBody.create(RATE_LIMITED, MediaType.get("application/json")))
+                        .build())
+                .build();
+        PullRequestFilters.initialize(GraphQLTransport.overHttp(httpClient, GraphQLTransport.GITHUB_ENDPOINT,
+                () -> "token"));
+
+        TokenUnavailableException unavailable = assertThrows(TokenUnavailableException.class,
+                () -> PullRequestFilters.checkFileLists(List.of(pullRequest("lockfile"))));
+        assertEquals(resetAt * 1000, unavailable.getAvailableAt().getTime());
+    }
+
+    private static JsonObject repositoryData(String name) {
+        JsonObject repository = new JsonObject();
+        if (name.equals("missing")) {
+            repository.add("pullRequest", null);
+            return repository;
+        }
+        List<String> paths = switch (name) {
+            case "lockfile" -> List.of("package.json", "packages/app/package-lock.json");
+            case "readme" -> List.of("README.md", "src/index.js");
+            default -> IntStream.range(0, PullRequestFilters.MAX_LISTED_FILES)
+                    .mapToObj(i -> "src/file" + i + ".js").toList();
+        };
+        JsonArray nodes = new JsonArray();
+        for (String path : paths) {
+            JsonObject node = new JsonObject();
+            node.addProperty("path", path);
+            nodes.add(node);
+        }
+        JsonObject files = new JsonObject();
+        files.add("nodes", nodes);
+        JsonObject pullRequest = new JsonObject();
+        // The third pull request changes more files than are listed, one of which could be a lockfile.
+        pullRequest.addProperty("changedFiles", name.equals("many") ? paths.size() + 1 : paths.size());
+        pullRequest.add("files", files);
+        repository.add("pullRequest", pullRequest);
+        return repository;
+    }
+
+    private static GHPullRequest pullRequest(String repositoryName) throws Exception {
+        GHRepository repository = GitHub.getMappingObjectReader().forType(GHRepository.class)
+                .readValue("{\"name\":\"" + repositoryName + "\",\"full_name\":\"owner/" + repositoryName + "\"," +
+                        "\"owner\":{\"login\":\"owner\"}}");
+        GHPullRequest pullRequest = GitHub.getMappingObjectReader().forType(GHPullRequest.class)
+                .readValue("{\"number\":1}");
+        // Pull requests are bound to their repository when GitHub lists them.
+        Method wrapUp = GHPullRequest.class.getDeclaredMethod("wrapUp", GHRepository.class);
+        wrapUp.setAccessible(true);
+        return (GHPullRequest) wrapUp.invoke(pullRequest, repository);
+    }
+}
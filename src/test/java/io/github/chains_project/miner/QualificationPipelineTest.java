@@ -0,0 +1,175 @@
+package io.github.chains_project.miner;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class QualificationPipelineTest {
+
+    private static final Duration DEADLINE = Duration.ofMillis(200);
+    private static final Duration BODY_DURATION = Duration.ofSeconds(20);
+    private static HttpServer server;
+    private static OkHttpClient httpClient;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        // Sends the headers right away, and then the body one byte per 100 ms.
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/slow", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (long sent = 0; sent < BODY_DURATION.toMillis(); sent += 100) {
+                    body.write('x');
+                    body.flush();
+                    Thread.sleep(100);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client went away.
+            }
+        });
+        server.start();
+        httpClient = new OkHttpClient.Builder()
+                .addInterceptor(QualificationPipeline.CALL_TRACKER)
+                .readTimeout(BODY_DURATION.multipliedBy(2))
+                .build();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void deadlineCancelsReadingTheBody() {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        runCheck(repository -> {
+            try {
+                readSlowBody();
+            } catch (IOException e) {
+                failure.set(e);
+            }
+            return null;
+        });
+        assertInstanceOf(IOException.class, failure.get());
+    }
+
+    @Test
+    void deadlineCancelsCallsOfTasksOnOtherThreads() {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        runCheck(repository -> {
+            Runnable task = QualificationPipeline.inCurrentCheck(() -> {
+                try {
+                    readSlowBody();
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            });
+            CompletableFuture.runAsync(task).join();
+            return null;
+        });
+        assertInstanceOf(IOException.class, failure.get());
+    }
+
+    @Test
+    void checksWithAnUnavailableTokenGoOnWithAnotherToken() {
+        GHRepository rebound = repository();
+        Date inAnHour = new Date(System.currentTimeMillis() + 3_600_000);
+        AtomicReference<ProjectInfo> found = new AtomicReference<>();
+        Function<GHRepository, ProjectInfo> qualifier = repository -> {
+            if (repository != rebound)
+                throw new TokenUnavailableException("Out of requests", inAnHour);
+            return new ProjectInfo(repository, null, false, null);
+        };
+        assertTimeoutPreemptively(BODY_DURATION.dividedBy(2), () -> {
+            try (QualificationPipeline pipeline = new QualificationPipeline(1, 1, DEADLINE, qualifier, found::set,
+                    repository -> rebound)) {
+                pipeline.submit(repository()).get(BODY_DURATION.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+        assertEquals(rebound, found.get().repository());
+    }
+
+    @Test
+    void parkedChecksAreDoneWhenThePipelineIsClosed() {
+        Date soon = new Date(System.currentTimeMillis() + DEADLINE.toMillis());
+        CountDownLatch checked = new CountDownLatch(1);
+        Function<GHRepository, ProjectInfo> qualifier = repository -> {
+            checked.countDown();
+            throw new TokenUnavailableException("Out of requests", soon);
+        };
+        assertTimeoutPreemptively(BODY_DURATION.dividedBy(2), () -> {
+            CompletableFuture<Void> done;
+            try (QualificationPipeline pipeline = new QualificationPipeline(1, 1, DEADLINE, qualifier,
+                    projectInfo -> { })) {
+                done = pipeline.submit(repository());
+                checked.await();
+            }
+            done.get(BODY_DURATION.toMillis(), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    @Test
+    void closedPipelinesRejectRepositories() {
+        QualificationPipeline pipeline = new QualificationPipeline(1, 1, DEADLINE, repository -> null,
+                projectInfo -> { });
+        pipeline.close();
+        assertThrows(RejectedExecutionException.class, () -> pipeline.submit(repository()));
+    }
+
+    /**
+     * Run a single check, which must finish well before the body of the slow response is sent completely.
+     */
+    private static void runCheck(Function<GHRepository, ProjectInfo> qualifier) {
+        assertTimeoutPreemptively(BODY_DURATION.dividedBy(2), () -> {
+            try (QualificationPipeline pipeline = new QualificationPipeline(1, 1, DEADLINE, qualifier,
+                    projectInfo -> { })) {
+                pipeline.submit(repository()).get(BODY_DURATION.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private static void readSlowBody() throws IOException {
+        Request request = new Request.Builder()
+                .url("http://localhost:" + server.getAddress().getPort() + "/slow")
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            Objects.requireNonNull(response.body()).bytes();
+        }
+    }
+
+    private static GHRepository repository() {
+        try {
+            return GitHub.getMappingObjectReader().forType(GHRepository.class)
+                    .readValue("{\"name\":\"slow\",\"full_name\":\"owner/slow\",\"owner\":{\"login\":\"owner\"}}");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
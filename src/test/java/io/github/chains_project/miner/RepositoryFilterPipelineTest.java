@@ -0,0 +1,55 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilterPipeline.Filter;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RepositoryFilterPipelineTest {
+
+    @Test
+    void runsTheFiltersThatRejectMostCheaplyFirst() {
+        AtomicInteger checked = new AtomicInteger();
+        // A slow filter that rejects nothing, and a fast one that rejects every other repository.
+        Predicate<GHRepository> slow = repository -> {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        };
+        Predicate<GHRepository> selective = repository -> checked.incrementAndGet() % 2 == 0;
+        RepositoryFilterPipeline pipeline = new RepositoryFilterPipeline(List.of(
+                new Filter("slow", slow, false),
+                new Filter("selective", selective, false),
+                new Filter("free", repository -> true, true)), List.of(), false);
+
+        // Filters without statistics keep their order, after the free ones.
+        assertEquals(List.of("free", "slow", "selective"), pipeline.filterOrder());
+        for (int i = 0; i < 20; i++) {
+            pipeline.passesFilters(null);
+        }
+
+        assertEquals(List.of("free", "selective", "slow"), pipeline.filterOrder());
+    }
+
+    @Test
+    void stopsAtTheFirstFilterThatRejects() {
+        AtomicInteger laterChecks = new AtomicInteger();
+        RepositoryFilterPipeline pipeline = new RepositoryFilterPipeline(List.of(
+                new Filter("rejects", repository -> false, true),
+                new Filter("later", repository -> laterChecks.incrementAndGet() > 0, false)), List.of(), false);
+
+        for (int i = 0; i < 5; i++) {
+            pipeline.passesFilters(null);
+        }
+
+        assertEquals(0, laterChecks.get());
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.chains_project.miner;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RepositoryIndexTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void selectsRowsNotCheckedSinceAGivenTime() {
+        Random random = new Random(42);
+        RepositoryIndex index = new RepositoryIndex();
+        long[] checkTimes = new long[1000];
+        for (int row = 0; row < checkTimes.length; row++) {
+            checkTimes[row] = randomCheckTime(random);
+            index.add(row, 0, false, checkTimes[row]);
+        }
+        for (int round = 0; round < 50; round++) {
+            // Change some rows between queries, as the miner does when it checks repositories again.
+            for (int change = 0; change < 20; change++) {
+                int row = random.nextInt(checkTimes.length);
+                index.remove(row, 0, false, checkTimes[row]);
+                checkTimes[row] = randomCheckTime(random);
+                index.add(row, 0, false, checkTimes[row]);
+            }
+            long since = NOW - random.nextInt(100_000_000);
+            BitSet expected = new BitSet();
+            for (int row = 0; row < checkTimes.length; row++) {
+                if (checkTimes[row] == RepositoryTable.NOT_CHECKED || checkTimes[row] < since)
+                    expected.set(row);
+            }
+
+            BitSet stale = index.select(new RepositoryList.Query(null, null, new Date(since)), checkTimes.length);
+
+            assertEquals(expected, stale);
+        }
+    }
+
+    @Test
+    void comparesTheExactCheckTimesWithinTheSecondOfTheQuery() {
+        RepositoryIndex index = new RepositoryIndex();
+        index.add(0, 0, false, NOW + 999);
+        index.add(1, 0, false, NOW + 499);
+        index.add(2, 0, false, NOW + 500);
+        index.add(3, 0, false, NOW - 1);
+        index.add(4, 0, false, NOW + 1000);
+        BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(3);
+
+        BitSet stale = index.select(new RepositoryList.Query(null, null, new Date(NOW + 500)), 5);
+
+        assertEquals(expected, stale);
+    }
+
+    private static long randomCheckTime(Random random) {
+        return random.nextInt(10) == 0 ? RepositoryTable.NOT_CHECKED : NOW - random.nextInt(100_000_000);
+    }
+}
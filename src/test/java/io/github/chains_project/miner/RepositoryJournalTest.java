@@ -0,0 +1,164 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryJournalTest {
+
+    private static final RepositoryData NPM = new RepositoryData("https://api.github.com/repos/owner/npm", null,
+            List.of(ProjectType.NPM), true, List.of("package-lock.json"));
+    private static final RepositoryData CHECKED = new RepositoryData("https://api.github.com/repos/owner/npm",
+            new Date(1_700_000_000_000L), List.of(ProjectType.NPM), true, List.of("package-lock.json"));
+    private static final RepositoryData YARN = new RepositoryData("https://api.github.com/repos/owner/yarn", null,
+            List.of(ProjectType.YARN), true, List.of("yarn.lock"));
+
+    @Test
+    void replaysTheJournalOverTheSnapshot(@TempDir Path directory) throws IOException {
+        Path snapshotFile = directory.resolve("repos.json");
+        RepositoryListCodec.JSON.write(snapshotFile, Map.of("owner/npm", NPM));
+        Files.writeString(RepositoryJournal.journalFileFor(snapshotFile),
+                line("update", "owner/npm", CHECKED) + line("add", "owner/yarn", YARN));
+
+        try (RepositoryList repositories = new RepositoryList(snapshotFile)) {
+            assertEquals(CHECKED, repositories.getRepoByName("owner/npm"));
+            assertEquals(YARN, repositories.getRepoByName("owner/yarn"));
+        }
+        assertEquals(Map.of("owner/npm", CHECKED, "owner/yarn", YARN), read(snapshotFile));
+        assertEquals(0, Files.size(RepositoryJournal.journalFileFor(snapshotFile)));
+    }
+
+    @Test
+    void appendsAfterAChangeThatWasCutOff(@TempDir Path directory) throws IOException {
+        Path journalFile = directory.resolve("repos.json" + RepositoryJournal.JOURNAL_FILE_ENDING);
+        String complete = line("add", "owner/npm", NPM);
+        Files.writeString(journalFile, complete + line("add", "owner/yarn", YARN).substring(0, 20));
+
+        RepositoryJournal.Replay replay = RepositoryJournal.replay(journalFile, (name, data) -> { });
+        assertEquals(1, replay.changes());
+        assertEquals(complete.length(), replay.length());
+        // The snapshot fails, so that the journal is kept when it is closed.
+        RepositoryJournal journal = new RepositoryJournal(journalFile, replay.length(), Map::of,
+                snapshotWriter(directory, (file, repos) -> {
+                    throw new RuntimeException("Disk full");
+                }));
+        journal.append("update", "owner/npm", CHECKED);
+        journal.close();
+
+        Map<String, RepositoryData> replayed = new LinkedHashMap<>();
+        replay = RepositoryJournal.replay(journalFile, replayed::put);
+        assertEquals(2, replay.changes());
+        assertEquals(Files.size(journalFile), replay.length());
+        assertEquals(Map.of("owner/npm", CHECKED), replayed);
+    }
+
+    @Test
+    void removesAChangeThatWasCutOffWhenItIsTheOnlyOne(@TempDir Path directory) throws IOException {
+        Path journalFile = directory.resolve("repos.json" + RepositoryJournal.JOURNAL_FILE_ENDING);
+        Files.writeString(journalFile, line("add", "owner/npm", NPM).substring(0, 20));
+
+        RepositoryJournal.Replay replay = RepositoryJournal.replay(journalFile, (name, data) -> { });
+        RepositoryJournal journal = new RepositoryJournal(journalFile, replay.length(), Map::of,
+                snapshotWriter(directory, (file, repos) -> { }));
+
+        assertEquals(0, replay.changes());
+        assertEquals(0, Files.size(journalFile));
+        journal.close();
+    }
+
+    @Test
+    void compactionKeepsTheChangesWrittenDuringTheSnapshot(@TempDir Path directory) throws Exception {
+        Path journalFile = directory.resolve("repos.json" + RepositoryJournal.JOURNAL_FILE_ENDING);
+        Map<String, RepositoryData> repos = new ConcurrentHashMap<>();
+        CountDownLatch snapshotStarted = new CountDownLatch(1);
+        CountDownLatch finishSnapshot = new CountDownLatch(1);
+        RepositoryJournal journal = new RepositoryJournal(journalFile, 0, () -> new LinkedHashMap<>(repos),
+                snapshotWriter(directory, (file, snapshot) -> {
+                    snapshotStarted.countDown();
+                    try {
+                        finishSnapshot.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        repos.put("owner/npm", NPM);
+        journal.append("add", "owner/npm", NPM);
+        journal.compact();
+        snapshotStarted.await();
+
+        // The snapshot is being written, so this change is not part of it.
+        repos.put("owner/yarn", YARN);
+        journal.append("add", "owner/yarn", YARN);
+        String remaining = line("add", "owner/yarn", YARN);
+        awaitTrue(() -> Files.readString(journalFile).endsWith(remaining));
+        finishSnapshot.countDown();
+
+        awaitTrue(() -> Files.readString(journalFile).equals(remaining));
+        journal.close();
+    }
+
+    @Test
+    void writesAFinalSnapshotWhenClosed(@TempDir Path directory) throws IOException {
+        Path snapshotFile = directory.resolve("repos.json");
+        Path journalFile = RepositoryJournal.journalFileFor(snapshotFile);
+        Map<String, RepositoryData> repos = new ConcurrentHashMap<>();
+        RepositoryJournal journal = new RepositoryJournal(journalFile, 0, () -> new LinkedHashMap<>(repos),
+                new JsonUtils.SnapshotWriter<>(snapshotFile, Duration.ofHours(1), RepositoryListCodec.JSON::write));
+        repos.put("owner/npm", CHECKED);
+        journal.append("update", "owner/npm", CHECKED);
+
+        journal.close();
+
+        assertEquals(Map.of("owner/npm", CHECKED), read(snapshotFile));
+        assertEquals(0, Files.size(journalFile));
+    }
+
+    private static String line(String operation, String name, RepositoryData data) {
+        return JsonUtils.toJson(new RepositoryJournal.Change(operation, name, data)) + "\n";
+    }
+
+    private static JsonUtils.SnapshotWriter<Map<String, RepositoryData>> snapshotWriter(
+            Path directory, BiConsumer<Path, Map<String, RepositoryData>> write) {
+        return new JsonUtils.SnapshotWriter<>(directory.resolve("repos.json"), Duration.ZERO, write);
+    }
+
+    private static Map<String, RepositoryData> read(Path file) {
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        try (RepositoryListCodec.Entries entries = RepositoryListCodec.JSON.read(file)) {
+            entries.forEachRemaining(entry -> repos.put(entry.getKey(), entry.getValue()));
+        }
+        return repos;
+    }
+
+    /**
+     * Wait for the writer thread of the journal to get to a state.
+     */
+    private static void awaitTrue(IOCondition condition) throws Exception {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.test()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the journal");
+            Thread.sleep(10);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOCondition {
+        boolean test() throws IOException;
+    }
+}
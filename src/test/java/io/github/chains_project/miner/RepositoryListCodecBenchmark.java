@@ -0,0 +1,103 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares loading and saving the repository lists in output/ as JSON and in the binary format.
+ * <p>
+ * The save benchmarks write durably, like the miner does, so they include syncing the file and its directory. The
+ * files are written to a temporary directory in the given work directory, which can be set to a tmpfs such as
+ * /dev/shm to leave the cost of the disk out. Run from the project root with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) \
+ *     org.openjdk.jmh.Main RepositoryListCodecBenchmark [-p workDirectory=/dev/shm]
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryListCodecBenchmark {
+
+    @Param({"jsts_repositories_with_lockfiles.json", "repositories_with_lockfiles.json"})
+    public String list;
+    @Param({"target"})
+    public String workDirectory;
+
+    private Path directory;
+    private Path jsonFile;
+    private Path binaryFile;
+    private Map<String, RepositoryData> repos;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory(Path.of(workDirectory), "codec-benchmark");
+        jsonFile = directory.resolve(list);
+        binaryFile = directory.resolve(list + BinaryRepositoryListCodec.FILE_ENDING);
+        Files.copy(Path.of("output", list), jsonFile);
+        repos = load(RepositoryListCodec.JSON, jsonFile);
+        RepositoryListCodec.BINARY.write(binaryFile, repos);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, RepositoryData> loadJson() {
+        return load(RepositoryListCodec.JSON, jsonFile);
+    }
+
+    @Benchmark
+    public Map<String, RepositoryData> loadBinary() {
+        return load(RepositoryListCodec.BINARY, binaryFile);
+    }
+
+    @Benchmark
+    public void saveJson() {
+        RepositoryListCodec.JSON.write(jsonFile, repos);
+    }
+
+    @Benchmark
+    public void saveBinary() {
+        RepositoryListCodec.BINARY.write(binaryFile, repos);
+    }
+
+    private static Map<String, RepositoryData> load(RepositoryListCodec codec, Path file) {
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        try (RepositoryListCodec.Entries entries = codec.read(file)) {
+            entries.forEachRemaining(entry -> repos.put(entry.getKey(), entry.getValue()));
+        }
+        return repos;
+    }
+}
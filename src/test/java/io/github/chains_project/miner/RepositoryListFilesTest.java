@@ -0,0 +1,94 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryListFilesTest {
+
+    @Test
+    void mergesMoreListsThanTheFanInInSeveralPasses(@TempDir Path directory) throws IOException {
+        // Every list becomes at least one run, so this needs more than two passes.
+        int lists = RepositoryListFiles.MAX_FAN_IN * RepositoryListFiles.MAX_FAN_IN + 1;
+        List<Path> inputs = new ArrayList<>();
+        Map<String, RepositoryData> expected = new TreeMap<>();
+        for (int i = 0; i < lists; i++) {
+            Map<String, RepositoryData> list = new LinkedHashMap<>();
+            // Later lists check the shared repository later, so the last one must win.
+            list.put("owner/shared", new RepositoryData("https://github.com/owner/shared", new Date(i),
+                    List.of(ProjectType.npm), false, null));
+            list.put("owner/repo" + i, new RepositoryData("https://github.com/owner/repo" + i, null,
+                    List.of(ProjectType.YARN), true, List.of("yarn.lock", "packages/app/yarn.lock")));
+            Path input = directory.resolve("list" + i + BinaryRepositoryListCodec.FILE_ENDING);
+            RepositoryListCodec.BINARY.write(input, list);
+            inputs.add(input);
+            expected.putAll(list);
+        }
+        Path output = directory.resolve("merged.json");
+
+        int count = RepositoryListFiles.merge(inputs, output, MergePolicy.LATEST);
+
+        assertEquals(expected.size(), count);
+        Map<String, RepositoryData> merged = new LinkedHashMap<>();
+        try (RepositoryListCodec.Entries entries = RepositoryListCodec.JSON.read(output)) {
+            entries.forEachRemaining(entry -> merged.put(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(List.copyOf(expected.keySet()), List.copyOf(merged.keySet()));
+        assertEquals(expected.get("owner/shared").lastCheckedAt(), merged.get("owner/shared").lastCheckedAt());
+        assertEquals(expected.get("owner/repo7"), merged.get("owner/repo7"));
+        try (var files = Files.list(directory)) {
+            assertEquals(lists + 1, files.count());
+        }
+    }
+
+    @Test
+    void unionCombinesTheEntriesOfOverlappingLists(@TempDir Path directory) {
+        List<RepositoryData> entries = List.of(
+                new RepositoryData("https://github.com/owner/shared", new Date(2000), List.of(ProjectType.YARN),
+                        true, List.of("yarn.lock")),
+                new RepositoryData("https://github.com/owner/shared-renamed", new Date(3000),
+                        List.of(ProjectType.npm), false, List.of()),
+                new RepositoryData("https://github.com/owner/shared", null, List.of(ProjectType.PNPM, ProjectType.YARN),
+                        true, List.of("packages/app/pnpm-lock.yaml", "yarn.lock")));
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Path input = directory.resolve("list" + i + BinaryRepositoryListCodec.FILE_ENDING);
+            RepositoryListCodec.BINARY.write(input, Map.of("owner/shared", entries.get(i),
+                    "owner/only" + i, entries.get(i)));
+            inputs.add(input);
+        }
+        Path output = directory.resolve("merged.json");
+
+        int count = RepositoryListFiles.merge(inputs, output, MergePolicy.UNION);
+
+        assertEquals(entries.size() + 1, count);
+        Map<String, RepositoryData> merged = new LinkedHashMap<>();
+        try (RepositoryListCodec.Entries read = RepositoryListCodec.JSON.read(output)) {
+            read.forEachRemaining(entry -> merged.put(entry.getKey(), entry.getValue()));
+        }
+        RepositoryData shared = merged.get("owner/shared");
+        assertEquals(Set.of(ProjectType.YARN, ProjectType.npm, ProjectType.PNPM), Set.copyOf(shared.projectType()));
+        assertEquals(3, shared.projectType().size());
+        assertEquals(List.of("packages/app/pnpm-lock.yaml", "yarn.lock"), shared.lockfilePaths());
+        assertTrue(shared.lockfileExists());
+        // The entry checked last decides the check time and the URL.
+        assertEquals(new Date(3000), shared.lastCheckedAt());
+        assertEquals("https://github.com/owner/shared-renamed", shared.url());
+        assertEquals(entries.get(1), merged.get("owner/only1"));
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RepositoryListTest {
+
+    @Test
+    void iteratesTheRepositoriesWhileTheyAreLoaded(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("repos.json");
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            String name = "owner" + i % 100 + "/repo" + i;
+            repos.put(name, new RepositoryData("https://github.com/" + name, null,
+                    List.of(i % 2 == 0 ? ProjectType.npm : ProjectType.YARN), i % 3 == 0, List.of()));
+        }
+        RepositoryListCodec.JSON.write(file, repos);
+        // The journal updates a repository of the snapshot and adds one, which comes after those of the snapshot.
+        RepositoryData checked = new RepositoryData("https://github.com/owner5/repo105", new Date(1_700_000_000_000L),
+                List.of(ProjectType.YARN), false, List.of());
+        RepositoryData added = new RepositoryData("https://github.com/owner/added", null, List.of(ProjectType.npm),
+                true, List.of("package-lock.json"));
+        Files.writeString(RepositoryJournal.journalFileFor(file),
+                JsonUtils.toJson(new RepositoryJournal.Change("update", "owner5/repo105", checked)) + "\n" +
+                JsonUtils.toJson(new RepositoryJournal.Change("add", "owner/added", added)) + "\n");
+        Map<String, RepositoryData> expected = new LinkedHashMap<>(repos);
+        expected.put("owner5/repo105", checked);
+        expected.put("owner/added", added);
+
+        try (RepositoryList list = new RepositoryList(file)) {
+            // The iterator is created right away, so it reads the list while the loader thread is still loading it.
+            Map<String, RepositoryData> iterated = new LinkedHashMap<>();
+            Iterator<String> names = list.iterateRepositoryNames();
+            while (names.hasNext()) {
+                String name = names.next();
+                iterated.put(name, list.getRepoByName(name));
+            }
+
+            assertEquals(List.copyOf(expected.keySet()), List.copyOf(iterated.keySet()));
+            assertEquals(expected, iterated);
+            assertEquals(new ArrayList<>(list.getRepositoryNames()), List.copyOf(iterated.keySet()));
+        }
+    }
+}
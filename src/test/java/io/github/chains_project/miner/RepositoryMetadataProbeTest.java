@@ -0,0 +1,107 @@
+package io.github.chains_project.miner;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryMetadataProbeTest {
+
+    private static final GHRepository repository = repository();
+    private final AtomicBoolean limited = new AtomicBoolean();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void stubGitHub() {
+        // While rate limited, every request is answered with a secondary rate limit asking to retry in an hour.
+        // Otherwise a list of seven items is listed one per page.
+        limited.set(true);
+        requests.set(0);
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    requests.incrementAndGet();
+                    Response.Builder response = new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1);
+                    if (!limited.get())
+                        return response.code(200)
+                                .message("OK")
+                                .header("Link", "<" + chain.request().url() + "&page=7>; rel=\"last\"")
+                                .body(ResponseBody.create("[{}]", MediaType.get("application/json")))
+                                .build();
+                    return response.code(403)
+                            .message("Forbidden")
+                            .header("Retry-After", "3600")
+                            .body(ResponseBody.create("{\"message\":\"You have exceeded a secondary rate limit\"}",
+                                    MediaType.get("application/json")))
+                            .build();
+                })
+                .build();
+        GitHubAPITokenQueue tokenQueue = new GitHubAPITokenQueue(List.of("token"));
+        RepositoryMetadataProbe.initialize(httpClient, tokenQueue);
+        RepositoryTreeScanner.initialize(httpClient, tokenQueue);
+    }
+
+    @AfterEach
+    void forgetRepository() {
+        RepositoryMetadataProbe.forget(repository);
+    }
+
+    @Test
+    void rateLimitedProbesFailWithTheRetryTime() {
+        long inHalfAnHour = System.currentTimeMillis() + 1_800_000;
+        TokenUnavailableException unavailable = assertThrows(TokenUnavailableException.class,
+                () -> RepositoryMetadataProbe.getCommitCount(repository));
+        assertTrue(unavailable.getAvailableAt().getTime() > inHalfAnHour);
+    }
+
+    @Test
+    void failedProbesAreMadeAgainAndSuccessfulOnesAreRemembered() throws IOException {
+        assertThrows(TokenUnavailableException.class, () -> RepositoryMetadataProbe.getContributorCount(repository));
+        limited.set(false);
+
+        assertEquals(7, RepositoryMetadataProbe.getContributorCount(repository));
+        assertEquals(7, RepositoryMetadataProbe.getContributorCount(repository));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void rateLimitedFiltersFailInsteadOfRejectingTheRepository() {
+        assertThrows(TokenUnavailableException.class,
+                () -> RepositoryFilters.hasSufficientNumberOfCommits(repository, 1));
+        assertThrows(TokenUnavailableException.class,
+                () -> RepositoryFilters.hasSufficientNumberOfContributors(repository, 1));
+        assertThrows(TokenUnavailableException.class,
+                () -> RepositoryFilters.isLastCommitWithinThreeMonths(repository));
+        assertThrows(TokenUnavailableException.class,
+                () -> RepositoryFilters.identifyProjectTypeAndLockfileRecursively(repository,
+                        List.of(RepositoryFilters.ProjectType.npm)));
+    }
+
+    private static GHRepository repository() {
+        try {
+            return GitHub.getMappingObjectReader().forType(GHRepository.class)
+                    .readValue("{\"name\":\"limited\",\"full_name\":\"owner/limited\"," +
+                            "\"owner\":{\"login\":\"owner\"},\"default_branch\":\"main\"," +
+                            "\"url\":\"https://api.github.com/repos/owner/limited\"}");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package io.github.chains_project.miner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import io.github.chains_project.miner.GitHubMiner.RepositorySearchConfig;
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryQualifierTest {
+
+    private static final RepositorySearchConfig SEARCH_CONFIG =
+            new RepositorySearchConfig(10, new Date(), 100, 5, List.of(ProjectType.npm));
+    private static final Pattern ALIAS = Pattern.compile("(r\\d+): repository\\(owner: \"[^\"]+\", name: \"([^\"]+)\"");
+    private static final AtomicInteger contributorRequests = new AtomicInteger();
+    private static final AtomicInteger rateLimitedContributorRequests = new AtomicInteger();
+    private static HttpServer server;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        // Every repository has 10 contributors, reported through the last page of a single-item listing.
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/repos/", exchange -> {
+            contributorRequests.incrementAndGet();
+            exchange.getResponseHeaders().add("Link", "<" + exchange.getRequestURI() + "&page=10>; rel=\"last\"");
+            byte[] body = "[{\"login\":\"someone\"}]".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // The first request for the contributors of this repository hits a secondary rate limit.
+        server.createContext("/repos/owner/limited-contributors/contributors", exchange -> {
+            if (rateLimitedContributorRequests.getAndIncrement() % 2 == 0) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(403, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Link", "<" + exchange.getRequestURI() + "&page=10>; rel=\"last\"");
+            byte[] body = "[{\"login\":\"someone\"}]".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // A Rust project, with the project files of Cargo in its root.
+        server.createContext("/repos/owner/cargo-only/git/trees/", exchange -> {
+            byte[] body = ("{\"sha\":\"main\",\"tree\":[{\"path\":\"Cargo.toml\",\"type\":\"blob\"}," +
+                    "{\"path\":\"Cargo.lock\",\"type\":\"blob\"},{\"path\":\"src/main.rs\",\"type\":\"blob\"}]," +
+                    "\"truncated\":false}").getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        GitHubAPITokenQueue tokenQueue = new GitHubAPITokenQueue(List.of("token"));
+        RepositoryMetadataProbe.initialize(new OkHttpClient(), tokenQueue);
+        RepositoryTreeScanner.initialize(new OkHttpClient(), tokenQueue);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void qualifiesEachBatchWithOneQuery() {
+        List<String> queries = new ArrayList<>();
+        GraphQLTransport transport = query -> {
+            queries.add(query);
+            return answer(query, name -> repositoryData(150, Instant.now(), "package.json", "yarn.lock"));
+        };
+        List<GHRepository> repositories = repositories("batch", RepositoryQualifier.BATCH_SIZE + 1);
+
+        List<ProjectInfo> qualified = new RepositoryQualifier(transport).qualify(repositories, SEARCH_CONFIG, false);
+
+        assertEquals(2, queries.size());
+        assertEquals(repositories.size(), qualified.size());
+        for (ProjectInfo projectInfo : qualified) {
+            assertEquals(List.of(ProjectType.YARN), projectInfo.projectType());
+            assertTrue(projectInfo.lockfileExists());
+        }
+    }
+
+    @Test
+    void looksForTheProjectFilesOfTheConfiguredEcosystems() {
+        List<String> queries = new ArrayList<>();
+        GraphQLTransport transport = query -> {
+            queries.add(query);
+            return answer(query, name -> null);
+        };
+        RepositorySearchConfig cargo = new RepositorySearchConfig(10, new Date(), 100, 5, List.of(ProjectType.CARGO));
+
+        new RepositoryQualifier(transport).qualify(repositories("cargo", 1), cargo, false);
+
+        assertTrue(queries.get(0).contains("f1: object(expression: \"HEAD:Cargo.lock\")"));
+        assertFalse(queries.get(0).contains("f2:"));
+        assertFalse(queries.get(0).contains("package.json"));
+    }
+
+    @Test
+    void ignoresTheProjectFilesOfOtherEcosystems() {
+        GHRepository cargoOnly = repositories(List.of("cargo-only")).get(0);
+        GraphQLTransport transport = query -> answer(query, name -> repositoryData(150, Instant.now()));
+
+        assertNull(RepositoryFilters.identifyProjectTypeAndLockfile(cargoOnly,
+                List.of("Cargo.toml", "Cargo.lock", "README.md"), SEARCH_CONFIG.ecosystems()));
+        assertNull(RepositoryFilters.identifyProjectTypeAndLockfileRecursively(cargoOnly, SEARCH_CONFIG.ecosystems()));
+        assertTrue(new RepositoryQualifier(transport).qualify(List.of(cargoOnly), SEARCH_CONFIG, false).isEmpty());
+        assertTrue(new RepositoryQualifier(transport).qualify(List.of(cargoOnly), SEARCH_CONFIG, true).isEmpty());
+        assertEquals(List.of(ProjectType.CARGO), RepositoryFilters.identifyProjectTypeAndLockfileRecursively(
+                cargoOnly, List.of(ProjectType.CARGO)).projectType());
+    }
+
+    @Test
+    void searchesForNpmProjectsByDefault() {
+        RepositorySearchConfig searchConfig = new RepositorySearchConfig(10, new Date(), 100, 5, null);
+
+        assertEquals(List.of(ProjectType.npm), searchConfig.ecosystems());
+    }
+
+    @Test
+    void rejectsRepositoriesWithoutContributorRequests() {
+        Instant old = Instant.now().minus(200, ChronoUnit.DAYS);
+        Map<String, JsonObject> data = Map.of(
+                "few-commits", repositoryData(99, Instant.now(), "package.json"),
+                "inactive", repositoryData(150, old, "package.json"),
+                "empty", new JsonObject());
+        GraphQLTransport transport = query -> answer(query, data::get);
+        int requestsBefore = contributorRequests.get();
+
+        List<ProjectInfo> qualified = new RepositoryQualifier(transport)
+                .qualify(repositories(data.keySet()), SEARCH_CONFIG, false);
+
+        assertTrue(qualified.isEmpty());
+        assertEquals(requestsBefore, contributorRequests.get());
+    }
+
+    @Test
+    void skipsRepositoriesWithoutData() {
+        GraphQLTransport transport = query -> answer(query, name -> name.equals("missing") ? null
+                : repositoryData(150, Instant.now(), "package.json"));
+
+        List<ProjectInfo> qualified = new RepositoryQualifier(transport)
+                .qualify(repositories(List.of("missing", "present")), SEARCH_CONFIG, false);
+
+        assertEquals(1, qualified.size());
+        assertEquals("owner/present", qualified.get(0).repository().getFullName());
+        assertEquals(List.of(ProjectType.npm), qualified.get(0).projectType());
+    }
+
+    @Test
+    void queriesRateLimitedBatchesAgain() {
+        AtomicInteger attempts = new AtomicInteger();
+        GraphQLTransport transport = query -> attempts.incrementAndGet() == 1 ? rateLimited()
+                : answer(query, name -> repositoryData(150, Instant.now(), "package.json", "package-lock.json"));
+
+        List<ProjectInfo> qualified = new RepositoryQualifier(transport)
+                .qualify(repositories("retried", 1), SEARCH_CONFIG, false);
+
+        assertEquals(2, attempts.get());
+        assertEquals(List.of(ProjectType.NPM), qualified.get(0).projectType());
+    }
+
+    @Test
+    void waitsForBatchesThatStayRateLimited() {
+        // Every token tried is rate limited for a moment, as with a secondary rate limit of the account.
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicLong availableAt = new AtomicLong();
+        GraphQLTransport transport = query -> {
+            if (attempts.incrementAndGet() <= 3) {
+                availableAt.set(System.currentTimeMillis() + 200);
+                throw new TokenUnavailableException("GraphQL query was rate limited", new Date(availableAt.get()));
+            }
+            assertTrue(System.currentTimeMillis() >= availableAt.get());
+            return answer(query, name -> repositoryData(150, Instant.now(), "package.json"));
+        };
+
+        List<ProjectInfo> qualified = new RepositoryQualifier(transport)
+                .qualify(repositories("limited", RepositoryQualifier.BATCH_SIZE), SEARCH_CONFIG, false);
+
+        assertEquals(4, attempts.get());
+        assertEquals(RepositoryQualifier.BATCH_SIZE, qualified.size());
+    }
+
+    @Test
+    void checksRepositoriesAgainWhenTheirRestRequestsAreRateLimited() {
+        GraphQLTransport transport = query -> answer(query, name -> repositoryData(150, Instant.now(),
+                "package.json"));
+        int requestsBefore = rateLimitedContributorRequests.get();
+
+        List<ProjectInfo> qualified = new RepositoryQualifier(transport)
+                .qualify(repositories(List.of("limited-contributors")), SEARCH_CONFIG, false);
+
+        assertEquals(1, qualified.size());
+        assertEquals(requestsBefore + 2, rateLimitedContributorRequests.get());
+    }
+
+    /**
+     * Answer a qualification query with the data given for the name of each repository in it.
+     */
+    private static JsonObject answer(String query, Function<String, JsonObject> data) {
+        JsonObject answer = new JsonObject();
+        Matcher alias = ALIAS.matcher(query);
+        while (alias.find()) {
+            answer.add(alias.group(1), data.apply(alias.group(2)));
+        }
+        JsonObject response = new JsonObject();
+        response.add("data", answer);
+        return response;
+    }
+
+    private static JsonObject rateLimited() {
+        return JsonParser.parseString("{\"data\":null,\"errors\":[{\"type\":\"RATE_LIMITED\"}]}").getAsJsonObject();
+    }
+
+    private static JsonObject repositoryData(int commits, Instant lastCommit, String... rootFiles) {
+        JsonObject commit = new JsonObject();
+        commit.addProperty("committedDate", lastCommit.toString());
+        JsonArray nodes = new JsonArray();
+        nodes.add(commit);
+        JsonObject history = new JsonObject();
+        history.addProperty("totalCount", commits);
+        history.add("nodes", nodes);
+        JsonObject target = new JsonObject();
+        target.add("history", history);
+        JsonObject defaultBranch = new JsonObject();
+        defaultBranch.add("target", target);
+        JsonObject data = new JsonObject();
+        data.add("defaultBranchRef", defaultBranch);
+        for (String rootFile : rootFiles) {
+            JsonObject blob = new JsonObject();
+            blob.addProperty("__typename", "Blob");
+            data.add("f" + LockfileSignatures.fileNames(SEARCH_CONFIG.ecosystems()).indexOf(rootFile), blob);
+        }
+        return data;
+    }
+
+    private static List<GHRepository> repositories(String prefix, int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(prefix + i);
+        }
+        return repositories(names);
+    }
+
+    private static List<GHRepository> repositories(Iterable<String> names) {
+        List<GHRepository> repositories = new ArrayList<>();
+        for (String name : names) {
+            String json = "{\"name\":\"" + name + "\",\"full_name\":\"owner/" + name + "\",\"owner\":{\"login\":" +
+                    "\"owner\"},\"default_branch\":\"main\",\"url\":\"http://localhost:" +
+                    server.getAddress().getPort() + "/repos/owner/" + name + "\"}";
+            try {
+                repositories.add(GitHub.getMappingObjectReader().forType(GHRepository.class).readValue(json));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return repositories;
+    }
+}
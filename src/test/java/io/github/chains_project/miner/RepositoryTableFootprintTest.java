@@ -0,0 +1,48 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the retained heap of a {@link RepositoryTable} against a map of {@link RepositoryData} records, the
+ * layout used before, with JOL. Every repository has one project type and one lockfile path, and half of them
+ * were checked. The number of repositories defaults to 20,000 and can be set with -Dfootprint.repositories.
+ */
+class RepositoryTableFootprintTest {
+
+    private static final int REPOSITORIES = Integer.getInteger("footprint.repositories", 20_000);
+    private static final List<ProjectType> TYPES = List.of(ProjectType.NPM, ProjectType.YARN, ProjectType.PNPM);
+    private static final List<String> PATHS = List.of("package-lock.json", "yarn.lock", "pnpm-lock.yaml");
+
+    @Test
+    void tableTakesLessThanHalfTheHeapOfRecords() {
+        Map<String, RepositoryData> records = new HashMap<>();
+        RepositoryTable table = new RepositoryTable();
+        for (int i = 0; i < REPOSITORIES; i++) {
+            String name = "owner" + i / 10 + "/repository" + i;
+            // Each record gets its own strings, as when it is deserialized from a file.
+            RepositoryData data = new RepositoryData("https://api.github.com/repos/" + name,
+                    i % 2 == 0 ? new Date(1_700_000_000_000L + i) : null,
+                    Collections.singletonList(TYPES.get(i % TYPES.size())), true,
+                    List.of(new String(PATHS.get(i % PATHS.size()))));
+            records.put(name, data);
+            table.put(name, data);
+        }
+
+        long recordBytes = GraphLayout.parseInstance(records).totalSize();
+        long tableBytes = GraphLayout.parseInstance(table).totalSize();
+        assertTrue(2 * tableBytes < recordBytes, () -> String.format("%d repositories: table %d bytes (%d per " +
+                        "repository), records %d bytes (%d per repository)", REPOSITORIES, tableBytes,
+                tableBytes / REPOSITORIES, recordBytes, recordBytes / REPOSITORIES));
+    }
+}
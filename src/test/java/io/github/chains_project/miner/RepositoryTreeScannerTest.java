@@ -0,0 +1,106 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryTreeScannerTest {
+
+    private static final String TREES = "https://api.github.com/repos/owner/monorepo/git/trees/";
+    /**
+     * The trees of a monorepo too large to be listed recursively at once, by the path and query of their request.
+     */
+    private static final Map<String, String> TREE_RESPONSES = Map.of(
+            // The truncated listing reports a lockfile in the root that is not on the branch anymore.
+            "main?recursive=1", tree(true, blob("package.json"), blob("yarn.lock")),
+            "main", tree(false, blob("package.json"), subtree("packages", "p"), subtree("test", "t"),
+                    subtree("node_modules", "n")),
+            "p?recursive=1", tree(true, subtree("app", "a")),
+            "p", tree(false, subtree("app", "a"), blob("README.md")),
+            "a?recursive=1", tree(false, blob("package.json"), blob("package-lock.json"), blob("src/index.js")),
+            "t?recursive=1", tree(false, subtree("fixtures", "f"), blob("fixtures/package.json"),
+                    blob("fixtures/yarn.lock")));
+
+    @Test
+    void ignoresVendoredDependencies() {
+        assertTrue(RepositoryTreeScanner.isIgnored("node_modules"));
+        assertTrue(RepositoryTreeScanner.isIgnored("packages/app/node_modules/left-pad/package.json"));
+        assertFalse(RepositoryTreeScanner.isIgnored("test/fixtures/package.json"));
+        assertFalse(RepositoryTreeScanner.isIgnored("package.json"));
+        assertFalse(RepositoryTreeScanner.isIgnored("packages/app/package.json"));
+    }
+
+    @Test
+    void keepsLockfilesNextToAManifestOfTheirEcosystem() {
+        List<String> matches = List.of("package.json", "yarn.lock", "packages/app/package.json",
+                "packages/app/package-lock.json", "tools/pnpm-lock.yaml", "android/gradle.lockfile",
+                "android/package.json");
+
+        assertEquals(List.of("package.json", "yarn.lock", "packages/app/package.json",
+                "packages/app/package-lock.json", "android/package.json"),
+                RepositoryTreeScanner.projectFiles(matches));
+    }
+
+    @Test
+    void scansTheSubtreesOfATruncatedTree() throws Exception {
+        Queue<String> requested = new ConcurrentLinkedQueue<>();
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            String url = chain.request().url().toString();
+            requested.add(url.substring(TREES.length()));
+            String tree = TREE_RESPONSES.get(url.substring(TREES.length()));
+            return new Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(tree != null ? 200 : 404)
+                    .message(tree != null ? "OK" : "Not Found")
+                    .body(ResponseBody.create(tree != null ? tree : "{}", MediaType.get("application/json")))
+                    .build();
+        }).build();
+        RepositoryTreeScanner.initialize(httpClient, new GitHubAPITokenQueue(List.of("token")));
+        GHRepository repository = GitHub.getMappingObjectReader().forType(GHRepository.class)
+                .readValue("{\"name\":\"monorepo\",\"full_name\":\"owner/monorepo\"," +
+                        "\"owner\":{\"login\":\"owner\"},\"default_branch\":\"main\"," +
+                        "\"url\":\"https://api.github.com/repos/owner/monorepo\"}");
+
+        ProjectInfo projectInfo = RepositoryTreeScanner.scan(repository, List.of(ProjectType.npm));
+
+        assertTrue(projectInfo.lockfileExists());
+        assertEquals(Set.of(ProjectType.NPM, ProjectType.YARN), Set.copyOf(projectInfo.projectType()));
+        assertEquals(Set.of("packages/app/package-lock.json", "test/fixtures/yarn.lock"),
+                Set.copyOf(projectInfo.lockfilePaths()));
+        assertEquals(Set.of("main?recursive=1", "main", "p?recursive=1", "p", "a?recursive=1", "t?recursive=1"),
+                Set.copyOf(requested));
+        assertEquals(6, requested.size());
+    }
+
+    private static String tree(boolean truncated, String... entries) {
+        return "{\"sha\":\"0\",\"url\":\"" + TREES + "0\",\"tree\":[" + String.join(",", entries) + "]," +
+                "\"truncated\":" + truncated + "}";
+    }
+
+    private static String blob(String path) {
+        return "{\"path\":\"" + path + "\",\"mode\":\"100644\",\"type\":\"blob\",\"sha\":\"0\",\"size\":42," +
+                "\"url\":\"https://api.github.com/repos/owner/monorepo/git/blobs/0\"}";
+    }
+
+    private static String subtree(String path, String sha) {
+        return "{\"path\":\"" + path + "\",\"mode\":\"040000\",\"type\":\"tree\",\"sha\":\"" + sha + "\"," +
+                "\"url\":\"" + TREES + sha + "\"}";
+    }
+}
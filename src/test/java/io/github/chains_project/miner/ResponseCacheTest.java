@@ -0,0 +1,82 @@
+package io.github.chains_project.miner;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResponseCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Test
+    void revalidatesResponsesCachedWithAnotherToken(@TempDir Path directory) throws IOException {
+        // GitHub marks its responses as varying by token and as stale right away, so they are always revalidated.
+        Queue<String> conditions = new ConcurrentLinkedQueue<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/repos/owner/repo", exchange -> {
+            String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+            conditions.add(String.valueOf(condition));
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.getResponseHeaders().add("Cache-Control", "private, max-age=0");
+            exchange.getResponseHeaders().add("Vary", "Accept, Authorization");
+            if (ETAG.equals(condition)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = "{\"full_name\":\"owner/repo\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        ResponseCache responseCache = new ResponseCache(directory, ResponseCache.DEFAULT_MAX_SIZE);
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addNetworkInterceptor(responseCache.networkInterceptor())
+                .cache(responseCache.cache())
+                .build();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/repos/owner/repo";
+        try {
+            try (Response first = httpClient.newCall(request(url, "token a")).execute()) {
+                assertEquals("{\"full_name\":\"owner/repo\"}", first.body().string());
+                assertNull(first.cacheResponse());
+            }
+            try (Response second = httpClient.newCall(request(url, "token b")).execute()) {
+                assertEquals(200, second.code());
+                assertEquals("{\"full_name\":\"owner/repo\"}", second.body().string());
+                assertNotNull(second.cacheResponse());
+                assertEquals(304, second.networkResponse().code());
+            }
+        } finally {
+            server.stop(0);
+            responseCache.cache().close();
+        }
+
+        assertEquals(List.of("null", ETAG), List.copyOf(conditions));
+        assertEquals(1, responseCache.hitCount());
+        assertEquals(1, responseCache.notModifiedCount());
+        assertEquals(1, responseCache.missCount());
+    }
+
+    private static Request request(String url, String authorization) {
+        return new Request.Builder()
+                .url(url)
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", authorization)
+                .build();
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.chains_project.miner;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchSliceTest {
+
+    @Test
+    void splitsByStarsBelowTheMostStarredRepository() {
+        List<SearchSlice> halves = SearchSlice.withStarsAtLeast(10).split(30);
+
+        assertEquals(List.of(new SearchSlice(10, 20, 0, SearchSlice.UNBOUNDED),
+                new SearchSlice(21, SearchSlice.UNBOUNDED, 0, SearchSlice.UNBOUNDED)), halves);
+    }
+
+    @Test
+    void splitsBySizeOnceAllRepositoriesHaveTheSameStars() {
+        List<SearchSlice> halves = SearchSlice.withStarsAtLeast(10).split(10);
+
+        assertEquals(10, halves.get(0).maxStars());
+        assertEquals("10", halves.get(0).starsQuery());
+        assertEquals(halves.get(0).maxSize() + 1, halves.get(1).minSize());
+        assertEquals(SearchSlice.UNBOUNDED, halves.get(1).maxSize());
+    }
+
+    @Test
+    void splitsSizesBelowTheLargestRepositorySize() {
+        List<SearchSlice> halves = SearchSlice.withStarsAtLeast(10).split(10);
+
+        assertEquals(SearchSlice.MAX_REPOSITORY_SIZE / 2, halves.get(0).maxSize());
+        // Repositories larger than expected are still in the upper half.
+        assertEquals(SearchSlice.UNBOUNDED, halves.get(1).maxSize());
+        List<SearchSlice> upper = new SearchSlice(10, 10, SearchSlice.MAX_REPOSITORY_SIZE, SearchSlice.UNBOUNDED)
+                .split(10);
+        assertEquals(List.of(new SearchSlice(10, 10, SearchSlice.MAX_REPOSITORY_SIZE, SearchSlice.MAX_REPOSITORY_SIZE),
+                new SearchSlice(10, 10, SearchSlice.MAX_REPOSITORY_SIZE + 1, SearchSlice.UNBOUNDED)), upper);
+    }
+
+    @Test
+    void repeatedSplitsPartitionTheSliceAndEnd() {
+        // Split every slice until it can not be split any further, as if all of them had too many results, and
+        // count the star and size values covered.
+        Deque<SearchSlice> slices = new ArrayDeque<>(List.of(new SearchSlice(0, 7, 0, 3)));
+        long covered = 0;
+        while (!slices.isEmpty()) {
+            SearchSlice slice = slices.pop();
+            List<SearchSlice> halves = slice.split(slice.maxStars());
+            if (halves.isEmpty()) {
+                assertEquals(slice.minStars(), slice.maxStars());
+                assertEquals(slice.minSize(), slice.maxSize());
+                covered++;
+            }
+            halves.forEach(slices::push);
+        }
+        assertEquals(8 * 4, covered);
+    }
+
+    @Test
+    void queriesUseTheGitHubRangeSyntax() {
+        SearchSlice slice = new SearchSlice(5, 9, 100, SearchSlice.UNBOUNDED);
+
+        assertEquals("5..9", slice.starsQuery());
+        assertEquals(">=100", slice.sizeQuery());
+        assertNull(SearchSlice.withStarsAtLeast(5).sizeQuery());
+        assertTrue(SearchSlice.withStarsAtLeast(5).toString().startsWith("stars:>=5"));
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.chains_project.miner;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchWindowTest {
+
+    private static final Instant END = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Instant LOWER = Instant.parse("2010-01-01T00:00:00Z");
+
+    @Test
+    void quietWindowsGrowAtMostTwofold() {
+        SearchWindow window = new SearchWindow(END.minus(Duration.ofDays(1)), END);
+
+        assertEquals(Duration.ofDays(2), window.next(0, LOWER).size());
+        assertEquals(Duration.ofDays(2), window.next(10, LOWER).size());
+    }
+
+    @Test
+    void denseWindowsShrinkTowardsTheTarget() {
+        SearchWindow window = new SearchWindow(END.minus(Duration.ofDays(8)), END);
+
+        SearchWindow next = window.next(SearchWindow.TARGET_RESULTS * 4, LOWER);
+
+        assertEquals(Duration.ofDays(2), next.size());
+        assertEquals(window.start(), next.end());
+    }
+
+    @Test
+    void windowsStayWithinTheSizeLimits() {
+        SearchWindow small = new SearchWindow(END.minus(SearchWindow.MIN_SIZE), END);
+        SearchWindow large = new SearchWindow(END.minus(SearchWindow.MAX_SIZE), END);
+
+        assertEquals(SearchWindow.MIN_SIZE, small.next(SearchWindow.MAX_SEARCH_RESULTS * 10, LOWER).size());
+        assertEquals(SearchWindow.MAX_SIZE, large.next(0, LOWER).size());
+    }
+
+    @Test
+    void nextWindowStopsAtTheLowerBound() {
+        SearchWindow window = new SearchWindow(LOWER.plus(Duration.ofDays(1)), LOWER.plus(Duration.ofDays(2)));
+
+        assertEquals(LOWER, window.next(0, LOWER).start());
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.RepositoryFilters.ProjectType;
+import io.github.chains_project.miner.RepositoryList.RepositoryData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardTest {
+
+    @Test
+    void putsEveryRepositoryInExactlyOneShard() {
+        List<Shard> shards = List.of(new Shard(1, 3), new Shard(2, 3), new Shard(3, 3));
+        int[] sizes = new int[shards.size()];
+        for (int i = 0; i < 3000; i++) {
+            String name = "owner" + i % 17 + "/repo" + i;
+            int containing = 0;
+            for (Shard shard : shards) {
+                if (shard.contains(name)) {
+                    containing++;
+                    sizes[shard.index() - 1]++;
+                }
+            }
+            assertEquals(1, containing, name);
+        }
+        for (int size : sizes) {
+            assertTrue(size > 800, "shard sizes " + List.of(sizes[0], sizes[1], sizes[2]));
+        }
+    }
+
+    @Test
+    void assignsRepositoriesByTheirNameInAnyCase() {
+        // The assignment must not change between runs and machines, or a shard would miss repositories.
+        assertTrue(new Shard(2, 3).contains("apache/maven"));
+        assertTrue(new Shard(2, 3).contains("Apache/Maven"));
+        assertTrue(new Shard(2, 3).contains("facebook/react"));
+        assertTrue(new Shard(1, 3).contains("vuejs/vue"));
+        assertTrue(new Shard(1, 3).contains("VueJS/Vue"));
+    }
+
+    @Test
+    void rejectsShardsOutsideTheCount() {
+        assertEquals(new Shard(2, 4), Shard.valueOf("2/4"));
+        assertEquals(new Shard(3, 3), Shard.valueOf(" 3 / 3 "));
+        assertThrows(IllegalArgumentException.class, () -> Shard.valueOf("0/3"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.valueOf("4/3"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.valueOf("a/b"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.valueOf("2"));
+    }
+
+    @Test
+    void namesTheShardFileAfterTheList() {
+        Shard shard = new Shard(2, 4);
+
+        assertEquals(Path.of("out/repos.shard-2-of-4.json"), shard.fileFor(Path.of("out/repos.json")));
+        assertEquals(Path.of("repos.shard-2-of-4.bin"), shard.fileFor(Path.of("repos.bin")));
+        assertEquals(Path.of("repos.shard-2-of-4"), shard.fileFor(Path.of("repos")));
+    }
+
+    @Test
+    void opensAnExistingShardFileAsItIs(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("repos.json");
+        Map<String, RepositoryData> repos = new LinkedHashMap<>();
+        for (String name : List.of("apache/maven", "facebook/react", "vuejs/vue", "npm/cli")) {
+            repos.put(name, new RepositoryData("https://github.com/" + name, null, List.of(ProjectType.npm),
+                    false, null));
+        }
+        RepositoryListCodec.JSON.write(file, repos);
+        Shard shard = new Shard(1, 3);
+
+        Path shardFile = RepositoryListFiles.openShard(file, shard);
+
+        assertEquals(shard.fileFor(file), shardFile);
+        assertEquals(List.of("vuejs/vue"), names(shardFile));
+        // Once created, the shard keeps its own list even when the full list changes.
+        RepositoryListCodec.JSON.write(file, Map.of());
+        RepositoryListCodec.JSON.write(shardFile, Map.of("owner/checked", repos.get("vuejs/vue")));
+        assertEquals(shardFile, RepositoryListFiles.openShard(file, shard));
+        assertEquals(List.of("owner/checked"), names(shardFile));
+    }
+
+    private static List<String> names(Path file) {
+        try (RepositoryListCodec.Entries entries = RepositoryListCodec.JSON.read(file)) {
+            List<String> names = new ArrayList<>();
+            entries.forEachRemaining(entry -> names.add(entry.getKey()));
+            return names;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.chains_project.miner;
+
+import io.github.chains_project.miner.GitHubAPITokenQueue.Bucket;
+import io.github.chains_project.miner.TokenVerifier.RateLimit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class TokenVerifierTest {
+
+    private static final String TOKEN = "ghp_secret";
+
+    @Test
+    void reusesTheRateLimitsOfCachedChecks(@TempDir Path directory) {
+        Path cacheFile = directory.resolve("tokens.json");
+        AtomicInteger requests = new AtomicInteger();
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            requests.incrementAndGet();
+            return new Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create("{\"resources\":{\"core\":{\"remaining\":4321,\"reset\":4102444800}," +
+                            "\"search\":{\"remaining\":29,\"reset\":4102444800}}}",
+                            MediaType.get("application/json")))
+                    .build();
+        }).build();
+
+        Map<String, Map<Bucket, RateLimit>> checked = new TokenVerifier(httpClient, cacheFile).verify(List.of(TOKEN));
+        Map<String, Map<Bucket, RateLimit>> cached = new TokenVerifier(httpClient, cacheFile).verify(List.of(TOKEN));
+
+        assertEquals(1, requests.get());
+        assertEquals(Map.of(Bucket.CORE, new RateLimit(4321, 4102444800_000L),
+                Bucket.SEARCH, new RateLimit(29, 4102444800_000L)), checked.get(TOKEN));
+        assertEquals(checked, cached);
+    }
+
+    @Test
+    void neverWritesTheTokens(@TempDir Path directory) throws IOException {
+        Path cacheFile = directory.resolve("tokens.json");
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .body(ResponseBody.create("{}", MediaType.get("application/json")))
+                .build()).build();
+
+        new TokenVerifier(httpClient, cacheFile).verify(List.of(TOKEN));
+
+        assertFalse(Files.readString(cacheFile).contains(TOKEN));
+        assertFalse(TokenVerifier.fingerprint(TOKEN).contains(TOKEN));
+    }
+}